@@ -0,0 +1,36 @@
+package com.example.hls.benchmarks;
+
+import com.example.hls.model.ad.AdResponse;
+import com.example.hls.model.ad.SessionContext;
+import com.example.hls.util.JsonConverter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of the JSON bodies returned by the session context and ad services.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonConverterBenchmark {
+
+    private static final String SESSION_CONTEXT = "{\"id\":\"3f2b7c1e-2a4d-4e4b-9c1a-0d9e8f7a6b5c\",\"clientIp\":\"203.0.113.17\"}";
+    private static final String AD_RESPONSE = "{\"id\":\"pod-42\",\"adDetailsList\":[{\"duration\":15},{\"duration\":30},{\"duration\":15}]}";
+
+    private final JsonConverter converter = new JsonConverter(new ObjectMapper());
+
+    @Benchmark
+    public SessionContext sessionContext() {
+        return converter.deserializeJson(SESSION_CONTEXT, SessionContext.class);
+    }
+
+    @Benchmark
+    public AdResponse adResponse() {
+        return converter.deserializeJson(AD_RESPONSE, AdResponse.class);
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.hls.benchmarks;
+
+import com.example.hls.model.CachedPlaylist;
+import com.example.hls.model.MediaPlaylist;
+import com.example.hls.model.PlaylistVariant;
+import com.example.hls.model.ad.AdSegment;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing and rendering of origin playlists, with and without an ad break spliced in.
+ * <p>
+ * {@code parseAndRender*} is the cost of a playlist cache refresh, {@code cachedVariant}
+ * what every other viewer of the same playlist pays.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PlaylistRewriteBenchmark {
+
+    private static final PlaylistVariant ADS = new PlaylistVariant("ads/720p/", List.of(
+            AdSegment.predefined("ad-0.ts", 5), AdSegment.predefined("ad-1.ts", 5), AdSegment.predefined("ad-2.ts", 5)));
+    private static final List<String> AD_BREAK = List.of(
+            "#EXT-X-DISCONTINUITY",
+            "#EXTINF:5.0,", "ads/720p/ad-0.ts",
+            "#EXTINF:5.0,", "ads/720p/ad-1.ts",
+            "#EXTINF:5.0,", "ads/720p/ad-2.ts",
+            "#EXT-X-DISCONTINUITY");
+
+    /**
+     * Live window of the transcoder, a long event window and a full DVR playlist.
+     */
+    @Param({"8", "60", "720"})
+    public int segments;
+
+    private String body;
+    private CachedPlaylist cached;
+
+    @Setup
+    public void setUp() {
+        body = Playlists.live(segments, 1_000);
+        cached = new CachedPlaylist(body, "\"v1\"", null, System.currentTimeMillis());
+        cached.variant(PlaylistVariant.NONE, MediaPlaylist::render);
+        cached.variant(ADS, playlist -> playlist.render(AD_BREAK));
+    }
+
+    @Benchmark
+    public byte[] parseAndRender() {
+        return MediaPlaylist.parse(body).render().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] parseAndRenderWithAds() {
+        return MediaPlaylist.parse(body).render(AD_BREAK).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] cachedVariant() {
+        return cached.variant(PlaylistVariant.NONE, MediaPlaylist::render);
+    }
+
+    @Benchmark
+    public byte[] cachedVariantWithAds() {
+        return cached.variant(ADS, playlist -> playlist.render(AD_BREAK));
+    }
+}
@@ -0,0 +1,23 @@
+package com.example.hls.benchmarks;
+
+/**
+ * Builds m3u8 bodies shaped like the ones the transcoder writes.
+ */
+final class Playlists {
+
+    private Playlists() {
+    }
+
+    static String live(int segments, long firstSequence) {
+        StringBuilder out = new StringBuilder(128 + segments * 40);
+        out.append("#EXTM3U\n")
+                .append("#EXT-X-VERSION:3\n")
+                .append("#EXT-X-TARGETDURATION:5\n")
+                .append("#EXT-X-MEDIA-SEQUENCE:").append(firstSequence).append('\n');
+        for (int i = 0; i < segments; i++) {
+            out.append("#EXTINF:5.005,\n")
+                    .append("segment_").append(firstSequence + i).append(".ts\n");
+        }
+        return out.toString();
+    }
+}
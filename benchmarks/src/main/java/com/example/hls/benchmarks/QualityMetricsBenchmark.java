@@ -0,0 +1,35 @@
+package com.example.hls.benchmarks;
+
+import com.example.hls.model.QualityMetrics;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per-record work of the session metrics aggregator.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QualityMetricsBenchmark {
+
+    private final QualityMetrics metrics = new QualityMetrics();
+    private final String[] chunks = new String[64];
+    private int next;
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = "segment_" + (1_000 + i) + ".ts";
+        }
+    }
+
+    @Benchmark
+    public long update() {
+        metrics.update(chunks[next++ & 63], 262_144);
+        return metrics.getLastSequence();
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.hls.benchmarks;
+
+import com.example.hls.config.AdMediaConfiguration;
+import com.example.hls.model.SegmentPayload;
+import com.example.hls.service.AdDecisionService;
+import com.example.hls.service.AdMediaService;
+import com.example.hls.service.HlsService;
+import com.example.hls.service.SessionService;
+import com.example.hls.service.cache.AdCreativeCache;
+import com.example.hls.service.cache.PlaylistCache;
+import com.example.hls.service.cache.SegmentCache;
+import com.example.hls.service.cache.SegmentPrefetcher;
+import com.example.hls.service.metrics.PipelineMetrics;
+import com.example.hls.service.origin.LocalSegmentOrigin;
+import com.example.hls.service.origin.SegmentIndex;
+import com.example.hls.service.resilience.Upstreams;
+import com.example.hls.util.JsonConverter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end {@link HlsService} requests against an in-process stub origin on loopback.
+ * With the segment cache disabled every request is relayed from the origin.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SegmentProxyBenchmark {
+
+    @Param({"true", "false"})
+    public boolean segmentCache;
+
+    /**
+     * About one second and five seconds of 720p transport stream.
+     */
+    @Param({"262144", "1310720"})
+    public int segmentBytes;
+
+    private DisposableServer origin;
+    private SessionService sessionService;
+    private HlsService hlsService;
+
+    @Setup
+    public void setUp() {
+        byte[] segment = new byte[segmentBytes];
+        byte[] playlist = Playlists.live(8, 1_000).getBytes(StandardCharsets.UTF_8);
+        origin = HttpServer.create()
+                .host("127.0.0.1")
+                .port(0)
+                .handle((req, res) -> req.uri().endsWith(".m3u8")
+                        ? res.header("ETag", "\"v1\"").sendByteArray(Mono.just(playlist))
+                        : res.header("Content-Length", String.valueOf(segment.length)).sendByteArray(Mono.just(segment)))
+                .bindNow();
+        String base = "http://127.0.0.1:" + origin.port();
+
+        WebClient webClient = WebClient.create();
+        PlaylistCache playlists = new PlaylistCache(webClient, 2_500, 5);
+        SegmentCache segments = new SegmentCache(segmentCache, 268_435_456, 8);
+        sessionService = new SessionService();
+        hlsService = new HlsService(webClient,
+                sessionService,
+                playlists,
+                new LocalSegmentOrigin(false, "live", 262_144, 60_000),
+                segments,
+                new AdCreativeCache(webClient, base + "/ads", List.of("720p"), List.of("high"), List.of("ad-0"), 67_108_864),
+                Upstreams.defaults(),
+                PipelineMetrics.simple(),
+                new SegmentIndex(false, "live"),
+                new SegmentPrefetcher(playlists, segments, webClient, Upstreams.defaults(), false, 8, 33_554_432, 0, 5),
+                new AdDecisionService(new AdMediaService(webClient, new AdMediaConfiguration(),
+                        new JsonConverter(new ObjectMapper()), Upstreams.defaults()), false, 10_000, 2_000, 15, 5));
+        ReflectionTestUtils.setField(hlsService, "originBaseUrl", base + "/hls");
+        ReflectionTestUtils.setField(hlsService, "adFrequencyMinutes", 2);
+        ReflectionTestUtils.setField(hlsService, "segmentDurationSeconds", 5);
+        ReflectionTestUtils.setField(hlsService, "segmentDelivery", "streaming");
+    }
+
+    @TearDown
+    public void tearDown() {
+        origin.disposeNow();
+        sessionService.shutdown();
+    }
+
+    @Benchmark
+    public long segment() {
+        return hlsService.getSegment("bench", "segment_1000", "720p", "user-1")
+                .flatMap(SegmentProxyBenchmark::consume)
+                .block();
+    }
+
+    @Benchmark
+    public int playlist() {
+        return hlsService.getPlaylist("bench", "playlist", "720p", "user-1").block().length;
+    }
+
+    /**
+     * Reads the payload the way the response writer would and releases its buffers.
+     */
+    private static Mono<Long> consume(SegmentPayload payload) {
+        if (payload instanceof SegmentPayload.Buffers buffers) {
+            return buffers.body()
+                    .map(buffer -> {
+                        long length = buffer.readableByteCount();
+                        DataBufferUtils.release(buffer);
+                        return length;
+                    })
+                    .reduce(0L, Long::sum);
+        }
+        return Mono.just(payload.contentLength());
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.hls.benchmarks;
+
+import com.example.hls.model.Session;
+import com.example.hls.service.SessionService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Session lookups and metric updates as done for every playlist and segment request,
+ * from one thread up to all available processors.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SessionServiceBenchmark {
+
+    private static final int SESSIONS = 10_000;
+
+    @State(Scope.Benchmark)
+    public static class Sessions {
+        final SessionService service = new SessionService();
+        final String[] ids = new String[SESSIONS];
+        final String[] chunks = new String[64];
+
+        @Setup
+        public void setUp() {
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = "session-" + i;
+                service.getSession(ids[i], 24);
+            }
+            for (int i = 0; i < chunks.length; i++) {
+                chunks[i] = "segment_" + (1_000 + i) + ".ts";
+            }
+        }
+
+        @TearDown
+        public void tearDown() {
+            service.shutdown();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        int advance() {
+            next = (next + 7) % SESSIONS;
+            return next;
+        }
+    }
+
+    private static Session getSession(Sessions sessions, Cursor cursor) {
+        return sessions.service.getSession(sessions.ids[cursor.advance()], 24);
+    }
+
+    private static void updateMetrics(Sessions sessions, Cursor cursor) {
+        int i = cursor.advance();
+        sessions.service.updateMetrics(sessions.ids[i], "720p", sessions.chunks[i & 63], 262_144);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Session getSession1(Sessions sessions, Cursor cursor) {
+        return getSession(sessions, cursor);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Session getSession4(Sessions sessions, Cursor cursor) {
+        return getSession(sessions, cursor);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Session getSessionMax(Sessions sessions, Cursor cursor) {
+        return getSession(sessions, cursor);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void updateMetrics1(Sessions sessions, Cursor cursor) {
+        updateMetrics(sessions, cursor);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void updateMetrics4(Sessions sessions, Cursor cursor) {
+        updateMetrics(sessions, cursor);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void updateMetricsMax(Sessions sessions, Cursor cursor) {
+        updateMetrics(sessions, cursor);
+    }
+}
@@ -2,6 +2,7 @@ package com.example.hls.config;
 
 import com.zenomedia.session.common.SessionTokenManager;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.util.StringUtils;
@@ -11,6 +12,7 @@ import java.util.Set;
 import java.util.stream.Collectors;
 
 @Configuration
+@EnableConfigurationProperties({TranscodingProperties.class, HttpClientProperties.class})
 class ApplicationConfiguration {
 
     @Bean
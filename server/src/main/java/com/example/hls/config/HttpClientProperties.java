@@ -0,0 +1,61 @@
+package com.example.hls.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Connection pools of the upstream HTTP clients under {@code hls.http}, by upstream name:
+ * {@code origin}, {@code ad-media}, {@code ad-provider} and {@code session-context}.
+ * Upstreams without an entry use the defaults of {@link Pool}.
+ *
+ * @param pools pool settings by upstream name
+ */
+@ConfigurationProperties(prefix = "hls.http")
+public record HttpClientProperties(Map<String, Pool> pools) {
+
+    public HttpClientProperties {
+        pools = pools == null ? Map.of() : Map.copyOf(pools);
+    }
+
+    public Pool pool(String upstream) {
+        return pools.getOrDefault(upstream, Pool.DEFAULT);
+    }
+
+    /**
+     * @param maxConnections               connections open at most, per remote address
+     * @param pendingAcquireMaxCount       requests waiting for a connection, further ones fail right away
+     * @param pendingAcquireTimeoutMillis  time a request waits for a connection
+     * @param maxIdleTimeMillis            idle connections are closed after this time
+     * @param maxLifeTimeMillis            connections are closed after this time, 0 keeps them
+     * @param evictInBackgroundMillis      interval of the background eviction of idle connections, 0 evicts on acquire only
+     * @param leasing                      {@code fifo} spreads requests over all connections, {@code lifo} reuses
+     *                                     the most recent one and lets the others idle out
+     * @param warmConnections              connections opened when the application is ready
+     * @param protocol                     {@code http11}, {@code h2} over TLS or {@code h2c} over plain HTTP.
+     *                                     With HTTP/2 requests are multiplexed over the pool connections.
+     */
+    public record Pool(int maxConnections, int pendingAcquireMaxCount, long pendingAcquireTimeoutMillis,
+                       long maxIdleTimeMillis, long maxLifeTimeMillis, long evictInBackgroundMillis,
+                       String leasing, int warmConnections, String protocol) {
+
+        static final Pool DEFAULT = new Pool(0, 0, 0, 0, 0, 0, null, 0, null);
+
+        public Pool {
+            maxConnections = maxConnections > 0 ? maxConnections : 100;
+            pendingAcquireMaxCount = pendingAcquireMaxCount > 0 ? pendingAcquireMaxCount : maxConnections * 2;
+            pendingAcquireTimeoutMillis = pendingAcquireTimeoutMillis > 0 ? pendingAcquireTimeoutMillis : 1_000;
+            maxIdleTimeMillis = maxIdleTimeMillis > 0 ? maxIdleTimeMillis : 30_000;
+            maxLifeTimeMillis = Math.max(maxLifeTimeMillis, 0);
+            evictInBackgroundMillis = Math.max(evictInBackgroundMillis, 0);
+            leasing = Objects.requireNonNullElse(leasing, "fifo");
+            warmConnections = Math.max(warmConnections, 0);
+            protocol = Objects.requireNonNullElse(protocol, "http11");
+        }
+
+        public boolean isLifo() {
+            return leasing.equals("lifo");
+        }
+    }
+}
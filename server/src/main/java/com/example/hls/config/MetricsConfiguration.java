@@ -0,0 +1,136 @@
+package com.example.hls.config;
+
+import com.example.hls.model.CacheStats;
+import com.example.hls.service.AdDecisionService;
+import com.example.hls.service.AdMediaService;
+import com.example.hls.service.FfmpegService;
+import com.example.hls.service.SessionService;
+import com.example.hls.service.cache.AdCreativeCache;
+import com.example.hls.service.cache.PlaylistCache;
+import com.example.hls.service.cache.SegmentCache;
+import com.example.hls.service.cache.SegmentPrefetcher;
+import com.example.hls.service.origin.SegmentIndex;
+import com.example.hls.service.resilience.Upstream;
+import com.example.hls.service.resilience.Upstreams;
+import com.example.hls.service.session.SessionContextService;
+import com.example.hls.service.session.SessionTokenService;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.function.Supplier;
+
+/**
+ * Gauges over the state the services already keep, read when the registry is scraped.
+ */
+@Configuration
+public class MetricsConfiguration {
+
+    @Bean
+    public MeterBinder hlsGauges(SessionService sessionService, FfmpegService ffmpegService,
+                                 AdMediaService adMediaService, SegmentIndex segmentIndex) {
+        return registry -> {
+            Gauge.builder("hls.sessions.active", sessionService, SessionService::size)
+                    .register(registry);
+            FunctionCounter.builder("hls.session.metrics.dropped", sessionService, SessionService::droppedMetrics)
+                    .register(registry);
+            Gauge.builder("hls.ffmpeg.processes", ffmpegService, FfmpegService::runningProcesses)
+                    .register(registry);
+            Gauge.builder("hls.segment.index.renditions", segmentIndex, index -> index.renditions().size())
+                    .register(registry);
+            Gauge.builder("hls.ad.media.cache.entries", adMediaService, AdMediaService::codecSettingCacheSize)
+                    .tag("cache", "codecSettings")
+                    .register(registry);
+            Gauge.builder("hls.ad.media.cache.entries", adMediaService, AdMediaService::adCatalogCacheSize)
+                    .tag("cache", "adCatalog")
+                    .register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder cacheGauges(PlaylistCache playlistCache, SegmentCache segmentCache,
+                                   AdCreativeCache adCreativeCache, SessionContextService sessionContextService,
+                                   SessionTokenService sessionTokenService, SegmentPrefetcher segmentPrefetcher,
+                                   AdDecisionService adDecisionService) {
+        return registry -> {
+            bindCache(registry, "playlists", playlistCache::stats);
+            bindCache(registry, "segments", segmentCache::stats);
+            bindCache(registry, "adCreatives", adCreativeCache::stats);
+            bindCache(registry, "sessionContexts", sessionContextService::stats);
+            bindCache(registry, "sessionTokens", sessionTokenService::stats);
+            Gauge.builder("hls.playlist.parked.requests", playlistCache, PlaylistCache::parkedRequests)
+                    .register(registry);
+            FunctionCounter.builder("hls.segment.prefetches", segmentPrefetcher, SegmentPrefetcher::prefetched)
+                    .tag("result", "fetched")
+                    .register(registry);
+            FunctionCounter.builder("hls.segment.prefetches", segmentPrefetcher, SegmentPrefetcher::skipped)
+                    .tag("result", "skipped")
+                    .register(registry);
+            FunctionCounter.builder("hls.segment.prefetches", segmentPrefetcher, SegmentPrefetcher::failed)
+                    .tag("result", "failed")
+                    .register(registry);
+            FunctionCounter.builder("hls.ad.decisions", adDecisionService, AdDecisionService::staged)
+                    .tag("result", "staged")
+                    .register(registry);
+            FunctionCounter.builder("hls.ad.decisions", adDecisionService, AdDecisionService::failed)
+                    .tag("result", "failed")
+                    .register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder upstreamMeters(Upstreams upstreams) {
+        return registry -> {
+            bindUpstream(registry, upstreams.origin());
+            bindUpstream(registry, upstreams.adMedia());
+            bindUpstream(registry, upstreams.adProvider());
+            bindUpstream(registry, upstreams.sessionContext());
+        };
+    }
+
+    private static void bindUpstream(MeterRegistry registry, Upstream upstream) {
+        String name = upstream.getName();
+        FunctionCounter.builder("hls.upstream.calls", upstream, u -> u.stats().calls())
+                .tag("upstream", name)
+                .register(registry);
+        FunctionCounter.builder("hls.upstream.failures", upstream, u -> u.stats().failures())
+                .tag("upstream", name)
+                .register(registry);
+        FunctionCounter.builder("hls.upstream.timeouts", upstream, u -> u.stats().timeouts())
+                .tag("upstream", name)
+                .register(registry);
+        FunctionCounter.builder("hls.upstream.rejected", upstream, u -> u.stats().rejected())
+                .tag("upstream", name)
+                .register(registry);
+        FunctionCounter.builder("hls.upstream.hedges", upstream, u -> u.stats().hedges())
+                .tag("upstream", name)
+                .register(registry);
+        // 0 closed, 1 half open, 2 open
+        Gauge.builder("hls.upstream.circuit.state", upstream, u -> switch (u.stats().state()) {
+                    case CLOSED -> 0;
+                    case HALF_OPEN -> 1;
+                    case OPEN -> 2;
+                })
+                .tag("upstream", name)
+                .register(registry);
+    }
+
+    private static void bindCache(MeterRegistry registry, String name, Supplier<CacheStats> stats) {
+        Gauge.builder("hls.cache.entries", () -> stats.get().entries())
+                .tag("cache", name)
+                .register(registry);
+        Gauge.builder("hls.cache.bytes", () -> stats.get().bytes())
+                .tag("cache", name)
+                .baseUnit("bytes")
+                .register(registry);
+        FunctionCounter.builder("hls.cache.hits", stats, s -> s.get().hits())
+                .tag("cache", name)
+                .register(registry);
+        FunctionCounter.builder("hls.cache.misses", stats, s -> s.get().misses())
+                .tag("cache", name)
+                .register(registry);
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.hls.config;
+
+import com.example.hls.service.session.InMemorySessionStore;
+import com.example.hls.service.session.MappedSessionStore;
+import com.example.hls.service.session.SessionStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.nio.file.Path;
+
+@Configuration
+public class SessionStoreConfiguration {
+    private static final Logger logger = LoggerFactory.getLogger(SessionStoreConfiguration.class);
+
+    /**
+     * "memory" keeps sessions on the heap only, "mapped" persists them to {@code hls.session.store-path}.
+     */
+    @Bean
+    public SessionStore sessionStore(@Value("${hls.session.store:memory}") String store,
+                                     @Value("${hls.session.store-path:sessions.dat}") String storePath,
+                                     @Value("${hls.session.max-sessions:100000}") int maxSessions,
+                                     @Value("${hls.session.idle-timeout-millis:600000}") long idleTimeoutMillis) {
+        if ("mapped".equals(store)) {
+            logger.info("Persisting up to {} sessions in {}", maxSessions, storePath);
+            return new MappedSessionStore(Path.of(storePath), maxSessions, idleTimeoutMillis);
+        }
+        return new InMemorySessionStore();
+    }
+}
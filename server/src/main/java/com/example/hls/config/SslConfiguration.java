@@ -10,6 +10,7 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.util.ResourceUtils;
+import reactor.netty.http.Http2SslContextSpec;
 
 import javax.net.ssl.SSLContext;
 import java.io.File;
@@ -48,6 +49,30 @@ public class SslConfiguration {
     @Bean
     @Qualifier("nettySSLContext")
     public SslContext nettySSLContext() throws Exception {
+        ClientKey clientKey = clientKey();
+        return SslContextBuilder.forClient()
+                .keyManager(clientKey.privateKey(), password, clientKey.certificateChain())
+                .trustManager(InsecureTrustManagerFactory.INSTANCE)
+                .build();
+    }
+
+    /**
+     * TLS settings of upstream clients negotiating HTTP/2, presenting the same client
+     * certificate as {@link #nettySSLContext()}.
+     */
+    @Bean
+    public Http2SslContextSpec http2SslContextSpec() throws Exception {
+        ClientKey clientKey = clientKey();
+        return Http2SslContextSpec.forClient()
+                .configure(builder -> builder
+                        .keyManager(clientKey.privateKey(), password, clientKey.certificateChain())
+                        .trustManager(InsecureTrustManagerFactory.INSTANCE));
+    }
+
+    private record ClientKey(PrivateKey privateKey, X509Certificate[] certificateChain) {
+    }
+
+    private ClientKey clientKey() throws Exception {
         char[] passwordChars = password.toCharArray();
         KeyStore keystore = keyStore(keystoreFile, passwordChars);
         String alias = keystore.aliases().nextElement();
@@ -60,10 +85,7 @@ public class SslConfiguration {
         for (int i = 0; i < certificateChain.length; i++) {
             x509Certificates[i] = (X509Certificate) certificateChain[i];
         }
-        return SslContextBuilder.forClient()
-                .keyManager(privateKey, password, x509Certificates)
-                .trustManager(InsecureTrustManagerFactory.INSTANCE)
-                .build();
+        return new ClientKey(privateKey, x509Certificates);
     }
 
     private KeyStore keyStore(String file, char[] password)
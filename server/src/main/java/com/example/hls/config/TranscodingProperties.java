@@ -0,0 +1,102 @@
+package com.example.hls.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Transcoding ladders under {@code hls.transcoding}, selected per stream by the suffix
+ * of the stream name.
+ *
+ * @param defaultLadder ladder of streams whose suffix has no entry in {@code suffixes}
+ * @param audioLadder   ladder of streams published to the audio application
+ * @param suffixes      ladder name by stream name suffix, e.g. {@code tv}
+ * @param ladders       ladders by name
+ */
+@ConfigurationProperties(prefix = "hls.transcoding")
+public record TranscodingProperties(String defaultLadder, String audioLadder, Map<String, String> suffixes,
+                                    Map<String, Ladder> ladders) {
+
+    public TranscodingProperties {
+        defaultLadder = Objects.requireNonNullElse(defaultLadder, "video");
+        audioLadder = Objects.requireNonNullElse(audioLadder, "audio");
+        suffixes = suffixes == null ? Map.of() : Map.copyOf(suffixes);
+        ladders = ladders == null ? Map.of() : Map.copyOf(ladders);
+    }
+
+    /**
+     * @param gop             frames between key frames, also the minimum key frame interval
+     * @param preset          encoder preset of the video renditions
+     * @param segmentSeconds  target HLS segment duration
+     * @param listSize        segments kept in the playlists
+     * @param partsPerSegment parts cut per segment for Low-Latency HLS, 0 cuts whole segments. Has to
+     *                        match {@code hls.low-latency.parts-per-segment} of the servers.
+     * @param segmentType     {@code mpegts} for TS and ADTS segments, {@code fmp4} for CMAF init and
+     *                        media segments served as HLS and DASH alike
+     */
+    public record Ladder(List<Rendition> renditions, int gop, String preset, int segmentSeconds, int listSize,
+                         int partsPerSegment, String segmentType) {
+
+        public Ladder {
+            renditions = renditions == null ? List.of() : List.copyOf(renditions);
+            preset = Objects.requireNonNullElse(preset, "veryfast");
+            gop = gop > 0 ? gop : 48;
+            segmentSeconds = segmentSeconds > 0 ? segmentSeconds : 4;
+            listSize = listSize > 0 ? listSize : 8;
+            partsPerSegment = Math.max(partsPerSegment, 0);
+            segmentType = Objects.requireNonNullElse(segmentType, "mpegts");
+        }
+
+        public boolean isLowLatency() {
+            return partsPerSegment > 0;
+        }
+
+        public boolean isCmaf() {
+            return segmentType.equals("fmp4");
+        }
+
+        public boolean hasVideo() {
+            return renditions.stream().anyMatch(Rendition::hasVideo);
+        }
+    }
+
+    /**
+     * One variant of the ladder. A rendition without a video codec is audio only, one
+     * without an audio codec carries no audio. Width and height are optional, the source
+     * size is kept without them.
+     */
+    public record Rendition(String name, Integer width, Integer height, String videoCodec, String videoBitrate,
+                            String audioCodec, String audioBitrate) {
+
+        public boolean hasVideo() {
+            return videoCodec != null && !videoCodec.isEmpty();
+        }
+
+        public boolean hasAudio() {
+            return audioCodec != null && !audioCodec.isEmpty();
+        }
+    }
+
+    /**
+     * Returns the ladder of the stream, chosen by the longest configured suffix its name ends with.
+     */
+    public Ladder ladderFor(String stream) {
+        String name = suffixes.entrySet().stream()
+                .filter(e -> stream != null && stream.endsWith(e.getKey()))
+                .max(Comparator.comparingInt(e -> e.getKey().length()))
+                .map(Map.Entry::getValue)
+                .orElse(defaultLadder);
+        return ladder(name);
+    }
+
+    public Ladder ladder(String name) {
+        Ladder ladder = ladders.get(name);
+        if (ladder == null) {
+            throw new IllegalStateException("No transcoding ladder named " + name);
+        }
+        return ladder;
+    }
+}
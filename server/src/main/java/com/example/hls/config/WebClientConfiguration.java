@@ -6,30 +6,159 @@ import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.fasterxml.jackson.datatype.jsr310.deser.LocalDateTimeDeserializer;
 import io.netty.handler.ssl.SslContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.event.EventListener;
 import org.springframework.http.client.reactive.ReactorClientHttpConnector;
-import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.web.reactive.function.client.ClientResponse;
 import org.springframework.web.reactive.function.client.ExchangeStrategies;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.Http2SslContextSpec;
+import reactor.netty.http.HttpProtocol;
 import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+/**
+ * One {@link WebClient} per upstream, each on a connection pool of its own, so a slow
+ * upstream can only exhaust its own connections. The origin client is the primary one,
+ * the others are injected by qualifier. Pool sizes and leasing are configured under
+ * {@code hls.http.pools}, the pools report {@code reactor.netty.connection.provider.*}
+ * metrics tagged with the upstream name.
+ */
 @Configuration
-public class WebClientConfiguration {
+public class WebClientConfiguration implements DisposableBean {
+    private static final Logger logger = LoggerFactory.getLogger(WebClientConfiguration.class);
+
+    private final HttpClientProperties properties;
+    private final List<ConnectionProvider> providers = new CopyOnWriteArrayList<>();
+    private final List<Warmup> warmups = new CopyOnWriteArrayList<>();
+
+    private record Warmup(String upstream, HttpClient httpClient, WebClient webClient, String url, int connections) {
+    }
+
+    public WebClientConfiguration(HttpClientProperties properties) {
+        this.properties = properties;
+    }
+
+    @Bean
+    @Primary
+    public WebClient webClient(SslContext nettySSLContext, Http2SslContextSpec http2SslContextSpec,
+                               @Value("${hls.origin-base-url}") String originBaseUrl) {
+        return webClient("origin", nettySSLContext, http2SslContextSpec, originBaseUrl);
+    }
+
+    @Bean
+    @Qualifier("adMedia")
+    public WebClient adMediaWebClient(SslContext nettySSLContext, Http2SslContextSpec http2SslContextSpec,
+                                      @Value("${admedia.url:}") String adMediaUrl) {
+        return webClient("ad-media", nettySSLContext, http2SslContextSpec, adMediaUrl);
+    }
 
     @Bean
-    public WebClient webClient(SslContext nettySSLContext) {
-        HttpClient httpConnector = HttpClient.create().secure(t -> t.sslContext(nettySSLContext));
+    @Qualifier("adProvider")
+    public WebClient adProviderWebClient(SslContext nettySSLContext, Http2SslContextSpec http2SslContextSpec,
+                                         @Value("${adprovider.url:}") String adProviderUrl) {
+        return webClient("ad-provider", nettySSLContext, http2SslContextSpec, adProviderUrl);
+    }
 
-        return WebClient.builder()
-                .clientConnector(new ReactorClientHttpConnector(httpConnector))
+    @Bean
+    @Qualifier("sessionContext")
+    public WebClient sessionContextWebClient(SslContext nettySSLContext, Http2SslContextSpec http2SslContextSpec,
+                                             @Value("${service.session-context.url:}") String sessionContextUrl) {
+        return webClient("session-context", nettySSLContext, http2SslContextSpec, sessionContextUrl);
+    }
+
+    private WebClient webClient(String upstream, SslContext sslContext, Http2SslContextSpec http2SslContext,
+                                String warmupUrl) {
+        HttpClientProperties.Pool pool = properties.pool(upstream);
+        ConnectionProvider.Builder builder = ConnectionProvider.builder(upstream)
+                .maxConnections(pool.maxConnections())
+                .pendingAcquireMaxCount(pool.pendingAcquireMaxCount())
+                .pendingAcquireTimeout(Duration.ofMillis(pool.pendingAcquireTimeoutMillis()))
+                .maxIdleTime(Duration.ofMillis(pool.maxIdleTimeMillis()))
+                .metrics(true);
+        if (pool.maxLifeTimeMillis() > 0) {
+            builder.maxLifeTime(Duration.ofMillis(pool.maxLifeTimeMillis()));
+        }
+        if (pool.evictInBackgroundMillis() > 0) {
+            builder.evictInBackground(Duration.ofMillis(pool.evictInBackgroundMillis()));
+        }
+        ConnectionProvider provider = (pool.isLifo() ? builder.lifo() : builder.fifo()).build();
+        providers.add(provider);
+
+        HttpClient httpClient = httpClient(pool, provider, sslContext, http2SslContext);
+
+        WebClient webClient = WebClient.builder()
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                // aggregated bodies only: buffered segment delivery and transcoded ad media,
+                // streamed segments are relayed buffer by buffer and never hit this limit
                 .exchangeStrategies(ExchangeStrategies.builder()
                         .codecs(configurer -> configurer.defaultCodecs().maxInMemorySize(16 * 1024 * 1024))
                         .build())
                 .build();
+        if (pool.warmConnections() > 0 && warmupUrl != null && !warmupUrl.isEmpty()) {
+            warmups.add(new Warmup(upstream, httpClient, webClient, warmupUrl, pool.warmConnections()));
+        }
+        return webClient;
+    }
+
+    /**
+     * HTTP client on the given pool speaking the protocol configured for the pool.
+     */
+    public static HttpClient httpClient(HttpClientProperties.Pool pool, ConnectionProvider provider,
+                                        SslContext sslContext, Http2SslContextSpec http2SslContext) {
+        return switch (pool.protocol()) {
+            // ALPN negotiates HTTP/2 and falls back to HTTP/1.1, with the same client certificate
+            case "h2" -> HttpClient.create(provider)
+                    .protocol(HttpProtocol.H2, HttpProtocol.HTTP11)
+                    .secure(spec -> spec.sslContext(http2SslContext));
+            // prior knowledge, the upstream has to accept HTTP/2 on its plain HTTP port
+            case "h2c" -> HttpClient.create(provider).protocol(HttpProtocol.H2C);
+            default -> HttpClient.create(provider).secure(t -> t.sslContext(sslContext));
+        };
+    }
+
+    /**
+     * Opens the configured number of connections per upstream before the first requests
+     * arrive, by sending that many concurrent HEAD requests to its base URL. The status of
+     * the answers does not matter, the connections stay in the pool until they idle out.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        for (Warmup warmup : warmups) {
+            warmup.httpClient().warmup()
+                    .thenMany(Flux.range(0, warmup.connections())
+                            .flatMap(i -> warmup.webClient().head().uri(warmup.url())
+                                    .exchangeToMono(ClientResponse::releaseBody)
+                                    .onErrorResume(error -> {
+                                        logger.debug("Warm-up request to {} failed: {}", warmup.upstream(), error.getMessage());
+                                        return Mono.empty();
+                                    }), warmup.connections()))
+                    .then()
+                    .subscribe(done -> {
+                    }, error -> logger.warn("Warm-up of {} connections failed", warmup.upstream(), error),
+                            () -> logger.info("Warmed up {} connections to {}", warmup.connections(), warmup.upstream()));
+        }
+    }
+
+    @Override
+    public void destroy() {
+        providers.forEach(ConnectionProvider::dispose);
     }
 
     @Bean
@@ -7,12 +7,10 @@ import com.example.hls.service.HlsService;
 import com.example.hls.service.FfmpegService;
 import com.example.hls.service.session.SessionTokenService;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.ByteArrayResource;
-import org.springframework.core.io.Resource;
-import org.springframework.http.CacheControl;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
 import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.Mono;
 
@@ -45,80 +43,112 @@ public class AudioHlsController {
     @PostMapping("/done")
     public ResponseEntity<Void> done(@RequestParam Map<String, String> params) {
         logger.info("Audio stream ended {}", params);
+        ffmpegService.stopTranscoding(params.get("name"));
         return ResponseEntity.ok().build();
     }
 
     @GetMapping(path = "/{stream}/{playlist}.m3u8", produces = "application/vnd.apple.mpegurl")
-    public Mono<ResponseEntity<?>> getPlaylist(@PathVariable String stream, @PathVariable String playlist, ServerHttpRequest request) {
+    public Mono<ResponseEntity<?>> getPlaylist(@PathVariable String stream, @PathVariable String playlist, @RequestParam(name = "_HLS_msn", required = false) Long msn, @RequestParam(name = "_HLS_part", required = false) Integer part, ServerHttpRequest request) {
         String user = request.getRemoteAddress().toString();
-        return hlsService.getPlaylist(stream, playlist, "", user)
-                .map(body -> {
-                    logger.debug("Audio playlist {}", body);
+        return hlsService.getPlaylist(stream, playlist, "", user, msn, part)
+                .map(served -> {
+                    logger.debug("Audio playlist {} served", playlist);
                     return ResponseEntity.ok()
-                            .cacheControl(CacheControl.noCache())
+                            .cacheControl(served.cacheControl())
                             .contentType(MediaType.valueOf("application/vnd.apple.mpegurl"))
-                            .body(body);
+                            .body(served.body());
                 });
     }
 
     @GetMapping(path = "{stream}/{quality}/{playlist}.m3u8", produces = "application/vnd.apple.mpegurl")
-    public Mono<ResponseEntity<?>> getPlaylistWithQuality(@PathVariable String stream, @PathVariable String quality, @PathVariable String playlist, ServerHttpRequest request) {
+    public Mono<ResponseEntity<?>> getPlaylistWithQuality(@PathVariable String stream, @PathVariable String quality, @PathVariable String playlist, @RequestParam(name = "_HLS_msn", required = false) Long msn, @RequestParam(name = "_HLS_part", required = false) Integer part, ServerHttpRequest request) {
         String user = request.getRemoteAddress().toString();
-        return hlsService.getPlaylist(stream, playlist, quality, user)
-                .map(body -> {
-                    logger.debug("Audio playlist {}", body);
+        return hlsService.getPlaylist(stream, playlist, quality, user, msn, part)
+                .map(served -> {
+                    logger.debug("Audio playlist {} served", playlist);
                     return ResponseEntity.ok()
-                            .cacheControl(CacheControl.noCache())
+                            .cacheControl(served.cacheControl())
                             .contentType(MediaType.valueOf("application/vnd.apple.mpegurl"))
-                            .body(body);
+                            .body(served.body());
                 });
     }
 
     @GetMapping(value = "{stream}/{segment}.aac", produces = "audio/aac")
-    public Mono<ResponseEntity<Resource>> getSegment(@PathVariable String stream, @PathVariable String segment, ServerHttpRequest request) {
+    public Mono<Void> getSegment(@PathVariable String stream, @PathVariable String segment, ServerHttpRequest request, ServerHttpResponse response) {
         String user = request.getRemoteAddress().toString();
-        return hlsService.getAudioSegment(stream, segment, "", user)
-                .map(data -> {
+        String etag = hlsService.knownEtag(stream, "", segment + ".aac");
+        if (SegmentResponses.isNotModified(request, etag)) {
+            return SegmentResponses.notModified(response, etag);
+        }
+        return hlsService.getAudioSegment(stream, segment, "", user, request.getRemoteAddress().getHostString())
+                .flatMap(payload -> {
                     logger.debug("Serving audio segment {}", segment);
-                    return ResponseEntity.ok()
-                            .cacheControl(CacheControl.noCache())
-                            .body(new ByteArrayResource(data));
+                    return SegmentResponses.write(request, response, SegmentResponses.AAC, payload);
                 });
     }
 
     @GetMapping(value = "{stream}/{quality}/{segment}.aac", produces = "audio/aac")
-    public Mono<ResponseEntity<Resource>> getSegmentWithQuality(@PathVariable String stream, @PathVariable String quality, @PathVariable String segment, ServerHttpRequest request) {
+    public Mono<Void> getSegmentWithQuality(@PathVariable String stream, @PathVariable String quality, @PathVariable String segment, ServerHttpRequest request, ServerHttpResponse response) {
         String user = request.getRemoteAddress().toString();
-        return hlsService.getAudioSegment(stream, segment, quality, user)
-                .map(data -> {
+        String etag = hlsService.knownEtag(stream, quality, segment + ".aac");
+        if (SegmentResponses.isNotModified(request, etag)) {
+            return SegmentResponses.notModified(response, etag);
+        }
+        return hlsService.getAudioSegment(stream, segment, quality, user, request.getRemoteAddress().getHostString())
+                .flatMap(payload -> {
                     logger.debug("Serving audio segment {} for quality {}", segment, quality);
-                    return ResponseEntity.ok()
-                            .cacheControl(CacheControl.noCache())
-                            .body(new ByteArrayResource(data));
+                    return SegmentResponses.write(request, response, SegmentResponses.AAC, payload);
                 });
     }
 
     @GetMapping(value = "{stream}/{quality}/ads/{segment}.aac", produces = "audio/aac")
-    public Mono<ResponseEntity<Resource>> getAdSegment(@PathVariable String stream, @PathVariable String segment, ServerHttpRequest request) {
+    public Mono<Void> getAdSegment(@PathVariable String stream, @PathVariable String segment, ServerHttpRequest request, ServerHttpResponse response) {
         String user = request.getRemoteAddress().toString();
         return hlsService.getAudioAdSegment(segment, "", user)
-                .map(data -> {
+                .flatMap(payload -> {
                     logger.debug("Serving audio ad segment {}", segment);
-                    return ResponseEntity.ok()
-                            .cacheControl(CacheControl.noCache())
-                            .body(new ByteArrayResource(data));
+                    return SegmentResponses.writeRevalidated(request, response, SegmentResponses.AAC, payload);
                 });
     }
 
     @GetMapping(value = "{stream}/{quality}/ads/{ad_quality}/{segment}.aac", produces = "audio/aac")
-    public Mono<ResponseEntity<Resource>> getAdSegmentWithQuality(@PathVariable String stream, @PathVariable String ad_quality, @PathVariable String segment, ServerHttpRequest request) {
+    public Mono<Void> getAdSegmentWithQuality(@PathVariable String stream, @PathVariable String ad_quality, @PathVariable String segment, ServerHttpRequest request, ServerHttpResponse response) {
         String user = request.getRemoteAddress().toString();
         return hlsService.getAudioAdSegment(segment, ad_quality, user)
-                .map(data -> {
+                .flatMap(payload -> {
                     logger.debug("Serving audio ad segment {} for quality {}", segment, ad_quality);
-                    return ResponseEntity.ok()
-                            .cacheControl(CacheControl.noCache())
-                            .body(new ByteArrayResource(data));
+                    return SegmentResponses.writeRevalidated(request, response, SegmentResponses.AAC, payload);
                 });
     }
+
+    @GetMapping(value = "{stream}/{quality}/{segment}.m4s", produces = "video/iso.segment")
+    public Mono<Void> getCmafSegment(@PathVariable String stream, @PathVariable String quality, @PathVariable String segment, ServerHttpRequest request, ServerHttpResponse response) {
+        String user = request.getRemoteAddress().toString();
+        String etag = hlsService.knownEtag(stream, quality, segment + ".m4s");
+        if (SegmentResponses.isNotModified(request, etag)) {
+            return SegmentResponses.notModified(response, etag);
+        }
+        return hlsService.getCmafSegment(stream, segment, quality, user, request.getRemoteAddress().getHostString())
+                .flatMap(payload -> SegmentResponses.write(request, response, SegmentResponses.CMAF_SEGMENT, payload));
+    }
+
+    @GetMapping(value = "{stream}/{quality}/{init}.mp4", produces = "audio/mp4")
+    public Mono<Void> getInitSegment(@PathVariable String stream, @PathVariable String quality, @PathVariable String init, ServerHttpRequest request, ServerHttpResponse response) {
+        return hlsService.getInitSegment(stream, init, quality)
+                .flatMap(payload -> SegmentResponses.writeRevalidated(request, response, SegmentResponses.AUDIO_MP4, payload));
+    }
+
+    @GetMapping(value = "{stream}/{quality}/ads/{ad_quality}/{segment}.m4s", produces = "video/iso.segment")
+    public Mono<Void> getCmafAdSegment(@PathVariable String stream, @PathVariable String ad_quality, @PathVariable String segment, ServerHttpRequest request, ServerHttpResponse response) {
+        String user = request.getRemoteAddress().toString();
+        return hlsService.getCmafAdSegment(segment, "m4s", ad_quality, user)
+                .flatMap(payload -> SegmentResponses.writeRevalidated(request, response, SegmentResponses.CMAF_SEGMENT, payload));
+    }
+
+    @GetMapping(value = "{stream}/{quality}/ads/{ad_quality}/{init}.mp4", produces = "audio/mp4")
+    public Mono<Void> getAdInitSegment(@PathVariable String stream, @PathVariable String ad_quality, @PathVariable String init, ServerHttpRequest request, ServerHttpResponse response) {
+        String user = request.getRemoteAddress().toString();
+        return hlsService.getCmafAdSegment(init, "mp4", ad_quality, user)
+                .flatMap(payload -> SegmentResponses.writeRevalidated(request, response, SegmentResponses.AUDIO_MP4, payload));
+    }
 }
@@ -0,0 +1,58 @@
+package com.example.hls.controller;
+
+import com.example.hls.service.DashService;
+import com.example.hls.service.session.SessionContextService;
+import com.example.hls.service.session.SessionTokenService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+
+/**
+ * DASH manifests of streams transcoded to CMAF. The manifest addresses the init and
+ * media segments served by {@link HlsController}.
+ */
+@RestController
+@RequestMapping("/live/stream")
+public class DashController {
+    private static final Logger logger = LoggerFactory.getLogger(DashController.class);
+    private static final MediaType DASH = MediaType.valueOf("application/dash+xml");
+
+    private final DashService dashService;
+    private final SessionTokenService tokenService;
+    private final SessionContextService sessionContextService;
+
+    @Autowired
+    public DashController(DashService dashService, SessionTokenService tokenService,
+                          SessionContextService sessionContextService) {
+        this.dashService = dashService;
+        this.tokenService = tokenService;
+        this.sessionContextService = sessionContextService;
+    }
+
+    @GetMapping(path = "/{stream}/manifest.mpd", produces = "application/dash+xml")
+    public Mono<ResponseEntity<byte[]>> getManifest(@PathVariable String stream, @RequestParam String zt, ServerHttpRequest request) {
+        return tokenService.resolve(zt)
+                .switchIfEmpty(Mono.error(() -> new ResponseStatusException(HttpStatus.FORBIDDEN, "Invalid session token")))
+                .flatMap(params -> {
+                    if (!tokenService.isValid(params, stream)) {
+                        logger.warn("Invalid token {} for stream {}", zt, stream);
+                    }
+                    sessionContextService.getSessionContext(request, stream, params.getId());
+                    logger.info("Serving DASH manifest of stream {}", stream);
+                    return dashService.getManifest(stream);
+                })
+                .map(body -> ResponseEntity.ok()
+                        .cacheControl(CacheControl.noCache())
+                        .contentType(DASH)
+                        .body(body))
+                .defaultIfEmpty(ResponseEntity.notFound().build());
+    }
+}
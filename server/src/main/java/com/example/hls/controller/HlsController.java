@@ -3,20 +3,20 @@ package com.example.hls.controller;
 import com.example.hls.model.NginxRtmpRequest;
 import com.example.hls.service.FfmpegService;
 import com.example.hls.service.HlsService;
+import com.example.hls.service.cache.AdCreativeCache;
 import com.example.hls.service.session.SessionContextService;
 import com.example.hls.service.session.SessionTokenService;
-import com.zenomedia.session.common.model.SessionTokenParams;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.ByteArrayResource;
-import org.springframework.core.io.Resource;
-import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
 import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
 import org.springframework.web.server.ServerWebExchange;
 import reactor.core.publisher.Mono;
 
@@ -34,14 +34,17 @@ public class HlsController {
     private final SessionTokenService tokenService;
     private final FfmpegService ffmpegService;
     private final SessionContextService sessionContextService;
+    private final AdCreativeCache adCreativeCache;
 
 
     @Autowired
-    public HlsController(HlsService hlsService, SessionTokenService tokenService, FfmpegService ffmpegService, SessionContextService sessionContextService) {
+    public HlsController(HlsService hlsService, SessionTokenService tokenService, FfmpegService ffmpegService,
+                         SessionContextService sessionContextService, AdCreativeCache adCreativeCache) {
         this.hlsService = hlsService;
         this.tokenService = tokenService;
         this.ffmpegService = ffmpegService;
         this.sessionContextService = sessionContextService;
+        this.adCreativeCache = adCreativeCache;
     }
 
     boolean isStreamValid(String stream) {
@@ -71,35 +74,49 @@ public class HlsController {
     public Mono<ResponseEntity<Object>> done(ServerWebExchange request) {
         return request.getFormData().map(data -> {
             logger.info("Stream ended {}", data);
+            ffmpegService.stopTranscoding(new NginxRtmpRequest(data).name());
             return ResponseEntity.ok().build();
         }).doOnError(err -> ResponseEntity.badRequest().build());
 
     }
 
+    /**
+     * Reloads the pinned ad creatives, e.g. after new creatives were published to the ad origin.
+     */
+    @PostMapping("/ads/reload")
+    public Mono<ResponseEntity<Object>> reloadAds() {
+        logger.info("Reloading ad creatives");
+        return adCreativeCache.reload().thenReturn(ResponseEntity.ok().build());
+    }
+
     /**
      * Return the playlist with a simple advertisement insertion after every third segment.
      */
     @GetMapping(path = "/{stream}/{playlist}.m3u8", produces = "application/vnd.apple.mpegurl")
-    public Mono<ResponseEntity<?>> getPlaylist(@PathVariable String stream, @PathVariable String playlist, @RequestParam String zt, ServerHttpRequest request) {
-        if (!tokenService.isValid(zt, stream)) {
-            logger.warn("Invalid token {} for stream {}", zt, stream);
-        }
-        final SessionTokenParams params = tokenService.getParams(zt);
-        return sessionContextService.requestEnhancedSessionContext(request, stream, params.getId()).flatMap(sessionContext -> {
-            String user = request.getRemoteAddress().getHostString();
-            logger.info("Serving playlist {} for user {}", playlist, user);
-            return hlsService.getPlaylist(stream, playlist, "", user)
-                    .map(body -> ResponseEntity.ok()
-                            .cacheControl(CacheControl.noCache())
-                            .contentType(MediaType.valueOf("application/vnd.apple.mpegurl"))
-                            .body(body));
-        });
+    public Mono<ResponseEntity<?>> getPlaylist(@PathVariable String stream, @PathVariable String playlist, @RequestParam String zt, @RequestParam(name = "_HLS_msn", required = false) Long msn, @RequestParam(name = "_HLS_part", required = false) Integer part, ServerHttpRequest request) {
+        String user = request.getRemoteAddress().getHostString();
+        // decoded once per token, later polls are served from the token cache
+        return tokenService.resolve(zt)
+                .switchIfEmpty(Mono.error(() -> new ResponseStatusException(HttpStatus.FORBIDDEN, "Invalid session token")))
+                .flatMap(params -> {
+                    if (!tokenService.isValid(params, stream)) {
+                        logger.warn("Invalid token {} for stream {}", zt, stream);
+                    }
+                    // served from the session context cache, enrichment by the remote service happens in the background
+                    sessionContextService.getSessionContext(request, stream, params.getId());
+                    logger.info("Serving playlist {} for user {}", playlist, user);
+                    return hlsService.getPlaylist(stream, playlist, "", user, msn, part);
+                })
+                .map(served -> ResponseEntity.ok()
+                        .cacheControl(served.cacheControl())
+                        .contentType(MediaType.valueOf("application/vnd.apple.mpegurl"))
+                        .body(served.body()));
 
 
     }
 
     @GetMapping(path = "{stream}/{quality}/{playlist}.m3u8", produces = "application/vnd.apple.mpegurl")
-    public Mono<ResponseEntity<?>> getPlaylistWithQuality(@PathVariable String stream, @PathVariable String quality, @PathVariable String playlist, ServerHttpRequest request) {
+    public Mono<ResponseEntity<?>> getPlaylistWithQuality(@PathVariable String stream, @PathVariable String quality, @PathVariable String playlist, @RequestParam(name = "_HLS_msn", required = false) Long msn, @RequestParam(name = "_HLS_part", required = false) Integer part, ServerHttpRequest request) {
 //        String token = request.getParameter("zt");
 //        if (!tokenService.isValid(token, name)) {
 //            String newToken = tokenService.generateToken(name);
@@ -109,59 +126,93 @@ public class HlsController {
 
         String user = request.getRemoteAddress().getHostString();
         logger.info("Serving playlist {} for user {}", playlist, user);
-        return hlsService.getPlaylist(stream, playlist, quality, user)
-                .map(body -> ResponseEntity.ok()
-                        .cacheControl(CacheControl.noCache())
+        return hlsService.getPlaylist(stream, playlist, quality, user, msn, part)
+                .map(served -> ResponseEntity.ok()
+                        .cacheControl(served.cacheControl())
                         .contentType(MediaType.valueOf("application/vnd.apple.mpegurl"))
-                        .body(body));
+                        .body(served.body()));
     }
 
     @GetMapping(value = "{stream}/{segment}.ts", produces = "video/MP2T")
-    public Mono<ResponseEntity<Resource>> getSegment(@PathVariable String stream, @PathVariable String segment, ServerHttpRequest request) {
+    public Mono<Void> getSegment(@PathVariable String stream, @PathVariable String segment, ServerHttpRequest request, ServerHttpResponse response) {
         String user = request.getRemoteAddress().getHostString();
-        return hlsService.getSegment(stream, segment, "", user)
-                .map(data -> {
+        String etag = hlsService.knownEtag(stream, "", segment + ".ts");
+        if (SegmentResponses.isNotModified(request, etag)) {
+            return SegmentResponses.notModified(response, etag);
+        }
+        return hlsService.getSegment(stream, segment, "", user, user)
+                .flatMap(payload -> {
                     logger.debug("Serving segment {}", segment);
-                    return ResponseEntity.ok()
-                            .cacheControl(CacheControl.noCache())
-                            .body(new ByteArrayResource(data));
+                    return SegmentResponses.write(request, response, SegmentResponses.MPEG_TS, payload);
                 });
     }
 
     @GetMapping(value = "{stream}/{quality}/{segment}.ts", produces = "video/MP2T")
-    public Mono<ResponseEntity<Resource>> getSegmentWithQuality(@PathVariable String stream, @PathVariable String quality, @PathVariable String segment, ServerHttpRequest request) {
+    public Mono<Void> getSegmentWithQuality(@PathVariable String stream, @PathVariable String quality, @PathVariable String segment, ServerHttpRequest request, ServerHttpResponse response) {
         String user = request.getRemoteAddress().getHostString();
         logger.info("Serving segment {} for user {}", segment, user);
-        return hlsService.getSegment(stream, segment, quality, user)
-                .map(data -> {
+        String etag = hlsService.knownEtag(stream, quality, segment + ".ts");
+        if (SegmentResponses.isNotModified(request, etag)) {
+            return SegmentResponses.notModified(response, etag);
+        }
+        return hlsService.getSegment(stream, segment, quality, user, user)
+                .flatMap(payload -> {
                     logger.debug("Serving segment {} for quality {}", segment, quality);
-                    return ResponseEntity.ok()
-                            .cacheControl(CacheControl.noCache())
-                            .body(new ByteArrayResource(data));
+                    return SegmentResponses.write(request, response, SegmentResponses.MPEG_TS, payload);
                 });
     }
 
     @GetMapping(value = "{stream}/{quality}/ads/{segment}.ts", produces = "video/MP2T")
-    public Mono<ResponseEntity<Resource>> getAdSegment(@PathVariable String stream, @PathVariable String segment, ServerHttpRequest request) {
+    public Mono<Void> getAdSegment(@PathVariable String stream, @PathVariable String segment, ServerHttpRequest request, ServerHttpResponse response) {
         String user = request.getRemoteAddress().getHostString();
         return hlsService.getAdSegment(segment, "", user)
-                .map(data -> {
+                .flatMap(payload -> {
                     logger.debug("Serving ad segment {}", segment);
-                    return ResponseEntity.ok()
-                            .cacheControl(CacheControl.noCache())
-                            .body(new ByteArrayResource(data));
+                    return SegmentResponses.writeRevalidated(request, response, SegmentResponses.MPEG_TS, payload);
                 });
     }
 
     @GetMapping(value = "{stream}/{quality}/ads/{ad_quality}/{segment}.ts", produces = "video/MP2T")
-    public Mono<ResponseEntity<Resource>> getAdSegmentWithQuality(@PathVariable String stream, @PathVariable String ad_quality, @PathVariable String segment, ServerHttpRequest request) {
+    public Mono<Void> getAdSegmentWithQuality(@PathVariable String stream, @PathVariable String ad_quality, @PathVariable String segment, ServerHttpRequest request, ServerHttpResponse response) {
         String user = request.getRemoteAddress().getHostString();
         return hlsService.getAdSegment(segment, ad_quality, user)
-                .map(data -> {
+                .flatMap(payload -> {
                     logger.debug("Serving ad segment {} for quality {}", segment, ad_quality);
-                    return ResponseEntity.ok()
-                            .cacheControl(CacheControl.noCache())
-                            .body(new ByteArrayResource(data));
+                    return SegmentResponses.writeRevalidated(request, response, SegmentResponses.MPEG_TS, payload);
                 });
     }
+
+    @GetMapping(value = "{stream}/{quality}/{segment}.m4s", produces = "video/iso.segment")
+    public Mono<Void> getCmafSegment(@PathVariable String stream, @PathVariable String quality, @PathVariable String segment, ServerHttpRequest request, ServerHttpResponse response) {
+        String user = request.getRemoteAddress().getHostString();
+        String etag = hlsService.knownEtag(stream, quality, segment + ".m4s");
+        if (SegmentResponses.isNotModified(request, etag)) {
+            return SegmentResponses.notModified(response, etag);
+        }
+        return hlsService.getCmafSegment(stream, segment, quality, user, user)
+                .flatMap(payload -> {
+                    logger.debug("Serving CMAF segment {} for quality {}", segment, quality);
+                    return SegmentResponses.write(request, response, SegmentResponses.CMAF_SEGMENT, payload);
+                });
+    }
+
+    @GetMapping(value = "{stream}/{quality}/{init}.mp4", produces = "video/mp4")
+    public Mono<Void> getInitSegment(@PathVariable String stream, @PathVariable String quality, @PathVariable String init, ServerHttpRequest request, ServerHttpResponse response) {
+        return hlsService.getInitSegment(stream, init, quality)
+                .flatMap(payload -> SegmentResponses.writeRevalidated(request, response, SegmentResponses.MP4, payload));
+    }
+
+    @GetMapping(value = "{stream}/{quality}/ads/{ad_quality}/{segment}.m4s", produces = "video/iso.segment")
+    public Mono<Void> getCmafAdSegment(@PathVariable String stream, @PathVariable String ad_quality, @PathVariable String segment, ServerHttpRequest request, ServerHttpResponse response) {
+        String user = request.getRemoteAddress().getHostString();
+        return hlsService.getCmafAdSegment(segment, "m4s", ad_quality, user)
+                .flatMap(payload -> SegmentResponses.writeRevalidated(request, response, SegmentResponses.CMAF_SEGMENT, payload));
+    }
+
+    @GetMapping(value = "{stream}/{quality}/ads/{ad_quality}/{init}.mp4", produces = "video/mp4")
+    public Mono<Void> getAdInitSegment(@PathVariable String stream, @PathVariable String ad_quality, @PathVariable String init, ServerHttpRequest request, ServerHttpResponse response) {
+        String user = request.getRemoteAddress().getHostString();
+        return hlsService.getCmafAdSegment(init, "mp4", ad_quality, user)
+                .flatMap(payload -> SegmentResponses.writeRevalidated(request, response, SegmentResponses.MP4, payload));
+    }
 }
@@ -0,0 +1,106 @@
+package com.example.hls.controller;
+
+import com.example.hls.model.SegmentPayload;
+import com.example.hls.util.ETags;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ZeroCopyHttpOutputMessage;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+
+/**
+ * Writes segment payloads straight to the response so buffers relayed from the
+ * origin reach the socket without being aggregated first, and local files are
+ * sent with sendfile where the server supports it.
+ * <p>
+ * Live segments are never rewritten under the same name, the transcoders append to
+ * their playlists across restarts, so they are sent as immutable and CDNs in front of
+ * the server can keep them. Ad creatives and init segments keep their names when they
+ * are replaced and are revalidated instead. Payloads with an entity tag answer
+ * conditional requests with 304 without sending the body.
+ */
+final class SegmentResponses {
+    static final MediaType MPEG_TS = MediaType.valueOf("video/MP2T");
+    static final MediaType AAC = MediaType.valueOf("audio/aac");
+    static final MediaType CMAF_SEGMENT = MediaType.valueOf("video/iso.segment");
+    static final MediaType MP4 = MediaType.valueOf("video/mp4");
+    static final MediaType AUDIO_MP4 = MediaType.valueOf("audio/mp4");
+
+    private static final int FILE_READ_BUFFER_SIZE = 64 * 1024;
+    private static final CacheControl IMMUTABLE = CacheControl.maxAge(Duration.ofDays(365)).cachePublic().immutable();
+    private static final CacheControl REVALIDATED = CacheControl.noCache().cachePublic();
+
+    private SegmentResponses() {
+    }
+
+    /**
+     * Writes a live media segment or part.
+     */
+    static Mono<Void> write(ServerHttpRequest request, ServerHttpResponse response, MediaType contentType,
+                            SegmentPayload payload) {
+        return write(request, response, contentType, IMMUTABLE, payload);
+    }
+
+    /**
+     * Whether the request revalidates a live segment with the given tag, which is known
+     * without fetching the segment.
+     */
+    static boolean isNotModified(ServerHttpRequest request, String knownEtag) {
+        return knownEtag != null && ETags.matches(request.getHeaders().getIfNoneMatch(), knownEtag);
+    }
+
+    /**
+     * Answers a revalidated live segment with 304, the origin is not asked.
+     */
+    static Mono<Void> notModified(ServerHttpResponse response, String etag) {
+        response.getHeaders().setCacheControl(IMMUTABLE);
+        response.getHeaders().setETag(etag);
+        response.setStatusCode(HttpStatus.NOT_MODIFIED);
+        return response.setComplete();
+    }
+
+    /**
+     * Writes an ad creative or init segment, content that may change under the same name.
+     */
+    static Mono<Void> writeRevalidated(ServerHttpRequest request, ServerHttpResponse response, MediaType contentType,
+                                       SegmentPayload payload) {
+        return write(request, response, contentType, REVALIDATED, payload);
+    }
+
+    private static Mono<Void> write(ServerHttpRequest request, ServerHttpResponse response, MediaType contentType,
+                                    CacheControl cacheControl, SegmentPayload payload) {
+        HttpHeaders headers = response.getHeaders();
+        headers.setContentType(contentType);
+        headers.setCacheControl(cacheControl);
+        String etag = payload.etag();
+        if (etag != null) {
+            headers.setETag(etag);
+            // tagged payloads are views on memory or files, the body needs no release when it is not sent
+            if (ETags.matches(request.getHeaders().getIfNoneMatch(), etag)) {
+                response.setStatusCode(HttpStatus.NOT_MODIFIED);
+                return response.setComplete();
+            }
+        }
+        if (payload.contentLength() >= 0) {
+            headers.setContentLength(payload.contentLength());
+        }
+        return switch (payload) {
+            case SegmentPayload.Buffers buffers -> response.writeWith(buffers.body());
+            case SegmentPayload.File file -> writeFile(response, file)
+                    .doOnSuccess(done -> file.onSent().accept(file.contentLength()));
+        };
+    }
+
+    private static Mono<Void> writeFile(ServerHttpResponse response, SegmentPayload.File file) {
+        if (response instanceof ZeroCopyHttpOutputMessage zeroCopy) {
+            return zeroCopy.writeWith(file.path(), 0, file.contentLength());
+        }
+        return response.writeWith(DataBufferUtils.read(file.path(), response.bufferFactory(), FILE_READ_BUFFER_SIZE));
+    }
+}
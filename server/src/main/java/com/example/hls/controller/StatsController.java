@@ -0,0 +1,92 @@
+package com.example.hls.controller;
+
+import com.example.hls.model.CacheStats;
+import com.example.hls.service.FfmpegService;
+import com.example.hls.service.cache.AdCreativeCache;
+import com.example.hls.service.cache.PlaylistCache;
+import com.example.hls.service.cache.SegmentCache;
+import com.example.hls.service.origin.SegmentIndex;
+import com.example.hls.service.resilience.Upstream;
+import com.example.hls.service.resilience.Upstreams;
+import com.example.hls.service.session.SessionContextBatcher;
+import com.example.hls.service.session.SessionContextService;
+import com.example.hls.service.session.SessionTokenService;
+import com.example.hls.service.transcoding.TranscoderProcess;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Exposes counters of the server side caches so they can be sized per node.
+ */
+@RestController
+@RequestMapping("/stats")
+public class StatsController {
+
+    private final PlaylistCache playlistCache;
+    private final SegmentCache segmentCache;
+    private final AdCreativeCache adCreativeCache;
+    private final SessionContextService sessionContextService;
+    private final SessionContextBatcher sessionContextBatcher;
+    private final Upstreams upstreams;
+    private final SessionTokenService sessionTokenService;
+    private final FfmpegService ffmpegService;
+    private final SegmentIndex segmentIndex;
+
+    @Autowired
+    public StatsController(PlaylistCache playlistCache, SegmentCache segmentCache, AdCreativeCache adCreativeCache,
+                           SessionContextService sessionContextService, SessionContextBatcher sessionContextBatcher,
+                           Upstreams upstreams, SessionTokenService sessionTokenService,
+                           FfmpegService ffmpegService, SegmentIndex segmentIndex) {
+        this.playlistCache = playlistCache;
+        this.segmentCache = segmentCache;
+        this.adCreativeCache = adCreativeCache;
+        this.sessionContextService = sessionContextService;
+        this.sessionContextBatcher = sessionContextBatcher;
+        this.upstreams = upstreams;
+        this.sessionTokenService = sessionTokenService;
+        this.ffmpegService = ffmpegService;
+        this.segmentIndex = segmentIndex;
+    }
+
+    @GetMapping("/caches")
+    public Map<String, CacheStats> caches() {
+        Map<String, CacheStats> stats = new LinkedHashMap<>();
+        stats.put("playlists", playlistCache.stats());
+        stats.put("segments", segmentCache.stats());
+        stats.put("adCreatives", adCreativeCache.stats());
+        stats.put("sessionContexts", sessionContextService.stats());
+        stats.put("sessionTokens", sessionTokenService.stats());
+        return stats;
+    }
+
+    @GetMapping("/session-context")
+    public SessionContextService.RefreshStats sessionContextRefreshes() {
+        return sessionContextService.refreshStats();
+    }
+
+    @GetMapping("/session-context/batches")
+    public SessionContextBatcher.BatchStats sessionContextBatches() {
+        return sessionContextBatcher.stats();
+    }
+
+    @GetMapping("/upstreams")
+    public List<Upstream.Stats> upstreams() {
+        return upstreams.stats();
+    }
+
+    @GetMapping("/transcoders")
+    public List<TranscoderProcess.Status> transcoders() {
+        return ffmpegService.transcoders();
+    }
+
+    @GetMapping("/segments")
+    public List<SegmentIndex.RenditionStatus> segments() {
+        return segmentIndex.renditions();
+    }
+}
@@ -0,0 +1,14 @@
+package com.example.hls.model;
+
+/**
+ * Point in time counters of one of the server side caches.
+ * Counters that do not apply to a cache are reported as zero.
+ */
+public record CacheStats(long hits, long misses, long coalesced, long revalidated,
+                         long evictions, long entries, long bytes) {
+
+    public double hitRatio() {
+        long total = hits + misses + coalesced;
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.hls.model;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Origin playlist together with the validators needed for a conditional refresh,
+ * its parsed form and the UTF-8 renderings already produced from it.
+ */
+public record CachedPlaylist(String body, String etag, String lastModified, long fetchedAt,
+                             MediaPlaylist playlist, Map<PlaylistVariant, byte[]> variants) {
+
+    public CachedPlaylist(String body, String etag, String lastModified, long fetchedAt) {
+        this(body, etag, lastModified, fetchedAt, MediaPlaylist.parse(body), new ConcurrentHashMap<>());
+    }
+
+    public boolean isExpired(long now, long ttlMillis) {
+        return now - fetchedAt >= ttlMillis;
+    }
+
+    /**
+     * Returns the same playlist revalidated at the given time, used when origin answers 304.
+     * Renderings stay valid since the body did not change.
+     */
+    public CachedPlaylist refreshed(long now) {
+        return new CachedPlaylist(body, etag, lastModified, now, playlist, variants);
+    }
+
+    /**
+     * Returns the shared encoded rendering of the variant, rendering it on first use.
+     * The returned array is shared between responses and must not be modified.
+     */
+    public byte[] variant(PlaylistVariant variant, Function<MediaPlaylist, String> renderer) {
+        return variants.computeIfAbsent(variant, v -> renderer.apply(playlist).getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,210 @@
+package com.example.hls.model;
+
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Renders a live DASH manifest from the HLS playlists of CMAF output.
+ * <p>
+ * The variant streams of the master playlist become representations, their media
+ * playlists a {@code SegmentTemplate} addressing the same init and media segments HLS
+ * players fetch. Segments are placed on the timeline by their program date time, with
+ * the availability start at the epoch, so every manifest refresh and every node agrees
+ * on the timeline. Renditions that are not CMAF, i.e. without {@code EXT-X-MAP}, are left out.
+ */
+public final class DashManifest {
+    private static final DateTimeFormatter PROGRAM_DATE_TIME = new DateTimeFormatterBuilder()
+            .append(DateTimeFormatter.ISO_LOCAL_DATE_TIME)
+            .optionalStart().appendPattern("XXX").optionalEnd()
+            .optionalStart().appendPattern("XX").optionalEnd()
+            .toFormatter(Locale.ROOT);
+
+    private DashManifest() {
+    }
+
+    private record Representation(String id, Map<String, String> attributes, String initialization,
+                                  String media, MediaPlaylist playlist, boolean video) {
+    }
+
+    /**
+     * Renders the manifest, or returns empty when no variant stream is CMAF.
+     *
+     * @param media media playlists by their URI in the master playlist
+     */
+    public static Optional<String> render(MediaPlaylist master, Map<String, MediaPlaylist> media, long now) {
+        List<Representation> representations = new ArrayList<>();
+        for (MediaPlaylist.Segment variant : master.segments()) {
+            MediaPlaylist playlist = media.get(variant.uri());
+            Map<String, String> attributes = variant.tags().stream()
+                    .filter(tag -> tag.startsWith("#EXT-X-STREAM-INF:"))
+                    .findFirst()
+                    .map(DashManifest::attributes)
+                    .orElse(Map.of());
+            Optional<String> init = playlist == null ? Optional.empty() : initialization(playlist);
+            if (init.isEmpty() || playlist.segments().isEmpty()) {
+                continue;
+            }
+            int slash = variant.uri().lastIndexOf('/');
+            String base = variant.uri().substring(0, slash + 1);
+            String id = slash > 0 ? variant.uri().substring(0, slash) : String.valueOf(representations.size());
+            String codecs = attributes.getOrDefault("CODECS", "");
+            boolean video = attributes.containsKey("RESOLUTION") || codecs.contains("avc1") || codecs.contains("hvc1");
+            representations.add(new Representation(id, attributes, base + init.get(),
+                    base + template(playlist.segments().get(0).uri()), playlist, video));
+        }
+        if (representations.isEmpty()) {
+            return Optional.empty();
+        }
+
+        double targetDuration = representations.stream().mapToDouble(r -> r.playlist().targetDuration()).max().orElse(0);
+        double window = representations.stream()
+                .mapToDouble(r -> r.playlist().segments().stream().mapToDouble(MediaPlaylist.Segment::duration).sum())
+                .min().orElse(0);
+        StringBuilder out = new StringBuilder(1024);
+        out.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        out.append("<MPD xmlns=\"urn:mpeg:dash:schema:mpd:2011\" profiles=\"urn:mpeg:dash:profile:isoff-live:2011\"")
+                .append(" type=\"dynamic\" availabilityStartTime=\"1970-01-01T00:00:00Z\"")
+                .append(" publishTime=\"").append(Instant.ofEpochMilli(now)).append('"')
+                .append(" minimumUpdatePeriod=\"").append(period(targetDuration)).append('"')
+                .append(" minBufferTime=\"").append(period(targetDuration)).append('"')
+                .append(" timeShiftBufferDepth=\"").append(period(window)).append('"')
+                .append(" suggestedPresentationDelay=\"").append(period(targetDuration * 3)).append('"')
+                .append(" maxSegmentDuration=\"").append(period(targetDuration)).append("\">\n");
+        out.append("  <Period id=\"0\" start=\"PT0S\">\n");
+        adaptationSet(out, "video", representations.stream().filter(Representation::video).toList());
+        adaptationSet(out, "audio", representations.stream().filter(r -> !r.video()).toList());
+        out.append("  </Period>\n");
+        out.append("</MPD>\n");
+        return Optional.of(out.toString());
+    }
+
+    private static void adaptationSet(StringBuilder out, String contentType, List<Representation> representations) {
+        if (representations.isEmpty()) {
+            return;
+        }
+        out.append("    <AdaptationSet contentType=\"").append(contentType)
+                .append("\" mimeType=\"").append(contentType).append("/mp4\"")
+                .append(" segmentAlignment=\"true\" startWithSAP=\"1\">\n");
+        for (Representation representation : representations) {
+            Map<String, String> attributes = representation.attributes();
+            out.append("      <Representation id=\"").append(xml(representation.id())).append('"')
+                    .append(" bandwidth=\"").append(attributes.getOrDefault("BANDWIDTH", "0")).append('"');
+            String resolution = attributes.get("RESOLUTION");
+            int x = resolution == null ? -1 : resolution.indexOf('x');
+            if (x > 0) {
+                out.append(" width=\"").append(resolution, 0, x).append("\" height=\"").append(resolution.substring(x + 1)).append('"');
+            }
+            if (attributes.containsKey("CODECS")) {
+                out.append(" codecs=\"").append(xml(attributes.get("CODECS"))).append('"');
+            }
+            out.append(">\n");
+            segmentTemplate(out, representation);
+            out.append("      </Representation>\n");
+        }
+        out.append("    </AdaptationSet>\n");
+    }
+
+    private static void segmentTemplate(StringBuilder out, Representation representation) {
+        MediaPlaylist playlist = representation.playlist();
+        out.append("        <SegmentTemplate timescale=\"1000\"")
+                .append(" initialization=\"").append(xml(representation.initialization())).append('"')
+                .append(" media=\"").append(xml(representation.media())).append('"')
+                .append(" startNumber=\"").append(playlist.mediaSequence()).append("\">\n");
+        out.append("          <SegmentTimeline>\n");
+        long next = -1;
+        for (MediaPlaylist.Segment segment : playlist.segments()) {
+            long duration = Math.round(segment.duration() * 1000);
+            long start = programDateTime(segment).orElse(next);
+            if (start < 0) {
+                // without a program date time the timeline cannot be anchored to wall clock time
+                start = 0;
+            }
+            out.append("            <S t=\"").append(start).append("\" d=\"").append(duration).append("\"/>\n");
+            next = start + duration;
+        }
+        out.append("          </SegmentTimeline>\n");
+        out.append("        </SegmentTemplate>\n");
+    }
+
+    private static Optional<String> initialization(MediaPlaylist playlist) {
+        return playlist.segments().stream()
+                .flatMap(segment -> segment.tags().stream())
+                .filter(tag -> tag.startsWith("#EXT-X-MAP:"))
+                .findFirst()
+                .map(tag -> attributes(tag).get("URI"));
+    }
+
+    private static Optional<Long> programDateTime(MediaPlaylist.Segment segment) {
+        for (String tag : segment.tags()) {
+            if (tag.startsWith("#EXT-X-PROGRAM-DATE-TIME:")) {
+                try {
+                    return Optional.of(Instant.from(PROGRAM_DATE_TIME.parse(tag.substring(tag.indexOf(':') + 1).strip())).toEpochMilli());
+                } catch (DateTimeParseException e) {
+                    return Optional.empty();
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Turns a segment URI into a template by replacing its sequence number with {@code $Number$},
+     * keeping the zero padding.
+     */
+    static String template(String uri) {
+        int end = uri.lastIndexOf('.');
+        end = end < 0 ? uri.length() : end;
+        int start = end;
+        while (start > 0 && Character.isDigit(uri.charAt(start - 1))) {
+            start--;
+        }
+        String number = end - start > 1 ? "$Number%0" + (end - start) + "d$" : "$Number$";
+        return uri.substring(0, start) + number + uri.substring(end);
+    }
+
+    /**
+     * Parses the attribute list of a tag, quoted values may contain commas.
+     */
+    static Map<String, String> attributes(String tag) {
+        Map<String, String> attributes = new LinkedHashMap<>();
+        String list = tag.substring(tag.indexOf(':') + 1);
+        int i = 0;
+        while (i < list.length()) {
+            int equals = list.indexOf('=', i);
+            if (equals < 0) {
+                break;
+            }
+            String name = list.substring(i, equals).strip();
+            int end;
+            String value;
+            if (equals + 1 < list.length() && list.charAt(equals + 1) == '"') {
+                int close = list.indexOf('"', equals + 2);
+                close = close < 0 ? list.length() : close;
+                value = list.substring(equals + 2, close);
+                end = list.indexOf(',', close);
+            } else {
+                end = list.indexOf(',', equals);
+                value = list.substring(equals + 1, end < 0 ? list.length() : end);
+            }
+            attributes.put(name, value);
+            i = end < 0 ? list.length() : end + 1;
+        }
+        return attributes;
+    }
+
+    private static String period(double seconds) {
+        return String.format(Locale.ROOT, "PT%.3fS", seconds);
+    }
+
+    private static String xml(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+}
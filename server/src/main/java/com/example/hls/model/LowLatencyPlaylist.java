@@ -0,0 +1,201 @@
+package com.example.hls.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Renders a transcoder playlist of partial segments as a Low-Latency HLS playlist.
+ * <p>
+ * In low latency mode the transcoder cuts a part every part duration, each part a file
+ * of its own listed as a segment in its playlist. Every {@code partsPerSegment} parts,
+ * aligned on the media sequence, form one full segment {@code ll_<msn>} that is served
+ * by concatenating its parts. The playlist lists full segments with their parts as
+ * {@code EXT-X-PART} for the last three segments, the parts of the segment in progress
+ * and an {@code EXT-X-PRELOAD-HINT} for the part the transcoder writes next.
+ */
+public final class LowLatencyPlaylist {
+    public static final String SEGMENT_PREFIX = "ll_";
+    private static final int SEGMENTS_WITH_PARTS = 3;
+    private static final Set<String> REPLACED_TAGS = Set.of("#EXTM3U", "#EXT-X-VERSION", "#EXT-X-TARGETDURATION",
+            "#EXT-X-MEDIA-SEQUENCE", "#EXT-X-SERVER-CONTROL", "#EXT-X-PART-INF", "#EXT-X-INDEPENDENT-SEGMENTS");
+
+    private LowLatencyPlaylist() {
+    }
+
+    /**
+     * Media sequence of the last part listed, -1 for an empty playlist.
+     */
+    public static long lastPart(MediaPlaylist parts) {
+        return parts.mediaSequence() + parts.segments().size() - 1;
+    }
+
+    /**
+     * Media sequence of the segment in progress, or of the next one when the last is complete.
+     */
+    public static long nextMsn(MediaPlaylist parts, int partsPerSegment) {
+        return Math.floorDiv(lastPart(parts) + 1, partsPerSegment);
+    }
+
+    /**
+     * Whether the playlist lists the given part of the segment, or the complete segment when
+     * {@code part} is negative.
+     */
+    public static boolean contains(MediaPlaylist parts, int partsPerSegment, long msn, int part) {
+        long needed = part < 0 ? (msn + 1) * partsPerSegment - 1 : msn * partsPerSegment + part;
+        return lastPart(parts) >= needed;
+    }
+
+    /**
+     * Returns the media sequence of a full segment name, or -1 for any other name.
+     */
+    public static long msnOf(String segmentName) {
+        if (!segmentName.startsWith(SEGMENT_PREFIX)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(segmentName, SEGMENT_PREFIX.length(), segmentName.length(), 10);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Renders the playlist with the given lines spliced in after the last full segment. Parts
+     * of the segment in progress and the preload hint are left out when lines are spliced in,
+     * the spliced segments have no parts.
+     */
+    public static String render(MediaPlaylist parts, int partsPerSegment, List<String> splice) {
+        List<MediaPlaylist.Segment> segments = parts.segments();
+        if (segments.isEmpty()) {
+            return parts.render(splice);
+        }
+        long firstPart = parts.mediaSequence();
+        long lastPart = lastPart(parts);
+        long firstMsn = Math.floorDiv(firstPart + partsPerSegment - 1, partsPerSegment);
+        long completeMsns = Math.floorDiv(lastPart + 1, partsPerSegment) - firstMsn;
+        String extension = extensionOf(segments.get(0).uri());
+
+        double partTarget = 0;
+        double segmentTarget = 0;
+        for (long msn = firstMsn; msn < firstMsn + completeMsns; msn++) {
+            segmentTarget = Math.max(segmentTarget, duration(segments, index(msn, partsPerSegment, firstPart), partsPerSegment));
+        }
+        for (MediaPlaylist.Segment segment : segments) {
+            partTarget = Math.max(partTarget, segment.duration());
+        }
+
+        List<String> lines = new ArrayList<>();
+        lines.add("#EXTM3U");
+        lines.add("#EXT-X-VERSION:6");
+        lines.add("#EXT-X-TARGETDURATION:" + (long) Math.ceil(Math.max(segmentTarget, partTarget * partsPerSegment)));
+        lines.add("#EXT-X-SERVER-CONTROL:CAN-BLOCK-RELOAD=YES,PART-HOLD-BACK=" + decimal(partTarget * 3));
+        lines.add("#EXT-X-PART-INF:PART-TARGET=" + decimal(partTarget));
+        lines.add("#EXT-X-MEDIA-SEQUENCE:" + firstMsn);
+        parts.header().stream()
+                .filter(line -> !REPLACED_TAGS.contains(tagName(line)))
+                .forEach(lines::add);
+        // the init segment of CMAF output is announced before the first part, which may precede the first full segment
+        segments.subList(0, index(firstMsn, partsPerSegment, firstPart)).stream()
+                .flatMap(part -> part.tags().stream())
+                .filter(tag -> tag.startsWith("#EXT-X-MAP"))
+                .reduce((first, second) -> second)
+                .ifPresent(lines::add);
+
+        for (long msn = firstMsn; msn < firstMsn + completeMsns; msn++) {
+            int from = index(msn, partsPerSegment, firstPart);
+            boolean withParts = msn >= firstMsn + completeMsns - SEGMENTS_WITH_PARTS;
+            addTags(lines, segments, from, partsPerSegment);
+            if (withParts) {
+                addParts(lines, segments, from, partsPerSegment);
+            }
+            lines.add("#EXTINF:" + decimal(duration(segments, from, partsPerSegment)) + ",");
+            lines.add(SEGMENT_PREFIX + msn + extension);
+        }
+
+        boolean ended = parts.trailer().contains("#EXT-X-ENDLIST");
+        if (splice.isEmpty()) {
+            int from = index(firstMsn + completeMsns, partsPerSegment, firstPart);
+            int pending = segments.size() - from;
+            if (pending > 0) {
+                addTags(lines, segments, from, pending);
+                addParts(lines, segments, from, pending);
+            }
+            if (!ended) {
+                lines.add("#EXT-X-PRELOAD-HINT:TYPE=PART,URI=\"" + partUri(segments.get(segments.size() - 1).uri(), lastPart + 1) + "\"");
+            }
+        } else {
+            lines.addAll(splice);
+        }
+        parts.trailer().stream()
+                .filter(line -> !line.startsWith("#EXTINF"))
+                .forEach(lines::add);
+        return String.join("\n", lines);
+    }
+
+    private static int index(long msn, int partsPerSegment, long firstPart) {
+        return (int) (msn * partsPerSegment - firstPart);
+    }
+
+    private static double duration(List<MediaPlaylist.Segment> segments, int from, int count) {
+        double duration = 0;
+        for (int i = from; i < from + count; i++) {
+            duration += segments.get(i).duration();
+        }
+        return duration;
+    }
+
+    /**
+     * Tags other than {@code #EXTINF} of the parts, e.g. discontinuities, are moved in front of the segment.
+     * The segment starts at the program date time of its first part.
+     */
+    private static void addTags(List<String> lines, List<MediaPlaylist.Segment> segments, int from, int count) {
+        for (int i = from; i < from + count; i++) {
+            boolean first = i == from;
+            segments.get(i).tags().stream()
+                    .filter(tag -> !tag.startsWith("#EXTINF"))
+                    .filter(tag -> first || !tag.startsWith("#EXT-X-PROGRAM-DATE-TIME"))
+                    .forEach(lines::add);
+        }
+    }
+
+    private static void addParts(List<String> lines, List<MediaPlaylist.Segment> segments, int from, int count) {
+        for (int i = from; i < from + count; i++) {
+            MediaPlaylist.Segment part = segments.get(i);
+            // the transcoder forces a key frame at every segment boundary, parts within it may start anywhere
+            lines.add("#EXT-X-PART:DURATION=" + decimal(part.duration()) + ",URI=\"" + part.uri() + "\""
+                    + (i == from ? ",INDEPENDENT=YES" : ""));
+        }
+    }
+
+    /**
+     * Derives the URI of a part from the URI of another part, replacing its sequence number.
+     */
+    public static String partUri(String otherPart, long sequence) {
+        int end = otherPart.lastIndexOf('.');
+        end = end < 0 ? otherPart.length() : end;
+        int start = end;
+        while (start > 0 && Character.isDigit(otherPart.charAt(start - 1))) {
+            start--;
+        }
+        String digits = String.valueOf(sequence);
+        int width = end - start;
+        String padded = digits.length() >= width ? digits : "0".repeat(width - digits.length()) + digits;
+        return otherPart.substring(0, start) + padded + otherPart.substring(end);
+    }
+
+    private static String extensionOf(String uri) {
+        int dot = uri.lastIndexOf('.');
+        return dot < 0 ? "" : uri.substring(dot);
+    }
+
+    private static String tagName(String line) {
+        int colon = line.indexOf(':');
+        return colon < 0 ? line : line.substring(0, colon);
+    }
+
+    private static String decimal(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+}
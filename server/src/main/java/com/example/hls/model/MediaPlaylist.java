@@ -0,0 +1,105 @@
+package com.example.hls.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * An m3u8 playlist parsed once into playlist level tags, segments and trailing tags.
+ * <p>
+ * Tag lines are kept verbatim so a playlist renders back exactly as the origin wrote it.
+ * Master playlists parse the same way, every variant stream becomes a segment.
+ */
+public record MediaPlaylist(List<String> header, List<Segment> segments, List<String> trailer,
+                            long mediaSequence, double targetDuration) {
+
+    private static final Set<String> PLAYLIST_TAGS = Set.of(
+            "#EXTM3U", "#EXT-X-VERSION", "#EXT-X-TARGETDURATION", "#EXT-X-MEDIA-SEQUENCE",
+            "#EXT-X-DISCONTINUITY-SEQUENCE", "#EXT-X-PLAYLIST-TYPE", "#EXT-X-INDEPENDENT-SEGMENTS",
+            "#EXT-X-START", "#EXT-X-ALLOW-CACHE", "#EXT-X-SERVER-CONTROL", "#EXT-X-PART-INF");
+
+    /**
+     * @param tags     tag lines preceding the URI, including {@code #EXTINF}
+     * @param duration duration from {@code #EXTINF}, 0 if absent
+     */
+    public record Segment(List<String> tags, String uri, double duration) {
+    }
+
+    public static MediaPlaylist parse(String m3u8) {
+        List<String> header = new ArrayList<>();
+        List<Segment> segments = new ArrayList<>();
+        List<String> pending = new ArrayList<>();
+        long mediaSequence = 0;
+        double targetDuration = 0;
+        double duration = 0;
+        for (String raw : m3u8.split("\n")) {
+            String line = raw.strip();
+            if (line.isEmpty()) {
+                continue;
+            }
+            if (!line.startsWith("#")) {
+                segments.add(new Segment(List.copyOf(pending), line, duration));
+                pending.clear();
+                duration = 0;
+                continue;
+            }
+            String tag = tagName(line);
+            if (segments.isEmpty() && pending.isEmpty() && PLAYLIST_TAGS.contains(tag)) {
+                header.add(line);
+                if (tag.equals("#EXT-X-MEDIA-SEQUENCE")) {
+                    mediaSequence = (long) number(attribute(line));
+                } else if (tag.equals("#EXT-X-TARGETDURATION")) {
+                    targetDuration = number(attribute(line));
+                }
+                continue;
+            }
+            if (tag.equals("#EXTINF")) {
+                String value = attribute(line);
+                int comma = value.indexOf(',');
+                duration = number(comma < 0 ? value : value.substring(0, comma));
+            }
+            pending.add(line);
+        }
+        return new MediaPlaylist(List.copyOf(header), List.copyOf(segments), List.copyOf(pending),
+                mediaSequence, targetDuration);
+    }
+
+    private static String tagName(String line) {
+        int colon = line.indexOf(':');
+        return colon < 0 ? line : line.substring(0, colon);
+    }
+
+    private static String attribute(String line) {
+        return line.substring(line.indexOf(':') + 1).strip();
+    }
+
+    private static double number(String value) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    public String render() {
+        return render(List.of());
+    }
+
+    /**
+     * Renders the playlist with the given lines spliced in after the last segment.
+     */
+    public String render(List<String> splice) {
+        StringBuilder out = new StringBuilder(256 + segments.size() * 64);
+        header.forEach(line -> out.append(line).append('\n'));
+        for (Segment segment : segments) {
+            segment.tags().forEach(line -> out.append(line).append('\n'));
+            out.append(segment.uri()).append('\n');
+        }
+        splice.forEach(line -> out.append(line).append('\n'));
+        trailer.forEach(line -> out.append(line).append('\n'));
+        if (!out.isEmpty()) {
+            out.setLength(out.length() - 1);
+        }
+        return out.toString();
+    }
+}
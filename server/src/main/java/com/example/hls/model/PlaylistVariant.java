@@ -0,0 +1,21 @@
+package com.example.hls.model;
+
+import com.example.hls.model.ad.AdSegment;
+
+import java.util.List;
+
+/**
+ * Identifies one rendering of a playlist. All sessions in the same ad state receive
+ * byte identical output, so the rendered bytes are shared per variant.
+ *
+ * @param adPrefix   path prefix of the ad segments, relative to the playlist
+ * @param adSegments ad segments spliced in, empty for the plain origin playlist
+ */
+public record PlaylistVariant(String adPrefix, List<AdSegment> adSegments) {
+
+    public static final PlaylistVariant NONE = new PlaylistVariant("", List.of());
+
+    public boolean hasAds() {
+        return !adSegments.isEmpty();
+    }
+}
@@ -1,12 +1,17 @@
 package com.example.hls.model;
 
+import com.example.hls.util.SegmentNames;
+
 /**
  * Stores metrics related to a specific stream quality.
+ * <p>
+ * Written only by the session metrics aggregator thread, read from anywhere.
  */
 public class QualityMetrics {
-    private String lastDownloadedSequenceNumber;
-    private String lastDownloadedChunk;
-    private long downloadedBytes;
+    private volatile long lastSequence = -1;
+    private volatile String lastDownloadedChunk;
+    private volatile long downloadedBytes;
+    private volatile long downloadedSegments;
 
     public String getLastDownloadedChunk() {
         return lastDownloadedChunk;
@@ -16,14 +21,42 @@ public class QualityMetrics {
         return downloadedBytes;
     }
 
+    public long getDownloadedSegments() {
+        return downloadedSegments;
+    }
+
+    /**
+     * Sequence number of the last downloaded chunk, -1 if unknown.
+     */
+    public long getLastSequence() {
+        return lastSequence;
+    }
+
     public String getLastDownloadedSequenceNumber() {
-        return lastDownloadedSequenceNumber;
+        String chunk = lastDownloadedChunk;
+        if (chunk == null) {
+            return null;
+        }
+        String[] splitLine = chunk.split("_");
+        return splitLine[splitLine.length - 1];
+    }
+
+    /**
+     * Restores counters persisted by a session store. The chunk name is not persisted.
+     */
+    public void restore(long downloadedBytes, long downloadedSegments, long lastSequence) {
+        this.downloadedBytes = downloadedBytes;
+        this.downloadedSegments = downloadedSegments;
+        this.lastSequence = lastSequence;
     }
 
+    /**
+     * Folds one transferred chunk in. Must only be called from a single thread.
+     */
     public void update(String chunk, long bytes) {
-        String[] splitLine = chunk.split("_");
-        this.lastDownloadedSequenceNumber = splitLine[splitLine.length - 1];
+        this.lastSequence = SegmentNames.sequenceOf(chunk);
         this.lastDownloadedChunk = chunk;
-        this.downloadedBytes += bytes;
+        this.downloadedBytes = downloadedBytes + bytes;
+        this.downloadedSegments = downloadedSegments + 1;
     }
 }
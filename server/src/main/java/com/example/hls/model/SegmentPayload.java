@@ -0,0 +1,98 @@
+package com.example.hls.model;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+/**
+ * Segment content on its way to the player.
+ * <p>
+ * Either a stream of buffers, relayed from the origin without being copied, or a
+ * file from the local transcoder output that can be handed to the socket zero-copy.
+ */
+public sealed interface SegmentPayload permits SegmentPayload.Buffers, SegmentPayload.File {
+
+    /**
+     * Length of the segment, or -1 when unknown.
+     */
+    long contentLength();
+
+    /**
+     * Strong entity tag of the content, or null when none is known, e.g. for segments relayed
+     * from origin without being cached.
+     */
+    String etag();
+
+    /**
+     * Returns a payload that reports the number of bytes that reached the client once
+     * the body completes, fails or is cancelled.
+     */
+    SegmentPayload onTransferred(LongConsumer consumer);
+
+    /**
+     * Wraps an already downloaded segment.
+     */
+    static Buffers of(byte[] data) {
+        return new Buffers(Flux.just(DefaultDataBufferFactory.sharedInstance.wrap(data)), data.length);
+    }
+
+    /**
+     * Joins payloads into one, e.g. the parts of a low latency segment. Files are read into
+     * buffers, the callbacks of the joined payloads are not called.
+     */
+    static Buffers concat(List<? extends SegmentPayload> payloads) {
+        long contentLength = 0;
+        List<Flux<DataBuffer>> bodies = new ArrayList<>();
+        for (SegmentPayload payload : payloads) {
+            contentLength = contentLength < 0 || payload.contentLength() < 0 ? -1 : contentLength + payload.contentLength();
+            bodies.add(switch (payload) {
+                case Buffers buffers -> buffers.body();
+                case File file -> DataBufferUtils.read(file.path(), DefaultDataBufferFactory.sharedInstance, 65_536);
+            });
+        }
+        return new Buffers(Flux.concat(bodies), contentLength);
+    }
+
+    record Buffers(Flux<DataBuffer> body, long contentLength, String etag) implements SegmentPayload {
+
+        public Buffers(Flux<DataBuffer> body, long contentLength) {
+            this(body, contentLength, null);
+        }
+
+        @Override
+        public SegmentPayload onTransferred(LongConsumer consumer) {
+            Flux<DataBuffer> counted = Flux.defer(() -> {
+                long[] transferred = new long[1];
+                return body.doOnNext(buffer -> transferred[0] += buffer.readableByteCount())
+                        .doFinally(signal -> consumer.accept(transferred[0]));
+            });
+            return new Buffers(counted, contentLength, etag);
+        }
+    }
+
+    /**
+     * @param onSent called with the file length once the file has been written
+     */
+    record File(Path path, long contentLength, String etag, LongConsumer onSent) implements SegmentPayload {
+
+        public File(Path path, long contentLength) {
+            this(path, contentLength, null);
+        }
+
+        public File(Path path, long contentLength, String etag) {
+            this(path, contentLength, etag, bytes -> {
+            });
+        }
+
+        @Override
+        public SegmentPayload onTransferred(LongConsumer consumer) {
+            return new File(path, contentLength, etag, onSent.andThen(consumer));
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package com.example.hls.model;
+
+import org.springframework.http.CacheControl;
+
+/**
+ * Playlist rendered for one response, with the caching it allows. Playlists carrying an
+ * ad break are personal to the session and must not be kept by shared caches.
+ */
+public record ServedPlaylist(byte[] body, CacheControl cacheControl) {
+}
@@ -1,29 +1,96 @@
 package com.example.hls.model;
 
+import com.example.hls.model.ad.AdSegment;
+
 import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Represents a streaming session collecting metrics for each available quality.
  */
 public class Session {
+    // state word: ad phase in the upper bits, segments served since the last ad below
+    private static final int PHASE_SHIFT = 32;
+    private static final long COUNT_MASK = (1L << PHASE_SHIFT) - 1;
+
+    /**
+     * Ad scheduling phases. A session counts served segments until an ad is due,
+     * the playlist request that wins the transition inserts it, and counting starts over.
+     */
+    public enum AdState {
+        COUNTING, AD_DUE, INSERTING, INSERTED;
+
+        private static final AdState[] VALUES = values();
+    }
+
     private final String sessionId = String.valueOf(System.currentTimeMillis());
     private final Instant startTime;
     private final Map<String, QualityMetrics> qualities = new ConcurrentHashMap<>();
-    private final Deque<String> adsToInsert = new ArrayDeque<>();
-    private final AtomicInteger frequencySegments = new AtomicInteger(0);
-    private final AtomicInteger segmentsServed = new AtomicInteger(0);
-    private final AtomicBoolean adDue = new AtomicBoolean(Boolean.FALSE);
+    private final Queue<String> adsToInsert = new ConcurrentLinkedQueue<>();
+    private final int frequencySegments;
+    private final AtomicLong state = new AtomicLong(pack(AdState.COUNTING, 0));
     private final List<String> adSegments = List.of("ad-0.ts", "ad-1.ts", "ad-2.ts");
+    private final AtomicLong adBreaks = new AtomicLong();
+    private final AtomicBoolean adDecisionRequested = new AtomicBoolean();
+    private volatile AdPod stagedAdPod;
+    private volatile long lastAccess;
+
+    /**
+     * Ad segments decided for one break, identified by the number of breaks inserted before it.
+     */
+    private record AdPod(long adBreak, List<AdSegment> segments) {
+    }
 
 
     public Session(int frequencySegments) {
         this.startTime = Instant.now();
-        this.frequencySegments.set(frequencySegments);
+        this.frequencySegments = frequencySegments;
+        this.lastAccess = startTime.toEpochMilli();
+    }
+
+    /**
+     * Restores a session persisted by a session store.
+     *
+     * @param adStateWord value of {@link #getAdStateWord()} when the session was saved
+     */
+    public Session(int frequencySegments, Instant startTime, long lastAccess, long adStateWord) {
+        this.startTime = startTime;
+        this.frequencySegments = frequencySegments;
+        this.lastAccess = lastAccess;
+        AdState phase = phase(adStateWord);
+        // an insertion in flight when the session was saved never reached the player
+        this.state.set(phase == AdState.INSERTING ? pack(AdState.AD_DUE, served(adStateWord)) : adStateWord);
+    }
+
+    private static long pack(AdState phase, long served) {
+        return ((long) phase.ordinal() << PHASE_SHIFT) | (served & COUNT_MASK);
+    }
+
+    private static AdState phase(long word) {
+        return AdState.VALUES[(int) (word >>> PHASE_SHIFT)];
+    }
+
+    private static int served(long word) {
+        return (int) (word & COUNT_MASK);
+    }
+
+    /**
+     * Records that the player asked for a playlist or segment of this session.
+     */
+    public void touch() {
+        lastAccess = System.currentTimeMillis();
+    }
+
+    /**
+     * Epoch millis of the last playlist or segment request.
+     */
+    public long getLastAccess() {
+        return lastAccess;
     }
 
     /**
@@ -40,6 +107,13 @@ public class Session {
         return qualities.computeIfAbsent(quality, q -> new QualityMetrics());
     }
 
+    /**
+     * Returns the metrics of all qualities requested so far.
+     */
+    public Map<String, QualityMetrics> getQualities() {
+        return Collections.unmodifiableMap(qualities);
+    }
+
     /**
      * Queue an ad segment to be inserted for this session.
      */
@@ -56,42 +130,144 @@ public class Session {
 
     /**
      * Records that another segment has been served and determines when an ad should be inserted.
+     *
+     * @return segments served since the last ad
      */
-    public void incrementSegments() {
-        int freq = frequencySegments.get();
-        if (freq <= 0) {
-            return;
+    public int incrementSegments() {
+        if (frequencySegments <= 0) {
+            return 0;
         }
-        int served = segmentsServed.incrementAndGet();
-        boolean shouldInsertAd = adDue.get();
-        if (served >= freq && !shouldInsertAd) {
-            adDue.set(Boolean.TRUE);
-            System.out.println("Ad due");
+        while (true) {
+            long current = state.get();
+            AdState phase = phase(current);
+            int served = served(current);
+            if (served < Integer.MAX_VALUE) {
+                served++;
+            }
+            AdState next = switch (phase) {
+                case COUNTING, INSERTED -> served >= frequencySegments ? AdState.AD_DUE : AdState.COUNTING;
+                case AD_DUE, INSERTING -> phase;
+            };
+            if (state.compareAndSet(current, pack(next, served))) {
+                return served;
+            }
         }
-        System.out.println("Served " + served + " segments should insert ad? " + shouldInsertAd );
     }
 
     /**
      * Whether the next playlist response should include an ad break.
      */
     public boolean shouldInsertAd() {
-        System.out.println("Should insert ad? " + adDue.get() + "");
-        return adDue.get();
+        return phase(state.get()) == AdState.AD_DUE;
     }
 
     /**
-     * Returns the predefined ad segments to be inserted.
+     * Claims the due ad break. Only one caller wins, it must call
+     * {@link #completeAdInsertion()} once the break is in its playlist.
+     *
+     * @return whether an ad was due and this caller now inserts it
      */
-    public List<String> getNextAdSegments() {
-        return adSegments;
+    public boolean tryBeginAdInsertion() {
+        while (true) {
+            long current = state.get();
+            if (phase(current) != AdState.AD_DUE) {
+                return false;
+            }
+            if (state.compareAndSet(current, pack(AdState.INSERTING, served(current)))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Finishes an insertion claimed with {@link #tryBeginAdInsertion()} and restarts counting.
+     */
+    public void completeAdInsertion() {
+        // segments served while the playlist is rewritten bump the count, retry until the phase moves on
+        while (true) {
+            long current = state.get();
+            if (phase(current) != AdState.INSERTING) {
+                return;
+            }
+            if (state.compareAndSet(current, pack(AdState.INSERTED, 0))) {
+                nextAdBreak();
+                return;
+            }
+        }
+    }
+
+    private void nextAdBreak() {
+        adBreaks.incrementAndGet();
+        stagedAdPod = null;
+        adDecisionRequested.set(false);
     }
 
     /**
-     * Marks that the ad has been inserted and resets the counter.
+     * Claims the ad decision of the upcoming break. Only one caller wins per break.
      */
-    public void markAdInserted() {
-        adDue.set(Boolean.FALSE);
-        segmentsServed.set(0);
+    public boolean tryRequestAdDecision() {
+        return adDecisionRequested.compareAndSet(false, true);
+    }
+
+    /**
+     * Number of ad breaks inserted so far, identifies the upcoming break.
+     */
+    public long getAdBreakNumber() {
+        return adBreaks.get();
+    }
+
+    /**
+     * Stages the decided ad segments for the break, ignored when the break was inserted in the
+     * meantime with the default segments.
+     */
+    public void stageAdPod(long adBreak, List<AdSegment> segments) {
+        if (adBreaks.get() == adBreak) {
+            stagedAdPod = new AdPod(adBreak, List.copyOf(segments));
+        }
+    }
+
+    /**
+     * Whether decided ad segments are staged for the upcoming break.
+     */
+    public boolean hasStagedAdPod() {
+        AdPod pod = stagedAdPod;
+        return pod != null && pod.adBreak() == adBreaks.get();
+    }
+
+    public AdState getAdState() {
+        return phase(state.get());
+    }
+
+    /**
+     * Ad phase and served count packed into one value, for persisting the session.
+     */
+    public long getAdStateWord() {
+        return state.get();
+    }
+
+    public int getFrequencySegments() {
+        return frequencySegments;
+    }
+
+    public Instant getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Returns the ad segments staged for the upcoming break, empty when no decision arrived in time.
+     */
+    public List<AdSegment> getStagedAdSegments() {
+        AdPod pod = stagedAdPod;
+        return pod != null && pod.adBreak() == adBreaks.get() ? pod.segments() : List.of();
+    }
+
+    /**
+     * Returns the names of the ad segments staged for the upcoming break, or of the predefined
+     * ones when no decision arrived in time.
+     */
+    public List<String> getNextAdSegments() {
+        List<AdSegment> staged = getStagedAdSegments();
+        return staged.isEmpty() ? adSegments : staged.stream().map(AdSegment::uri).toList();
     }
 
     @Override
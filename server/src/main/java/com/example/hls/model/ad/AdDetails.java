@@ -2,6 +2,7 @@ package com.example.hls.model.ad;
 
 public class AdDetails {
     private int duration;
+    private String url;
 
     public int getDuration() {
         return duration;
@@ -10,4 +11,15 @@ public class AdDetails {
     public void setDuration(int duration) {
         this.duration = duration;
     }
+
+    /**
+     * Media URL of the creative, resolved to a catalog item by the ad media service.
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    public void setUrl(String url) {
+        this.url = url;
+    }
 }
@@ -0,0 +1,26 @@
+package com.example.hls.model.ad;
+
+/**
+ * One segment of an ad break.
+ *
+ * @param creative content hash of the creative the segment belongs to, {@code null} for the
+ *                 predefined ad segments. In CMAF playlists every creative has its own init segment.
+ * @param uri      segment file name below the ad quality
+ * @param duration duration in seconds
+ */
+public record AdSegment(String creative, String uri, double duration) {
+
+    /**
+     * A predefined ad segment, all of them share one init segment.
+     */
+    public static AdSegment predefined(String uri, double duration) {
+        return new AdSegment(null, uri, duration);
+    }
+
+    /**
+     * Name of the init segment of the creative.
+     */
+    public String initUri() {
+        return creative == null ? "init.mp4" : creative + "-init.mp4";
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.hls.service;
+
+import com.example.hls.model.Session;
+import com.example.hls.model.ad.AdDetails;
+import com.example.hls.model.ad.AdResponse;
+import com.example.hls.model.ad.AdSegment;
+import com.example.hls.model.ad.SessionContext;
+import com.zenomedia.common.model.ads.AdCatalogItem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides the ads of a session's next break while the session still plays content.
+ * <p>
+ * Once a session is within {@code hls.ad-decision.lead-millis} of its break, the ad
+ * provider is asked for the break and the returned creatives are resolved to their catalog
+ * items. The resulting ad segments are staged on the session, so the playlist request that
+ * inserts the break only splices in names that are already known. A decision that failed,
+ * came back empty or did not arrive before the break leaves the predefined ad segments in place.
+ * <p>
+ * Creatives are expected under {@code hls.ad-base-url} segmented by the ad media pipeline and
+ * named after their content hash, {@code <hash>-<n>.ts} for the n-th segment of a segment
+ * duration, the last one holding the rest of the creative, and {@code <hash>-init.mp4} for CMAF.
+ */
+@Service
+public class AdDecisionService {
+    private static final Logger logger = LoggerFactory.getLogger(AdDecisionService.class);
+
+    private final AdMediaService adMediaService;
+    private final boolean enabled;
+    private final int leadSegments;
+    private final Duration timeout;
+    private final long breakSeconds;
+    private final int segmentDurationSeconds;
+    private final AtomicLong staged = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    @Autowired
+    public AdDecisionService(final AdMediaService adMediaService,
+                             @Value("${hls.ad-decision.enabled:false}") boolean enabled,
+                             @Value("${hls.ad-decision.lead-millis:10000}") long leadMillis,
+                             @Value("${hls.ad-decision.timeout-millis:2000}") long timeoutMillis,
+                             @Value("${hls.ad-decision.break-seconds:15}") long breakSeconds,
+                             @Value("${hls.segment-duration-seconds:5}") int segmentDurationSeconds) {
+        this.adMediaService = adMediaService;
+        this.enabled = enabled;
+        long segmentMillis = segmentDurationSeconds * 1000L;
+        this.leadSegments = (int) Math.max(1, (leadMillis + segmentMillis - 1) / segmentMillis);
+        this.timeout = Duration.ofMillis(timeoutMillis);
+        this.breakSeconds = breakSeconds;
+        this.segmentDurationSeconds = segmentDurationSeconds;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Requests the decision of the session's next break when the session served enough
+     * segments to be within the lead time of it. Returns without waiting for the decision.
+     *
+     * @param userId   key of the session
+     * @param clientIp address of the player, sent to the ad provider
+     * @param served   segments served since the last break, as returned by {@link Session#incrementSegments()}
+     */
+    public void segmentServed(Session session, String userId, String clientIp, int served) {
+        int frequency = session.getFrequencySegments();
+        if (!enabled || frequency <= 0 || served < frequency - leadSegments || !session.tryRequestAdDecision()) {
+            return;
+        }
+        long adBreak = session.getAdBreakNumber();
+        // every break is a new decision, also for players behind the same address
+        String breakId = UUID.randomUUID().toString();
+        decide(breakId, userId, clientIp)
+                .subscribe(segments -> {
+                    if (segments.isEmpty()) {
+                        failed.incrementAndGet();
+                        return;
+                    }
+                    session.stageAdPod(adBreak, segments);
+                    staged.incrementAndGet();
+                    logger.debug("Staged {} ad segments for break {} of session {}", segments.size(), breakId, userId);
+                }, error -> {
+                    failed.incrementAndGet();
+                    logger.debug("Ad decision {} for session {} failed: {}", breakId, userId, error.toString());
+                });
+    }
+
+    /**
+     * Asks the ad provider for the break and resolves the creatives to their segment names,
+     * in the order of the decision. Creatives that cannot be resolved are left out.
+     */
+    Mono<List<AdSegment>> decide(String breakId, String userId, String clientIp) {
+        SessionContext context = new SessionContext(userId, clientIp);
+        return adMediaService.getAd(breakId, breakSeconds, false, context)
+                .mapNotNull(AdResponse::getAdDetailsList)
+                .flatMapMany(Flux::fromIterable)
+                .filter(details -> details.getUrl() != null)
+                .concatMap(details -> adMediaService.retrieveAdMediaForUrl(details.getUrl())
+                        .filter(item -> item.getContentHash() != null)
+                        .map(item -> segments(item, details))
+                        .onErrorResume(e -> {
+                            logger.debug("Cannot resolve ad media {}: {}", details.getUrl(), e.toString());
+                            return Mono.empty();
+                        }))
+                .flatMapIterable(segments -> segments)
+                .collectList()
+                .timeout(timeout);
+    }
+
+    private List<AdSegment> segments(AdCatalogItem item, AdDetails details) {
+        // a creative without a duration is taken as one segment
+        int duration = details.getDuration() > 0 ? details.getDuration() : segmentDurationSeconds;
+        int count = (duration + segmentDurationSeconds - 1) / segmentDurationSeconds;
+        String hash = item.getContentHash();
+        List<AdSegment> segments = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int remaining = duration - i * segmentDurationSeconds;
+            segments.add(new AdSegment(hash, hash + "-" + i + ".ts", Math.min(remaining, segmentDurationSeconds)));
+        }
+        return segments;
+    }
+
+    public long staged() {
+        return staged.get();
+    }
+
+    public long failed() {
+        return failed.get();
+    }
+}
@@ -5,11 +5,14 @@ import com.example.hls.model.CacheEntry;
 import com.example.hls.model.CodecInfo;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.example.hls.model.ad.*;
+import com.example.hls.service.resilience.Upstream;
+import com.example.hls.service.resilience.Upstreams;
 import com.zenomedia.common.model.ads.AdCatalogItem;
 import com.zenomedia.common.model.transcode.CodecSettingInfo;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.http.*;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
@@ -33,17 +36,32 @@ public class AdMediaService {
     private static final Logger logger = LogManager.getLogger(AdMediaService.class);
 
     private final WebClient webClient;
+    private final WebClient adProviderClient;
     private final AdMediaConfiguration config;
     private final JsonConverter converter;
+    private final Upstream adMedia;
+    private final Upstream adProvider;
 
     private final Map<Integer, CacheEntry<CodecSettingInfo>> codecSettingInfoCache = new ConcurrentHashMap<>();
     private final Map<String, CacheEntry<AdCatalogItem>> adCatalogCacheByUrl = new ConcurrentHashMap<>();
 
+    public AdMediaService(WebClient webClient, AdMediaConfiguration config, JsonConverter converter, Upstreams upstreams) {
+        this(webClient, webClient, config, converter, upstreams);
+    }
+
+    /**
+     * Ad media and the ad provider are called through clients of their own, see
+     * {@link com.example.hls.config.WebClientConfiguration}.
+     */
     @Autowired
-    public AdMediaService(WebClient webClient, AdMediaConfiguration config, JsonConverter converter) {
+    public AdMediaService(@Qualifier("adMedia") WebClient webClient, @Qualifier("adProvider") WebClient adProviderClient,
+                          AdMediaConfiguration config, JsonConverter converter, Upstreams upstreams) {
         this.webClient = webClient;
+        this.adProviderClient = adProviderClient;
         this.config = config;
         this.converter = converter;
+        this.adMedia = upstreams.adMedia();
+        this.adProvider = upstreams.adProvider();
     }
 
     /**
@@ -57,6 +75,14 @@ public class AdMediaService {
         adCatalogCacheByUrl.entrySet().removeIf(e -> now - e.getValue().timestamp() > config.getAdCatalogCacheExpiration());
     }
 
+    public int codecSettingCacheSize() {
+        return codecSettingInfoCache.size();
+    }
+
+    public int adCatalogCacheSize() {
+        return adCatalogCacheByUrl.size();
+    }
+
     public void warmup() {
         // Placeholder for warmup logic if needed
     }
@@ -69,10 +95,10 @@ public class AdMediaService {
                 .queryParam("size", size)
                 .queryParam("from", from)
                 .toUriString();
-        return webClient.get()
-                .uri(url)
-                .retrieve()
-                .bodyToMono(String.class)
+        return adMedia.hedgedGet(() -> webClient.get()
+                        .uri(url)
+                        .retrieve()
+                        .bodyToMono(String.class))
                 .map(body -> converter.deserializeJson(body, new TypeReference<List<AdCatalogItem>>() {}))
                 .doOnError(e -> logger.warn("Failed retrieving ad media page {}", page, e))
                 .onErrorReturn(Collections.emptyList());
@@ -88,10 +114,10 @@ public class AdMediaService {
                 .path("/media/items/find")
                 .queryParam("url", url)
                 .toUriString();
-        return webClient.get()
-                .uri(requestUrl)
-                .retrieve()
-                .bodyToMono(String.class)
+        return adMedia.hedgedGet(() -> webClient.get()
+                        .uri(requestUrl)
+                        .retrieve()
+                        .bodyToMono(String.class))
                 .map(body -> cacheAdCatalogItem(converter.deserializeJson(body, AdCatalogItem.class)))
                 .onErrorMap(e -> new RuntimeException(e));
     }
@@ -114,11 +140,11 @@ public class AdMediaService {
                 .toUriString();
         HttpHeaders headers = new HttpHeaders();
         headers.add("x-item-id", mediaId);
-        return webClient.get()
-                .uri(requestUrl)
-                .headers(h -> h.addAll(headers))
-                .retrieve()
-                .bodyToMono(byte[].class)
+        return adMedia.hedgedGet(() -> webClient.get()
+                        .uri(requestUrl)
+                        .headers(h -> h.addAll(headers))
+                        .retrieve()
+                        .bodyToMono(byte[].class))
                 .onErrorMap(e -> new RuntimeException(e));
     }
 
@@ -134,12 +160,12 @@ public class AdMediaService {
         HttpHeaders headers = new HttpHeaders();
         headers.setContentType(MediaType.APPLICATION_JSON);
         String body = converter.serializeJson(codec);
-        return webClient.post()
-                .uri(url)
-                .headers(h -> h.addAll(headers))
-                .bodyValue(body)
-                .retrieve()
-                .bodyToMono(String.class)
+        return adMedia.call(() -> webClient.post()
+                        .uri(url)
+                        .headers(h -> h.addAll(headers))
+                        .bodyValue(body)
+                        .retrieve()
+                        .bodyToMono(String.class))
                 .map(resp -> {
                     CodecSettingInfo result = converter.deserializeJson(resp, CodecSettingInfo.class);
                     codecSettingInfoCache.put(cacheKey, new CacheEntry<>(result, System.currentTimeMillis()));
@@ -174,12 +200,12 @@ public class AdMediaService {
         headers.add("X-Device-Ip", session.getClientIp());
 
         HttpEntity<SessionContext> entity = new HttpEntity<>(session, headers);
-        return webClient.post()
-                .uri(url)
-                .headers(h -> h.addAll(entity.getHeaders()))
-                .bodyValue(session)
-                .retrieve()
-                .bodyToMono(AdResponse.class)
+        return adProvider.call(() -> adProviderClient.post()
+                        .uri(url)
+                        .headers(h -> h.addAll(entity.getHeaders()))
+                        .bodyValue(session)
+                        .retrieve()
+                        .bodyToMono(AdResponse.class))
                 .doOnError(e -> logger.error("Failed to get ad from {}", url, e))
                 .onErrorReturn(new AdResponse());
     }
@@ -190,12 +216,12 @@ public class AdMediaService {
         headers.setContentType(MediaType.APPLICATION_JSON);
         headers.add("X-Device-Ip", session.getClientIp());
         HttpEntity<SessionContext> entity = new HttpEntity<>(session, headers);
-        return webClient.post()
-                .uri(url)
-                .headers(h -> h.addAll(entity.getHeaders()))
-                .bodyValue(session)
-                .retrieve()
-                .toBodilessEntity()
+        return adProvider.call(() -> adProviderClient.post()
+                        .uri(url)
+                        .headers(h -> h.addAll(entity.getHeaders()))
+                        .bodyValue(session)
+                        .retrieve()
+                        .toBodilessEntity())
                 .doOnSuccess(r -> logger.debug("Skip next ad by calling: {}", url))
                 .doOnError(e -> logger.warn("Failed skip next ad by calling: {}", url, e))
                 .then();
@@ -0,0 +1,70 @@
+package com.example.hls.service;
+
+import com.example.hls.model.CachedPlaylist;
+import com.example.hls.model.DashManifest;
+import com.example.hls.model.MediaPlaylist;
+import com.example.hls.service.cache.PlaylistCache;
+import com.example.hls.service.metrics.PipelineMetrics;
+import com.example.hls.service.metrics.PipelineMetrics.Stage;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Serves CMAF streams to DASH players.
+ * <p>
+ * The manifest is rendered from the same cached origin playlists HLS players are served
+ * from, and addresses the same segment URLs, so both protocols share the playlist and
+ * segment cache entries.
+ */
+@Service
+public class DashService {
+    private static final Logger logger = LoggerFactory.getLogger(DashService.class);
+
+    private final PlaylistCache playlistCache;
+    private final PipelineMetrics metrics;
+    private final String originBaseUrl;
+
+    @Autowired
+    public DashService(final PlaylistCache playlistCache,
+                       final PipelineMetrics metrics,
+                       @Value("${hls.origin-base-url}") String originBaseUrl) {
+        this.playlistCache = playlistCache;
+        this.metrics = metrics;
+        this.originBaseUrl = originBaseUrl;
+    }
+
+    /**
+     * Returns the MPD of the stream, empty when the stream is not transcoded to CMAF.
+     */
+    public Mono<byte[]> getManifest(String streamName) {
+        String base = String.format("%s/%s", originBaseUrl, streamName);
+        Timer fetchTimer = metrics.timer(Stage.ORIGIN_PLAYLIST, streamName, null);
+        return playlistCache.getEntry(base + "/master.m3u8", fetchTimer)
+                .flatMap(master -> Flux.fromIterable(master.playlist().segments())
+                        .flatMap(variant -> playlistCache.getEntry(base + "/" + variant.uri(), fetchTimer)
+                                .map(entry -> Map.entry(variant.uri(), entry)))
+                        .collectMap(Map.Entry::getKey, entry -> entry.getValue().playlist())
+                        .flatMap(media -> Mono.justOrEmpty(render(streamName, master, media))))
+                .map(manifest -> manifest.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Optional<String> render(String streamName, CachedPlaylist master, Map<String, MediaPlaylist> media) {
+        Timer rewrite = metrics.timer(Stage.PLAYLIST_REWRITE, streamName, null);
+        Optional<String> manifest = rewrite.record(() ->
+                DashManifest.render(master.playlist(), media, System.currentTimeMillis()));
+        if (manifest.isEmpty()) {
+            logger.debug("Stream {} has no CMAF renditions", streamName);
+        }
+        return manifest;
+    }
+}
@@ -1,36 +1,70 @@
 package com.example.hls.service;
 
+import com.example.hls.config.TranscodingProperties;
 import com.example.hls.model.NginxRtmpRequest;
+import com.example.hls.service.transcoding.LadderCommand;
+import com.example.hls.service.transcoding.TranscoderProcess;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
-import java.io.IOException;
-import java.util.ArrayList;
+import java.nio.file.Path;
 import java.util.List;
-import java.util.concurrent.CompletableFuture;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
-import reactor.core.publisher.Mono;
-import reactor.core.scheduler.Schedulers;
-
 /**
  * Service responsible for spawning ffmpeg to transcode RTMP streams into HLS.
+ * <p>
+ * Keeps one supervised transcoder per stream name: it is restarted when it crashes or
+ * stops writing segments, and stopped when nginx reports the end of the publish.
  */
 @Service
 public class FfmpegService {
     private static final Logger logger = LoggerFactory.getLogger(FfmpegService.class);
+    private static final long START_DELAY_MILLIS = 500;
 
 
     private final String outputPath;
 
     private final String ffmpegPath;
 
+    private final TranscodingProperties transcoding;
+
+    private final TranscoderProcess.Settings settings;
+
+    private final long stallTimeoutMillis;
+
+    private final Map<String, TranscoderProcess> transcoders = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ffmpeg-supervisor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Autowired
     public FfmpegService(@Value("${hls.output-path:live}") String outputPath,
-                         @Value("${ffmpeg.path}") String ffmpegPath) {
+                         @Value("${ffmpeg.path}") String ffmpegPath,
+                         TranscodingProperties transcoding,
+                         @Value("${hls.transcoder.initial-backoff-millis:1000}") long initialBackoffMillis,
+                         @Value("${hls.transcoder.max-backoff-millis:60000}") long maxBackoffMillis,
+                         @Value("${hls.transcoder.max-restarts:10}") int maxRestarts,
+                         @Value("${hls.transcoder.log-lines-per-minute:30}") int logLinesPerMinute,
+                         @Value("${hls.transcoder.stall-timeout-millis:30000}") long stallTimeoutMillis) {
         this.outputPath = outputPath;
         this.ffmpegPath = ffmpegPath;
+        this.transcoding = transcoding;
+        this.settings = new TranscoderProcess.Settings(initialBackoffMillis, maxBackoffMillis, maxRestarts,
+                logLinesPerMinute);
+        this.stallTimeoutMillis = stallTimeoutMillis;
     }
 
 
@@ -39,169 +73,82 @@ public class FfmpegService {
     }
 
     /**
-     * Starts transcoding a video + audio stream into HLS.
+     * Starts transcoding a stream into HLS with the ladder selected by its name suffix.
      */
     public void startVideoTranscoding(NginxRtmpRequest request) {
         String inputUrl = request.tcurl() + "/" + request.name();
         String streamOutput = String.format("%s/%s", outputPath, request.name());
-        List<String> cmd = buildCommand(inputUrl, streamOutput);
-        runAsync(cmd);
+        List<String> cmd = LadderCommand.build(ffmpegPath, inputUrl, streamOutput, transcoding.ladderFor(request.name()));
+        supervise(request.name(), cmd);
     }
 
     /**
-     * Starts transcoding an audio only stream into HLS.
+     * Starts transcoding an audio only stream into HLS with the audio ladder.
      */
     public void startAudioTranscoding(NginxRtmpRequest request) {
         String inputUrl = request.tcurl() + "/" + request.name();
         String streamOutput = String.format("%s/%s", outputPath, request.name());
-        List<String> cmd = buildAudioCommand(inputUrl, streamOutput);
-        runAsync(cmd);
+        List<String> cmd = LadderCommand.build(ffmpegPath, inputUrl, streamOutput,
+                transcoding.ladder(transcoding.audioLadder()));
+        supervise(request.name(), cmd);
     }
 
-    private List<String> buildCommand(String inputUrl, String streamPath) {
-        List<String> command = new ArrayList<>();
-        command.add(ffmpegPath);
-        command.add("-i");
-        command.add(inputUrl);
-
-        // 720p
-        command.add("-map");
-        command.add("0:v");
-        command.add("-s:v:0");
-        command.add("1280x720");
-        command.add("-c:v:0");
-        command.add("libx264");
-        command.add("-b:v:0");
-        command.add("2500k");
-        command.add("-preset");
-        command.add("veryfast");
-        command.add("-g");
-        command.add("48");
-        command.add("-sc_threshold");
-        command.add("0");
-        command.add("-keyint_min");
-        command.add("48");
-
-        // 480p
-        command.add("-map");
-        command.add("0:v");
-        command.add("-s:v:2");
-        command.add("854x480");
-        command.add("-c:v:2");
-        command.add("libx264");
-        command.add("-b:v:2");
-        command.add("1400k");
-        command.add("-preset");
-        command.add("veryfast");
-        command.add("-g");
-        command.add("48");
-        command.add("-sc_threshold");
-        command.add("0");
-        command.add("-keyint_min");
-        command.add("48");
-
-        // 360p
-        command.add("-map");
-        command.add("0:v");
-        command.add("-s:v:1");
-        command.add("640x360");
-        command.add("-c:v:1");
-        command.add("libx264");
-        command.add("-b:v:1");
-        command.add("800k");
-        command.add("-preset");
-        command.add("veryfast");
-        command.add("-g");
-        command.add("48");
-        command.add("-sc_threshold");
-        command.add("0");
-        command.add("-keyint_min");
-        command.add("48");
-
-        command.add("-var_stream_map");
-        command.add("v:0,name:720p v:1,name:360p v:2,name:480p");
-        command.add("-master_pl_name");
-        command.add("master.m3u8");
-        command.add("-hls_segment_filename");
-        command.add(String.format("%s/%%v/segment_%%03d.ts", streamPath));
-        command.add("-f");
-        command.add("hls");
-        command.add("-hls_time");
-        command.add("4");
-        command.add("-hls_flags");
-        command.add("delete_segments+append_list+independent_segments");
-        command.add("-hls_list_size");
-        command.add("8");
-        command.add(String.format("%s/%%v/playlist.m3u8", streamPath));
-        return command;
+    /**
+     * Starts a supervised transcoder for the stream shortly after the publish was acknowledged.
+     * A transcoder still running for the stream, e.g. when the done hook got lost, is replaced.
+     */
+    public void supervise(String stream, List<String> command) {
+        TranscoderProcess transcoder = new TranscoderProcess(stream, command, Path.of(outputPath, stream),
+                settings, scheduler);
+        TranscoderProcess previous = transcoders.put(stream, transcoder);
+        if (previous != null) {
+            logger.info("Replacing transcoder of {}", stream);
+            previous.stop();
+        }
+        scheduler.schedule(transcoder::start, START_DELAY_MILLIS, TimeUnit.MILLISECONDS);
     }
 
-    private List<String> buildAudioCommand(String inputUrl, String streamPath) {
-        List<String> command = new ArrayList<>();
-        command.add("ffmpeg");
-        // duplicate input for each quality
-        command.add("-i");
-        command.add(inputUrl);
-        command.add("-i");
-        command.add(inputUrl);
-        command.add("-i");
-        command.add(inputUrl);
-
-        // high quality
-        command.add("-map");
-        command.add("0:a");
-        command.add("-c:a:0");
-        command.add("aac");
-        command.add("-b:a:0");
-        command.add("192k");
-
-        // medium quality
-        command.add("-map");
-        command.add("1:a");
-        command.add("-c:a:1");
-        command.add("aac");
-        command.add("-b:a:1");
-        command.add("128k");
-
-        // low quality
-        command.add("-map");
-        command.add("2:a");
-        command.add("-c:a:2");
-        command.add("aac");
-        command.add("-b:a:2");
-        command.add("64k");
-
-        command.add("-var_stream_map");
-        command.add("a:0,name:high a:1,name:medium a:2,name:low");
-        command.add("-master_pl_name");
-        command.add("master.m3u8");
-        command.add("-hls_segment_filename");
-        command.add(String.format("%s/%%v/segment_%%03d.aac", streamPath));
-        command.add("-f");
-        command.add("hls");
-        command.add("-hls_time");
-        command.add("4");
-        command.add("-hls_flags");
-        command.add("delete_segments+append_list+independent_segments");
-        command.add("-hls_list_size");
-        command.add("8");
-        command.add(String.format("%s/%%v/playlist.m3u8", streamPath));
-        return command;
+    /**
+     * Stops the transcoder of the stream, called when the publish ended.
+     */
+    public void stopTranscoding(String stream) {
+        TranscoderProcess transcoder = stream == null ? null : transcoders.remove(stream);
+        if (transcoder != null) {
+            logger.info("Stopping transcoder of {}", stream);
+            transcoder.stop();
+        }
     }
 
-    private void runAsync(List<String> command) {
-        CompletableFuture.runAsync(() -> {
-            ProcessBuilder pb = new ProcessBuilder(command);
-            pb.redirectErrorStream(true);
-            try {
-                logger.info("Starting ffmpeg command: {}", String.join(" ", command));
-                Process p = pb.start();
-                int exit = p.waitFor();
-                logger.info("ffmpeg exited with status {}", exit);
-            } catch (IOException | InterruptedException e) {
-                Thread.currentThread().interrupt();
-                logger.error("ffmpeg execution failed", e);
+    /**
+     * Restarts transcoders that are running but did not write any output within the stall timeout.
+     */
+    @Scheduled(fixedDelayString = "${hls.transcoder.watchdog-millis:5000}")
+    public void checkStalls() {
+        long now = System.currentTimeMillis();
+        transcoders.values().forEach(transcoder -> {
+            if (!transcoder.isRunning() || now - transcoder.getStartedAt() < stallTimeoutMillis) {
+                return;
+            }
+            long newest = transcoder.newestOutputMillis();
+            if (now - newest > stallTimeoutMillis) {
+                transcoder.restart(newest == 0
+                        ? "no output after " + (now - transcoder.getStartedAt()) + " ms"
+                        : "no new output for " + (now - newest) + " ms");
             }
-        }, CompletableFuture.delayedExecutor(500, TimeUnit.MILLISECONDS));
+        });
+    }
+
+    public int runningProcesses() {
+        return (int) transcoders.values().stream().filter(TranscoderProcess::isRunning).count();
+    }
+
+    public List<TranscoderProcess.Status> transcoders() {
+        return transcoders.values().stream().map(TranscoderProcess::status).toList();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        transcoders.keySet().forEach(this::stopTranscoding);
+        scheduler.shutdown();
     }
 }
@@ -1,29 +1,55 @@
 package com.example.hls.service;
 
 import ch.qos.logback.core.util.StringUtil;
+import com.example.hls.model.CachedPlaylist;
+import com.example.hls.model.LowLatencyPlaylist;
+import com.example.hls.model.MediaPlaylist;
+import com.example.hls.model.PlaylistVariant;
+import com.example.hls.model.SegmentPayload;
+import com.example.hls.model.ServedPlaylist;
+import com.example.hls.model.ad.AdSegment;
+import com.example.hls.service.cache.AdCreativeCache;
+import com.example.hls.service.cache.PlaylistCache;
+import com.example.hls.service.cache.SegmentCache;
+import com.example.hls.service.cache.SegmentPrefetcher;
+import com.example.hls.service.metrics.PipelineMetrics;
+import com.example.hls.service.metrics.PipelineMetrics.Stage;
+import com.example.hls.service.origin.LocalSegmentOrigin;
+import com.example.hls.service.origin.SegmentIndex;
+import com.example.hls.service.resilience.Upstream;
+import com.example.hls.service.resilience.Upstreams;
 import com.example.hls.service.session.SessionContextService;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import com.example.hls.model.Session;
+import com.example.hls.util.SegmentNames;
 
+import java.time.Duration;
 import java.util.*;
+import java.util.function.Function;
 
 @Service
 public class HlsService {
     private static final Logger logger = LoggerFactory.getLogger(HlsService.class);
+    private static final String STREAMING_DELIVERY = "streaming";
+    private static final byte[] EMPTY_PLAYLIST = new byte[0];
     @Value("${hls.origin-base-url}")
     private String originBaseUrl;
 
-    @Value("${hls.ad-base-url}")
-    private String adBaseUrl;
-
     @Value("${hls.ad-frequency-minutes:2}")
     private int adFrequencyMinutes;
 
@@ -33,15 +59,81 @@ public class HlsService {
     @Value("${hls.segment-duration-seconds:5}")
     private int segmentDurationSeconds;
 
+    /**
+     * "streaming" relays origin buffers to the client, "buffered" downloads each segment into memory first
+     */
+    @Value("${hls.segment-delivery:streaming}")
+    private String segmentDelivery;
+
+    /**
+     * serve the parts cut by the transcoder as Low-Latency HLS, see {@link LowLatencyPlaylist}
+     */
+    @Value("${hls.low-latency.enabled:false}")
+    private boolean lowLatency;
+
+    /**
+     * parts per segment, has to match parts-per-segment of the transcoding ladders
+     */
+    @Value("${hls.low-latency.parts-per-segment:4}")
+    private int partsPerSegment;
+
     private final WebClient webClient;
 
     private final SessionService sessionService;
 
+    private final PlaylistCache playlistCache;
+
+    private final LocalSegmentOrigin localSegmentOrigin;
+
+    private final SegmentCache segmentCache;
+
+    private final AdCreativeCache adCreativeCache;
+
+    private final Upstream origin;
+
+    private final PipelineMetrics metrics;
+
+    private final SegmentIndex segmentIndex;
+
+    private final SegmentPrefetcher segmentPrefetcher;
+
+    private final AdDecisionService adDecisionService;
+
     @Autowired
     public HlsService(final WebClient webClient,
-                      final SessionService sessionService) {
+                      final SessionService sessionService,
+                      final PlaylistCache playlistCache,
+                      final LocalSegmentOrigin localSegmentOrigin,
+                      final SegmentCache segmentCache,
+                      final AdCreativeCache adCreativeCache,
+                      final Upstreams upstreams,
+                      final PipelineMetrics metrics,
+                      final SegmentIndex segmentIndex,
+                      final SegmentPrefetcher segmentPrefetcher,
+                      final AdDecisionService adDecisionService) {
         this.webClient = webClient;
         this.sessionService = sessionService;
+        this.playlistCache = playlistCache;
+        this.localSegmentOrigin = localSegmentOrigin;
+        this.segmentCache = segmentCache;
+        this.adCreativeCache = adCreativeCache;
+        this.origin = upstreams.origin();
+        this.metrics = metrics;
+        this.segmentIndex = segmentIndex;
+        this.segmentPrefetcher = segmentPrefetcher;
+        this.adDecisionService = adDecisionService;
+    }
+
+    /**
+     * With the segment index, a playlist is revalidated as soon as the transcoder listed a
+     * new segment in it instead of after the cache TTL.
+     */
+    @PostConstruct
+    public void watchSegments() {
+        if (segmentIndex.isEnabled()) {
+            segmentIndex.addListener(segment -> playlistCache.changed(
+                    buildQualityPath(String.format("%s/%s", originBaseUrl, segment.stream()), segment.quality()) + "/playlist.m3u8"));
+        }
     }
 
     private Session getSession(String userId) {
@@ -50,75 +142,321 @@ public class HlsService {
         return sessionService.getSession(userId, freqSegments);
     }
 
-    public Mono<String> getPlaylist(String streamName, String playlist, String quality, String userId) {
+    public Mono<byte[]> getPlaylist(String streamName, String playlist, String quality, String userId) {
+        return getPlaylist(streamName, playlist, quality, userId, null, null).map(ServedPlaylist::body);
+    }
+
+    /**
+     * Returns the playlist for a blocking playlist reload with the {@code _HLS_msn} and
+     * {@code _HLS_part} directives, both optional but {@code _HLS_part} requires {@code _HLS_msn}. In low latency mode the response is held
+     * back until the playlist lists the requested segment or part.
+     * <p>
+     * Playlists may be cached for a fraction of the time until the next segment, and served
+     * stale for a segment duration while a cache revalidates them. Playlists with an ad break
+     * are private to the session.
+     */
+    public Mono<ServedPlaylist> getPlaylist(String streamName, String playlist, String quality, String userId,
+                                            Long msn, Integer part) {
+        if (part != null && msn == null) {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "_HLS_part without _HLS_msn"));
+        }
         String baseUrl = String.format("%s/%s", originBaseUrl, streamName);
         String base = buildQualityPath(baseUrl, quality);
         String url = base + "/" + playlist + ".m3u8";
+        boolean master = playlist.equals("master");
+        boolean partial = lowLatency && !master;
+        if (!master && !localSegmentOrigin.isEnabled()) {
+            // recorded before the fetch, the refresh it causes already prefetches
+            segmentPrefetcher.viewed(url, streamName, quality);
+        }
 
-        return webClient.get().uri(url).retrieve().bodyToMono(String.class)
-                .defaultIfEmpty("")
-                .map(m3u8 -> {
-                    if (m3u8.isEmpty()) {
-                        return "";
+        Timer fetchTimer = metrics.timer(Stage.ORIGIN_PLAYLIST, streamName, quality);
+        Mono<CachedPlaylist> entry = partial && msn != null
+                ? awaitPlaylist(url, msn, part, fetchTimer)
+                : playlistCache.getEntry(url, fetchTimer);
+        return entry
+                .map(cached -> {
+                    if (cached.body().isEmpty()) {
+                        return new ServedPlaylist(EMPTY_PLAYLIST, CacheControl.noCache());
                     }
+                    // only streams and qualities the origin serves get metric series of their own
+                    metrics.admitStream(streamName);
+                    metrics.admitQuality(quality);
                     Session session = getSession(userId);
-                    List<String> lines = new ArrayList<>(Arrays.asList(m3u8.split("\n")));
-                    boolean shouldInsertAd = session.shouldInsertAd() && !playlist.equals("master");
-                    logger.info("Session {} should insert ad {}", session.toString(), session.shouldInsertAd());
-                    if (shouldInsertAd) {
-                        session.markAdInserted();
-                        lines.add("#EXT-X-DISCONTINUITY");
-                        session.getNextAdSegments().forEach(ad -> {
-                            lines.add("#EXTINF:" + segmentDurationSeconds + ".0,");
-                            String prefix = StringUtil.isNullOrEmpty(quality) ? "ads/" : "ads/" + quality + "/";
-                            lines.add(prefix + ad);
-                        });
-                        lines.add("#EXT-X-DISCONTINUITY");
-                        logger.info("Insert ad segments into session, {}", String.join("\n", lines));
+                    // master playlists never carry ads, and only one concurrent request may claim the break
+                    Timer rewrite = metrics.timer(Stage.PLAYLIST_REWRITE, streamName, quality);
+                    if (master || !session.tryBeginAdInsertion()) {
+                        Function<MediaPlaylist, String> renderer = partial
+                                ? parsed -> LowLatencyPlaylist.render(parsed, partsPerSegment, List.of())
+                                : MediaPlaylist::render;
+                        return new ServedPlaylist(rewrite.record(() -> cached.variant(PlaylistVariant.NONE, renderer)),
+                                playlistCacheControl(master).cachePublic());
                     }
-                    return String.join("\n", lines);
-                });
+                    try {
+                        String prefix = StringUtil.isNullOrEmpty(quality) ? "ads/" : "ads/" + quality + "/";
+                        PlaylistVariant variant = new PlaylistVariant(prefix, nextAdSegments(session));
+                        logger.info("Insert ad segments into session {}", session);
+                        // ads are spliced in as full segments after the last complete segment
+                        return new ServedPlaylist(rewrite.record(() -> cached.variant(variant, parsed -> partial
+                                ? LowLatencyPlaylist.render(parsed, partsPerSegment, adBreak(variant, parsed))
+                                : parsed.render(adBreak(variant, parsed)))), playlistCacheControl(false).cachePrivate());
+                    } finally {
+                        session.completeAdInsertion();
+                    }
+                })
+                .defaultIfEmpty(new ServedPlaylist(EMPTY_PLAYLIST, CacheControl.noCache()));
     }
 
-    public Mono<byte[]> getSegment(String stream, String segmentName, String quality, String userId) {
-        String baseUrl = String.format("%s/%s", originBaseUrl, stream);
-        return downloadChunk(baseUrl, quality, segmentName)
-                .map(data -> {
-                    Session session = getSession(userId);
-                    session.incrementSegments();
-                    int length = data == null ? 0 : data.length;
-                    sessionService.updateMetrics(userId, StringUtil.isNullOrEmpty(quality) ? "" : quality,
-                            segmentName + ".ts",
-                            length);
-                    return data;
-                });
+    /**
+     * Master playlists change when the ladder changes, media playlists with every segment,
+     * or with every part in low latency mode.
+     */
+    private CacheControl playlistCacheControl(boolean master) {
+        long maxAge = master ? segmentDurationSeconds
+                : lowLatency ? segmentDurationSeconds / partsPerSegment : segmentDurationSeconds / 2;
+        return CacheControl.maxAge(Duration.ofSeconds(Math.max(1, maxAge)))
+                .staleWhileRevalidate(Duration.ofSeconds(segmentDurationSeconds));
     }
 
-    public Mono<byte[]> getAudioSegment(String stream, String segmentName, String quality, String userId) {
+    /**
+     * Waits until the playlist lists part {@code part} of segment {@code msn}, or the whole segment
+     * without a part, for at most three target durations.
+     */
+    private Mono<CachedPlaylist> awaitPlaylist(String url, long msn, Integer part, Timer fetchTimer) {
+        if (msn < 0 || (part != null && part < 0)) {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "Negative _HLS_msn or _HLS_part"));
+        }
+        // a part index beyond the last part of the segment addresses the following segments
+        long segment = part == null ? msn : msn + part / partsPerSegment;
+        int index = part == null ? -1 : part % partsPerSegment;
+        return playlistCache.getEntry(url, fetchTimer).flatMap(current -> {
+            if (segment > LowLatencyPlaylist.nextMsn(current.playlist(), partsPerSegment) + 1) {
+                return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "_HLS_msn is too far ahead of the playlist"));
+            }
+            return playlistCache.awaitEntry(url,
+                    cached -> LowLatencyPlaylist.contains(cached.playlist(), partsPerSegment, segment, index),
+                    Duration.ofSeconds(segmentDurationSeconds * 3L), fetchTimer);
+        });
+    }
+
+    /**
+     * The ad segments decided for the session's break, or the predefined ones of a segment duration each.
+     */
+    private List<AdSegment> nextAdSegments(Session session) {
+        List<AdSegment> staged = session.getStagedAdSegments();
+        if (!staged.isEmpty()) {
+            return staged;
+        }
+        return session.getNextAdSegments().stream()
+                .map(name -> AdSegment.predefined(name, segmentDurationSeconds))
+                .toList();
+    }
+
+    /**
+     * Ad break of the variant. In CMAF playlists the ad creatives are CMAF as well, with an
+     * init segment of their own, and the init segment of the stream is announced again after the break.
+     */
+    private List<String> adBreak(PlaylistVariant variant, MediaPlaylist parsed) {
+        Optional<String> streamInit = parsed.segments().stream()
+                .flatMap(segment -> segment.tags().stream())
+                .filter(tag -> tag.startsWith("#EXT-X-MAP"))
+                .reduce((first, second) -> second);
+        List<String> lines = new ArrayList<>();
+        AdSegment previous = null;
+        for (AdSegment ad : variant.adSegments()) {
+            // creatives are encoded independently, each one starts a discontinuity with its own init segment
+            if (previous == null || !Objects.equals(previous.creative(), ad.creative())) {
+                lines.add("#EXT-X-DISCONTINUITY");
+                streamInit.ifPresent(tag -> lines.add("#EXT-X-MAP:URI=\"" + variant.adPrefix() + ad.initUri() + "\""));
+            }
+            String uri = ad.uri();
+            lines.add("#EXTINF:" + ad.duration() + ",");
+            lines.add(variant.adPrefix() + (streamInit.isPresent() ? uri.substring(0, uri.lastIndexOf('.')) + ".m4s" : uri));
+            previous = ad;
+        }
+        lines.add("#EXT-X-DISCONTINUITY");
+        streamInit.ifPresent(lines::add);
+        return lines;
+    }
+
+    public Mono<SegmentPayload> getSegment(String stream, String segmentName, String quality, String userId) {
+        return getSegment(stream, segmentName, quality, userId, userId);
+    }
+
+    /**
+     * @param clientIp address of the player, sent with ad decisions for the session
+     */
+    public Mono<SegmentPayload> getSegment(String stream, String segmentName, String quality, String userId,
+                                           String clientIp) {
+        return getMediaSegment(stream, segmentName, quality, userId, clientIp, "ts");
+    }
+
+    public Mono<SegmentPayload> getAudioSegment(String stream, String segmentName, String quality, String userId) {
+        return getAudioSegment(stream, segmentName, quality, userId, userId);
+    }
+
+    public Mono<SegmentPayload> getAudioSegment(String stream, String segmentName, String quality, String userId,
+                                                String clientIp) {
+        return getMediaSegment(stream, segmentName, quality, userId, clientIp, "aac");
+    }
+
+    /**
+     * Serves a CMAF media segment, to HLS and DASH players alike.
+     */
+    public Mono<SegmentPayload> getCmafSegment(String stream, String segmentName, String quality, String userId) {
+        return getCmafSegment(stream, segmentName, quality, userId, userId);
+    }
+
+    public Mono<SegmentPayload> getCmafSegment(String stream, String segmentName, String quality, String userId,
+                                               String clientIp) {
+        return getMediaSegment(stream, segmentName, quality, userId, clientIp, "m4s");
+    }
+
+    /**
+     * Serves the CMAF init segment of a rendition, it does not count towards the ad schedule.
+     * Init segments are not kept in the segment cache: they carry no sequence number the live
+     * window could expire them by, and a restarted transcoder or a changed ladder rewrites
+     * them under the same name.
+     */
+    public Mono<SegmentPayload> getInitSegment(String stream, String initName, String quality) {
+        return fetchSegment(stream, quality, initName, "mp4", false)
+                .map(payload -> payload.onTransferred(bytes ->
+                        metrics.countBytesServed(Optional.ofNullable(quality).orElse(""), bytes)));
+    }
+
+    /**
+     * Entity tag of a live segment that is known without fetching it, from the local output
+     * or the segment cache. {@code null} when the segment has not been served before.
+     */
+    public String knownEtag(String stream, String quality, String fileName) {
+        String q = Objects.toString(quality, "");
+        String etag = localSegmentOrigin.isEnabled() ? localSegmentOrigin.etag(stream, q, fileName) : null;
+        return etag != null ? etag : segmentCache.etag(stream, q, fileName);
+    }
+
+    /**
+     * A segment counts towards the ad schedule once its body was sent, a revalidation answered
+     * with 304 does not.
+     */
+    private Mono<SegmentPayload> getMediaSegment(String stream, String segmentName, String quality, String userId,
+                                                 String clientIp, String ext) {
+        boolean segmentStart = isSegmentStart(segmentName);
+        return fetchMedia(stream, quality, segmentName, ext)
+                .map(payload -> payload.onTransferred(bytes -> {
+                    if (segmentStart && bytes > 0) {
+                        Session session = getSession(userId);
+                        int served = session.incrementSegments();
+                        // the ads of the next break are decided while the session still plays content
+                        adDecisionService.segmentServed(session, userId, clientIp, served);
+                    }
+                    transferred(userId, quality, segmentName + "." + ext, bytes);
+                }));
+    }
+
+    /**
+     * Whether the request starts a segment, low latency players fetch every part but the ad
+     * schedule counts segments.
+     */
+    private boolean isSegmentStart(String segmentName) {
+        return !lowLatency
+                || LowLatencyPlaylist.msnOf(segmentName) >= 0
+                || SegmentNames.sequenceOf(segmentName) % partsPerSegment == 0;
+    }
+
+    /**
+     * In low latency mode full segments are joined from their parts, and a part announced by a
+     * preload hint is waited for until the transcoder wrote it.
+     */
+    private Mono<SegmentPayload> fetchMedia(String stream, String quality, String segmentName, String ext) {
+        if (!lowLatency) {
+            return fetchSegment(stream, quality, segmentName, ext);
+        }
+        String playlistUrl = buildQualityPath(String.format("%s/%s", originBaseUrl, stream), quality) + "/playlist.m3u8";
+        long msn = LowLatencyPlaylist.msnOf(segmentName);
+        if (msn < 0) {
+            return fetchPart(stream, quality, segmentName, ext, playlistUrl);
+        }
+        return playlistCache.getEntry(playlistUrl).flatMap(cached -> {
+            List<MediaPlaylist.Segment> parts = cached.playlist().segments();
+            if (parts.isEmpty()) {
+                return Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND));
+            }
+            String template = parts.get(0).uri();
+            return Flux.range(0, partsPerSegment)
+                    .flatMapSequential(i -> fetchPart(stream, quality,
+                            partName(LowLatencyPlaylist.partUri(template, msn * partsPerSegment + i)), ext, playlistUrl))
+                    .collectList()
+                    .map(SegmentPayload::concat);
+        });
+    }
+
+    /**
+     * Fetches a part once the playlist lists it. A part the transcoder is still writing may
+     * already be on disk or at the origin, it is neither fetched nor cached before it is listed.
+     */
+    private Mono<SegmentPayload> fetchPart(String stream, String quality, String partName, String ext, String playlistUrl) {
+        long sequence = SegmentNames.sequenceOf(partName);
+        if (sequence < 0) {
+            return fetchSegment(stream, quality, partName, ext);
+        }
+        return playlistCache.getEntry(playlistUrl).flatMap(current -> {
+            long lastPart = LowLatencyPlaylist.lastPart(current.playlist());
+            if (lastPart >= sequence) {
+                return fetchSegment(stream, quality, partName, ext);
+            }
+            // only the hinted part and the one after it are worth waiting for
+            if (sequence > lastPart + 2) {
+                return Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND));
+            }
+            return playlistCache.awaitEntry(playlistUrl,
+                            cached -> LowLatencyPlaylist.lastPart(cached.playlist()) >= sequence,
+                            Duration.ofSeconds(segmentDurationSeconds), null)
+                    .flatMap(cached -> LowLatencyPlaylist.lastPart(cached.playlist()) >= sequence
+                            ? fetchSegment(stream, quality, partName, ext)
+                            : Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND)));
+        });
+    }
+
+    private static String partName(String uri) {
+        int start = uri.lastIndexOf('/') + 1;
+        int end = uri.lastIndexOf('.');
+        return uri.substring(start, end < start ? uri.length() : end);
+    }
+
+    /**
+     * Serves a live segment from the transcoder output when the local origin is enabled,
+     * falling back to the segment cache in front of the HTTP origin when the file is not there.
+     */
+    private Mono<SegmentPayload> fetchSegment(String stream, String quality, String segmentName, String ext) {
+        return fetchSegment(stream, quality, segmentName, ext, true);
+    }
+
+    private Mono<SegmentPayload> fetchSegment(String stream, String quality, String segmentName, String ext,
+                                              boolean cacheable) {
         String baseUrl = String.format("%s/%s", originBaseUrl, stream);
-        return downloadAudioChunk(baseUrl, quality, segmentName)
-                .map(data -> {
-                    Session session = getSession(userId);
-                    session.incrementSegments();
-                    int length = data == null ? 0 : data.length;
-                    sessionService.updateMetrics(userId,
-                            StringUtil.isNullOrEmpty(quality) ? "" : quality,
-                            segmentName + ".aac",
-                            length);
-                    return data;
-                });
-    }
-
-    private Mono<byte[]> downloadChunk(String originBaseUrl, String quality, String segmentName) {
-        String url = buildSegmentPath(originBaseUrl, quality, segmentName, "ts");
-        logger.debug("Downloading chunk {}", url);
-        return webClient.get().uri(url).retrieve().bodyToMono(byte[].class);
+        String fileName = segmentName + "." + ext;
+        String url = buildSegmentPath(baseUrl, quality, segmentName, ext);
+        Mono<SegmentPayload> origin = cacheable
+                ? segmentCache.get(stream, Objects.toString(quality, ""), fileName, () -> download(url))
+                : download(url).cast(SegmentPayload.class);
+        if (localSegmentOrigin.isEnabled()) {
+            origin = localSegmentOrigin.find(stream, quality, fileName).switchIfEmpty(origin);
+        }
+        // the time until the payload is ready, the transfer to the client is not included
+        return metrics.time(Stage.SEGMENT_FETCH, stream, quality, origin);
     }
 
-    private Mono<byte[]> downloadAudioChunk(String originBaseUrl, String quality, String segmentName) {
-        String url = buildSegmentPath(originBaseUrl, quality, segmentName, "aac");
+    private Mono<SegmentPayload.Buffers> download(String url) {
         logger.debug("Downloading chunk {}", url);
-        return webClient.get().uri(url).retrieve().bodyToMono(byte[].class);
+        if (!STREAMING_DELIVERY.equals(segmentDelivery)) {
+            return origin.hedgedGet(() -> webClient.get().uri(url).retrieve().bodyToMono(byte[].class))
+                    .map(SegmentPayload::of);
+        }
+        // status and headers are checked before the body flux is handed out, the body
+        // itself stays a stream of pooled buffers that is consumed by the response.
+        // Hedging and the timeout therefore only cover the wait for the headers.
+        return origin.hedgedGet(() -> webClient.get().uri(url).retrieve().toEntityFlux(DataBuffer.class))
+                .map(entity -> new SegmentPayload.Buffers(entity.getBody(), entity.getHeaders().getContentLength()));
     }
 
     private String buildQualityPath(String originBaseUrl, String quality) {
@@ -130,33 +468,31 @@ public class HlsService {
         return base;
     }
 
-    public Mono<byte[]> getAdSegment(String segmentName, String quality, String userId) {
+    public Mono<SegmentPayload> getAdSegment(String segmentName, String quality, String userId) {
+        return getAdCreative(segmentName, quality, userId, "ts");
+    }
+
+    public Mono<SegmentPayload> getAudioAdSegment(String segmentName, String quality, String userId) {
+        return getAdCreative(segmentName, quality, userId, "aac");
+    }
 
-        return downloadChunk(adBaseUrl, quality, segmentName)
-                .map(data -> {
-                    int length = data == null ? 0 : data.length;
-                    sessionService.updateMetrics(userId,
-                            Optional.ofNullable(quality).orElse(""),
-                            buildSegmentPath("ads", quality, segmentName),
-                            length);
-                    return data;
-                });
+    /**
+     * Serves a CMAF ad segment, or with {@code ext} mp4 the init segment of the ad creatives.
+     */
+    public Mono<SegmentPayload> getCmafAdSegment(String segmentName, String ext, String quality, String userId) {
+        return getAdCreative(segmentName, quality, userId, ext);
     }
 
-    public Mono<byte[]> getAudioAdSegment(String segmentName, String quality, String userId) {
-        return downloadAudioChunk(adBaseUrl, quality, segmentName)
-                .map(data -> {
-                    int length = data == null ? 0 : data.length;
-                    sessionService.updateMetrics(userId,
-                            Optional.ofNullable(quality).orElse(""),
-                            buildSegmentPath("ads", quality, segmentName, "aac"),
-                            length);
-                    return data;
-                });
+    private Mono<SegmentPayload> getAdCreative(String segmentName, String quality, String userId, String ext) {
+        return metrics.time(Stage.AD_SEGMENT_FETCH, null, quality, adCreativeCache.get(quality, segmentName + "." + ext))
+                .map(payload -> payload.onTransferred(bytes -> transferred(userId, quality,
+                        buildSegmentPath("ads", quality, segmentName, ext), bytes)));
     }
 
-    private String buildSegmentPath(String basePath, String quality, String segmentName) {
-        return buildSegmentPath(basePath, quality, segmentName, "ts");
+    private void transferred(String userId, String quality, String segment, long bytes) {
+        String q = Optional.ofNullable(quality).orElse("");
+        sessionService.updateMetrics(userId, q, segment, bytes);
+        metrics.countBytesServed(q, bytes);
     }
 
     private String buildSegmentPath(String basePath, String quality, String segmentName, String ext) {
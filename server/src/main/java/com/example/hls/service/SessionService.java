@@ -1,18 +1,96 @@
 package com.example.hls.service;
 
-import com.example.hls.model.QualityMetrics;
 import com.example.hls.model.Session;
+import com.example.hls.service.session.MetricsRingBuffer;
+import com.example.hls.service.session.InMemorySessionStore;
+import com.example.hls.service.session.SessionExpiryListener;
+import com.example.hls.service.session.SessionExpiryWheel;
+import com.example.hls.service.session.SessionMetricsAggregator;
+import com.example.hls.service.session.SessionStore;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Manages {@link Session} instances and updates their metrics.
+ * <p>
+ * Sessions idle for longer than the idle timeout are removed and, above the session
+ * limit, the sessions closest to expiry are removed early, so memory stays bounded
+ * no matter how many players come and go.
+ * <p>
+ * Metric updates arrive on the event loop for every segment, so they are only
+ * published to a ring buffer and folded into the sessions by an aggregator thread.
  */
 @Service
 public class SessionService {
-    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private static final Logger logger = LoggerFactory.getLogger(SessionService.class);
+
+    private final SessionStore sessions;
+    private final int maxSessions;
+    private final long idleTimeoutMillis;
+    private final SessionExpiryWheel expiryWheel;
+    private final List<SessionExpiryListener> listeners;
+    private final MetricsRingBuffer metricsRing;
+    private final SessionMetricsAggregator metricsAggregator;
+
+    public SessionService() {
+        this(100_000, 600_000, 1_000, List.of());
+    }
+
+    @Autowired
+    public SessionService(@Value("${hls.session.max-sessions:100000}") int maxSessions,
+                          @Value("${hls.session.idle-timeout-millis:600000}") long idleTimeoutMillis,
+                          @Value("${hls.session.expiry-tick-millis:1000}") long expiryTickMillis,
+                          @Value("${hls.session.metrics-ring-size:65536}") int metricsRingSize,
+                          SessionStore sessionStore,
+                          ObjectProvider<SessionExpiryListener> listeners) {
+        this(maxSessions, idleTimeoutMillis, expiryTickMillis, metricsRingSize, sessionStore,
+                listeners.orderedStream().toList());
+    }
+
+    public SessionService(int maxSessions, long idleTimeoutMillis, long expiryTickMillis,
+                          List<SessionExpiryListener> listeners) {
+        this(maxSessions, idleTimeoutMillis, expiryTickMillis, 65_536, new InMemorySessionStore(), listeners);
+    }
+
+    public SessionService(int maxSessions, long idleTimeoutMillis, long expiryTickMillis, int metricsRingSize,
+                          SessionStore sessionStore, List<SessionExpiryListener> listeners) {
+        this.sessions = sessionStore;
+        this.maxSessions = maxSessions;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.expiryWheel = new SessionExpiryWheel(expiryTickMillis, idleTimeoutMillis, System.currentTimeMillis());
+        this.listeners = listeners;
+        this.metricsRing = new MetricsRingBuffer(metricsRingSize);
+        // a plain lookup, metrics arriving after a session expired must neither revive nor touch it
+        this.metricsAggregator = new SessionMetricsAggregator(metricsRing, sessions::get);
+        this.metricsAggregator.start();
+        // sessions restored by a persistent store expire like any other
+        sessions.onRestore((id, session) -> expiryWheel.schedule(id, session.getLastAccess() + idleTimeoutMillis));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        metricsAggregator.flush();
+        metricsAggregator.stop();
+        sessions.close();
+    }
+
+    /**
+     * Persists the sessions if the store supports it.
+     */
+    @Scheduled(fixedDelayString = "${hls.session.checkpoint-millis:5000}")
+    public void checkpoint() {
+        metricsAggregator.flush();
+        sessions.checkpoint();
+    }
 
     /**
      * Returns the session for the given id, creating it if necessary.
@@ -26,16 +104,50 @@ public class SessionService {
      * frequency if necessary.
      */
     public Session getSession(String sessionId, int frequencySegments) {
-        return sessions.computeIfAbsent(sessionId, id -> new Session(frequencySegments));
+        Session session = sessions.get(sessionId);
+        if (session == null) {
+            session = sessions.computeIfAbsent(sessionId, id -> {
+                Session created = new Session(frequencySegments);
+                expiryWheel.schedule(id, created.getLastAccess() + idleTimeoutMillis);
+                return created;
+            });
+            if (sessions.size() > maxSessions) {
+                evictOverflow();
+            }
+        }
+        session.touch();
+        return session;
     }
 
     /**
-     * Updates metrics for a particular quality.
+     * Updates metrics for a particular quality. The update is applied asynchronously,
+     * use {@link #flushMetrics()} to wait for it.
      */
     public void updateMetrics(String sessionId, String quality, String chunk, long bytes) {
-        Session session = getSession(sessionId);
-        QualityMetrics metrics = session.getMetrics(quality);
-        metrics.update(chunk, bytes);
+        if (metricsRing.publish(sessionId, quality, chunk, bytes)) {
+            metricsAggregator.signal();
+        }
+    }
+
+    /**
+     * Blocks until all metric updates published so far are visible on the sessions.
+     */
+    public void flushMetrics() {
+        metricsAggregator.flush();
+    }
+
+    /**
+     * Transferred bytes per quality across all sessions.
+     */
+    public Map<String, Long> bytesByQuality() {
+        return metricsAggregator.bytesByQuality();
+    }
+
+    /**
+     * Metric updates dropped because the aggregator fell behind.
+     */
+    public long droppedMetrics() {
+        return metricsRing.dropped();
     }
 
     /**
@@ -44,4 +156,70 @@ public class SessionService {
     public void queueAd(String sessionId, String adSegment) {
         getSession(sessionId).addAd(adSegment);
     }
+
+    /**
+     * Number of sessions currently held.
+     */
+    public int size() {
+        return sessions.size();
+    }
+
+    /**
+     * Expires the sessions whose deadline passed. Sessions accessed since they were
+     * scheduled are put back on the wheel at their new deadline.
+     */
+    @Scheduled(fixedDelayString = "${hls.session.expiry-tick-millis:1000}")
+    public void expireIdleSessions() {
+        expireIdleSessions(System.currentTimeMillis());
+    }
+
+    public void expireIdleSessions(long now) {
+        expiryWheel.advance(now, id -> {
+            Session session = sessions.get(id);
+            if (session == null) {
+                return;
+            }
+            long deadline = session.getLastAccess() + idleTimeoutMillis;
+            if (deadline <= now) {
+                expire(id, session);
+            } else {
+                expiryWheel.schedule(id, deadline);
+            }
+        });
+    }
+
+    private void evictOverflow() {
+        int excess = sessions.size() - maxSessions;
+        if (excess <= 0) {
+            return;
+        }
+        int evicted = expiryWheel.evictEarliest(excess, (id, slotEnd) -> {
+            Session session = sessions.get(id);
+            if (session == null) {
+                return false;
+            }
+            // sessions accessed since they were scheduled are filed again by their real recency
+            long deadline = session.getLastAccess() + idleTimeoutMillis;
+            if (deadline > slotEnd) {
+                expiryWheel.schedule(id, deadline);
+                return false;
+            }
+            expire(id, session);
+            return true;
+        });
+        logger.debug("Evicted {} sessions above the limit of {}", evicted, maxSessions);
+    }
+
+    private void expire(String id, Session session) {
+        if (!sessions.remove(id, session)) {
+            return;
+        }
+        for (SessionExpiryListener listener : listeners) {
+            try {
+                listener.onExpired(id, session);
+            } catch (RuntimeException e) {
+                logger.warn("Session expiry listener failed for session {}", id, e);
+            }
+        }
+    }
 }
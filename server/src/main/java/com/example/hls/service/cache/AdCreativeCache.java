@@ -0,0 +1,242 @@
+package com.example.hls.service.cache;
+
+import com.example.hls.model.CacheStats;
+import com.example.hls.model.SegmentPayload;
+import com.example.hls.util.DirectBuffers;
+import com.example.hls.util.ETags;
+import com.example.hls.util.SingleFlight;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps ad creatives in memory per ad quality.
+ * <p>
+ * Every session of an ad break requests the same few ad segments at once, so they are
+ * preloaded from {@code hls.ad-base-url} at startup, refreshed in the background and
+ * served from shared read-only direct buffers. These configured creatives are pinned.
+ * Creatives that are not preloaded, like those of decided ad pods, are loaded on first
+ * request and kept until the memory cap needs their room, least recently used first.
+ */
+@Component
+public class AdCreativeCache {
+    private static final Logger logger = LoggerFactory.getLogger(AdCreativeCache.class);
+
+    private final WebClient webClient;
+    private final String adBaseUrl;
+    private final List<String> qualities;
+    private final List<String> audioQualities;
+    private final List<String> segments;
+    private final long maxBytes;
+    private final boolean cmaf;
+    private final Set<String> configured;
+    private final Map<String, CachedCreative> creatives = new ConcurrentHashMap<>();
+    private final SingleFlight<String, CachedCreative> loads = new SingleFlight<>();
+    private final AtomicLong bytesHeld = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong reloads = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public AdCreativeCache(final WebClient webClient, String adBaseUrl, List<String> qualities,
+                           List<String> audioQualities, List<String> segments, long maxBytes) {
+        this(webClient, adBaseUrl, qualities, audioQualities, segments, maxBytes, false);
+    }
+
+    @Autowired
+    public AdCreativeCache(@Qualifier("adMedia") final WebClient webClient,
+                           @Value("${hls.ad-base-url}") String adBaseUrl,
+                           @Value("${hls.ad-creatives.qualities:720p,480p,360p}") List<String> qualities,
+                           @Value("${hls.ad-creatives.audio-qualities:high,medium,low}") List<String> audioQualities,
+                           @Value("${hls.ad-creatives.segments:ad-0,ad-1,ad-2}") List<String> segments,
+                           @Value("${hls.ad-creatives.max-bytes:67108864}") long maxBytes,
+                           @Value("${hls.ad-creatives.cmaf:false}") boolean cmaf) {
+        this.webClient = webClient;
+        this.adBaseUrl = adBaseUrl;
+        this.qualities = qualities;
+        this.audioQualities = audioQualities;
+        this.segments = segments;
+        this.maxBytes = maxBytes;
+        this.cmaf = cmaf;
+        this.configured = Set.copyOf(configuredCreatives().stream()
+                .map(creative -> key(creative.quality(), creative.fileName()))
+                .toList());
+    }
+
+    /**
+     * Returns the creative for the ad quality, loading and keeping it if it is not in memory yet.
+     */
+    public Mono<SegmentPayload> get(String quality, String fileName) {
+        String key = key(quality, fileName);
+        return Mono.defer(() -> {
+            CachedCreative cached = creatives.get(key);
+            if (cached != null) {
+                hits.incrementAndGet();
+                return Mono.just(cached.payload());
+            }
+            return loads.execute(key, () -> load(quality, fileName)).map(CachedCreative::payload);
+        });
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void preload() {
+        reload().subscribe();
+    }
+
+    /**
+     * Refetches all configured creatives, the pinned copies keep being served until replaced.
+     */
+    @Scheduled(fixedDelayString = "${hls.ad-creatives.refresh-millis:300000}",
+            initialDelayString = "${hls.ad-creatives.refresh-millis:300000}")
+    public void refresh() {
+        reload().subscribe();
+    }
+
+    public Mono<Void> reload() {
+        reloads.incrementAndGet();
+        return Flux.fromIterable(configuredCreatives())
+                .flatMap(creative -> loads.execute(key(creative.quality(), creative.fileName()), () -> load(creative.quality(), creative.fileName()))
+                        .onErrorResume(e -> {
+                            logger.warn("Failed to preload ad creative {}/{}", creative.quality(), creative.fileName(), e);
+                            return Mono.empty();
+                        }), 4)
+                .then()
+                .doOnSuccess(done -> logger.info("Ad creatives loaded, {} held, {} bytes", creatives.size(), bytesHeld.get()));
+    }
+
+    private List<Creative> configuredCreatives() {
+        List<Creative> wanted = new ArrayList<>();
+        segments.forEach(segment -> {
+            qualities.forEach(quality -> wanted.add(new Creative(quality, segment + ".ts")));
+            audioQualities.forEach(quality -> wanted.add(new Creative(quality, segment + ".aac")));
+            if (cmaf) {
+                qualities.forEach(quality -> wanted.add(new Creative(quality, segment + ".m4s")));
+                audioQualities.forEach(quality -> wanted.add(new Creative(quality, segment + ".m4s")));
+            }
+        });
+        if (cmaf) {
+            // the creatives of CMAF ad breaks share one init segment per ad quality
+            qualities.forEach(quality -> wanted.add(new Creative(quality, "init.mp4")));
+            audioQualities.forEach(quality -> wanted.add(new Creative(quality, "init.mp4")));
+        }
+        return wanted;
+    }
+
+    private Mono<CachedCreative> load(String quality, String fileName) {
+        String base = quality == null || quality.isEmpty() ? adBaseUrl : adBaseUrl + "/" + quality;
+        String url = base + "/" + fileName;
+        String key = key(quality, fileName);
+        logger.debug("Loading ad creative {}", url);
+        return webClient.get().uri(url).retrieve().bodyToFlux(DataBuffer.class)
+                .as(DirectBuffers::copyOf)
+                .map(data -> new CachedCreative(key, data, configured.contains(key)))
+                .doOnNext(this::put);
+    }
+
+    private void put(CachedCreative creative) {
+        // the room is reserved before the entry is visible, concurrent loads cannot overshoot the cap
+        if (!reserve(creative)) {
+            logger.warn("Ad creative {} not kept, {} bytes would exceed the cap of {}", creative.key, creative.size(), maxBytes);
+            return;
+        }
+        CachedCreative previous = creatives.put(creative.key, creative);
+        if (previous != null) {
+            bytesHeld.addAndGet(-previous.size());
+        }
+    }
+
+    private boolean reserve(CachedCreative creative) {
+        while (true) {
+            long held = bytesHeld.get();
+            if (held + creative.size() <= maxBytes) {
+                if (bytesHeld.compareAndSet(held, held + creative.size())) {
+                    return true;
+                }
+            } else if (!evictLeastRecentlyUsed(creative.key)) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Evicts the unpinned creative that was served least recently, the one being replaced is kept.
+     *
+     * @return whether there was a creative to evict
+     */
+    private boolean evictLeastRecentlyUsed(String replacing) {
+        CachedCreative victim = null;
+        for (CachedCreative candidate : creatives.values()) {
+            if (!candidate.pinned && !candidate.key.equals(replacing)
+                    && (victim == null || candidate.lastAccess < victim.lastAccess)) {
+                victim = candidate;
+            }
+        }
+        if (victim == null) {
+            return false;
+        }
+        if (creatives.remove(victim.key, victim)) {
+            bytesHeld.addAndGet(-victim.size());
+            evictions.incrementAndGet();
+            logger.debug("Evicted ad creative {}", victim.key);
+        }
+        return true;
+    }
+
+    private static String key(String quality, String fileName) {
+        return (quality == null ? "" : quality) + "/" + fileName;
+    }
+
+    private record Creative(String quality, String fileName) {
+    }
+
+    /**
+     * Creative content with its entity tag, which changes when a reload brings new content.
+     * Pinned creatives are the configured ones, they are never evicted.
+     */
+    private static final class CachedCreative {
+        private final String key;
+        private final ByteBuffer data;
+        private final String etag;
+        private final boolean pinned;
+        private volatile long lastAccess;
+
+        CachedCreative(String key, ByteBuffer data, boolean pinned) {
+            this.key = key;
+            this.data = data;
+            this.etag = ETags.of(data);
+            this.pinned = pinned;
+            this.lastAccess = System.nanoTime();
+        }
+
+        int size() {
+            return data.capacity();
+        }
+
+        SegmentPayload payload() {
+            lastAccess = System.nanoTime();
+            return new SegmentPayload.Buffers(DirectBuffers.asBody(data), data.capacity(), etag);
+        }
+    }
+
+    public CacheStats stats() {
+        return new CacheStats(hits.get(), loads.getStarted(), loads.getJoined(), reloads.get(),
+                evictions.get(), creatives.size(), bytesHeld.get());
+    }
+}
@@ -0,0 +1,278 @@
+package com.example.hls.service.cache;
+
+import com.example.hls.model.CacheStats;
+import com.example.hls.model.CachedPlaylist;
+import com.example.hls.service.metrics.PipelineMetrics;
+import com.example.hls.service.resilience.Upstream;
+import com.example.hls.service.resilience.Upstreams;
+import com.example.hls.util.SingleFlight;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Shared cache of origin playlists keyed by their origin URL.
+ * <p>
+ * All viewers of a rendition poll the same playlist, so entries are kept for a
+ * fraction of the segment duration and concurrent misses share one origin request.
+ * Refreshes are conditional, an unchanged playlist only costs a 304 from origin. If
+ * origin fails, the previous playlist is served until it answers again.
+ * <p>
+ * Blocking playlist reloads park the request until the playlist has the wanted
+ * content. While requests are parked on a playlist it is polled from origin once per
+ * reload interval, each refresh releases the requests it satisfies.
+ */
+@Component
+public class PlaylistCache {
+    private static final Logger logger = LoggerFactory.getLogger(PlaylistCache.class);
+    private static final long IDLE_EXPIRATION_MILLIS = 60_000;
+
+    private final WebClient webClient;
+    private final Upstream origin;
+    private final long ttlMillis;
+    private final Duration reloadInterval;
+    private final Map<String, CachedPlaylist> entries = new ConcurrentHashMap<>();
+    private final SingleFlight<String, CachedPlaylist> loads = new SingleFlight<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong revalidated = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final Map<String, Set<Waiter>> waiters = new ConcurrentHashMap<>();
+    private final Set<String> watched = ConcurrentHashMap.newKeySet();
+    private final List<RefreshListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Called with every playlist whose content changed at origin, not for revalidations.
+     */
+    @FunctionalInterface
+    public interface RefreshListener {
+        void playlistRefreshed(String url, CachedPlaylist playlist);
+    }
+
+    private record Waiter(Predicate<CachedPlaylist> ready, Sinks.One<CachedPlaylist> sink) {
+    }
+
+    public PlaylistCache(final WebClient webClient, long ttlMillis, int segmentDurationSeconds) {
+        this(webClient, Upstreams.defaults(), ttlMillis, segmentDurationSeconds, 200);
+    }
+
+    @Autowired
+    public PlaylistCache(final WebClient webClient,
+                         final Upstreams upstreams,
+                         @Value("${hls.playlist-cache.ttl-millis:0}") long ttlMillis,
+                         @Value("${hls.segment-duration-seconds:5}") int segmentDurationSeconds,
+                         @Value("${hls.low-latency.reload-millis:200}") long reloadMillis) {
+        this.webClient = webClient;
+        this.origin = upstreams.origin();
+        // half a segment keeps a cached playlist at most one segment behind origin
+        this.ttlMillis = ttlMillis > 0 ? ttlMillis : segmentDurationSeconds * 500L;
+        this.reloadInterval = Duration.ofMillis(reloadMillis);
+    }
+
+    public void addListener(RefreshListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Returns the playlist at the given origin URL, from cache while it is fresh.
+     */
+    public Mono<String> get(String url) {
+        return getEntry(url).map(CachedPlaylist::body);
+    }
+
+    /**
+     * Returns the cached entry for the origin URL, refreshing it once it expired.
+     */
+    public Mono<CachedPlaylist> getEntry(String url) {
+        return getEntry(url, null);
+    }
+
+    /**
+     * Like {@link #getEntry(String)}, recording the origin requests made for it in the timer.
+     */
+    public Mono<CachedPlaylist> getEntry(String url, Timer fetchTimer) {
+        return Mono.defer(() -> {
+            CachedPlaylist cached = entries.get(url);
+            if (cached != null && !cached.isExpired(System.currentTimeMillis(), ttlMillis)) {
+                hits.incrementAndGet();
+                return Mono.just(cached);
+            }
+            return loads.execute(url, () -> fetchTimer == null
+                    ? fetch(url, cached)
+                    : PipelineMetrics.timed(fetch(url, cached), fetchTimer));
+        });
+    }
+
+    /**
+     * Returns the entry for the origin URL once it satisfies the condition, used for blocking
+     * playlist reloads. The request is parked without holding a thread, after the timeout the
+     * latest entry is returned whether it satisfies the condition or not.
+     */
+    public Mono<CachedPlaylist> awaitEntry(String url, Predicate<CachedPlaylist> ready, Duration timeout, Timer fetchTimer) {
+        return getEntry(url, fetchTimer).flatMap(current -> {
+            if (ready.test(current)) {
+                return Mono.just(current);
+            }
+            Waiter waiter = new Waiter(ready, Sinks.one());
+            waiters.computeIfAbsent(url, key -> ConcurrentHashMap.newKeySet()).add(waiter);
+            // the entry may have been refreshed before the waiter was registered
+            CachedPlaylist latest = entries.get(url);
+            if (latest != null && ready.test(latest)) {
+                waiter.sink().tryEmitValue(latest);
+            }
+            watch(url, fetchTimer);
+            return waiter.sink().asMono()
+                    .timeout(timeout, Mono.fromSupplier(() -> entries.getOrDefault(url, current)))
+                    .doFinally(signal -> waiters.computeIfPresent(url, (key, parked) -> {
+                        parked.remove(waiter);
+                        return parked.isEmpty() ? null : parked;
+                    }));
+        });
+    }
+
+    /**
+     * Marks the playlist as changed at origin, e.g. when the transcoder rewrote it. The next
+     * request revalidates it instead of waiting for the entry to expire, and parked requests
+     * are served from a refresh right away.
+     */
+    public void changed(String url) {
+        CachedPlaylist expired = entries.computeIfPresent(url, (key, entry) -> entry.refreshed(entry.fetchedAt() - ttlMillis));
+        if (expired != null && waiters.containsKey(url)) {
+            loads.execute(url, () -> fetch(url, expired)).subscribe(playlist -> {
+            }, error -> logger.debug("Refresh of changed playlist {} failed: {}", url, error.getMessage()));
+        }
+    }
+
+    /**
+     * Number of requests currently parked for a playlist update.
+     */
+    public int parkedRequests() {
+        return waiters.values().stream().mapToInt(Set::size).sum();
+    }
+
+    /**
+     * Polls the playlist from origin while requests are parked on it, at most one poll loop per URL.
+     */
+    private void watch(String url, Timer fetchTimer) {
+        if (!watched.add(url)) {
+            return;
+        }
+        Flux.interval(reloadInterval)
+                .takeWhile(tick -> waiters.containsKey(url))
+                .concatMap(tick -> loads.execute(url, () -> fetchTimer == null
+                                ? fetch(url, entries.get(url))
+                                : PipelineMetrics.timed(fetch(url, entries.get(url)), fetchTimer))
+                        .onErrorResume(error -> Mono.empty()))
+                .doFinally(signal -> {
+                    watched.remove(url);
+                    // a request may have been parked after the loop saw none
+                    if (waiters.containsKey(url)) {
+                        watch(url, fetchTimer);
+                    }
+                })
+                .subscribe();
+    }
+
+    private void release(String url, CachedPlaylist playlist) {
+        Set<Waiter> parked = waiters.get(url);
+        if (parked != null) {
+            parked.stream()
+                    .filter(waiter -> waiter.ready().test(playlist))
+                    .forEach(waiter -> waiter.sink().tryEmitValue(playlist));
+        }
+    }
+
+    private void notifyListeners(String url, CachedPlaylist playlist) {
+        for (RefreshListener listener : listeners) {
+            try {
+                listener.playlistRefreshed(url, playlist);
+            } catch (RuntimeException e) {
+                logger.warn("Playlist listener failed for {}", url, e);
+            }
+        }
+    }
+
+    private Mono<CachedPlaylist> fetch(String url, CachedPlaylist previous) {
+        logger.debug("Fetching playlist {}", url);
+        return origin.hedgedGet(() -> webClient.get()
+                        .uri(url)
+                        .headers(headers -> {
+                            if (previous != null && previous.etag() != null) {
+                                headers.setIfNoneMatch(previous.etag());
+                            }
+                            if (previous != null && previous.lastModified() != null) {
+                                headers.set(HttpHeaders.IF_MODIFIED_SINCE, previous.lastModified());
+                            }
+                        })
+                        .exchangeToMono(response -> handleResponse(response, previous)))
+                .doOnNext(playlist -> {
+                    entries.put(url, playlist);
+                    release(url, playlist);
+                    // a 304 keeps the parsed playlist of the previous entry
+                    if (previous == null || playlist.playlist() != previous.playlist()) {
+                        notifyListeners(url, playlist);
+                    }
+                })
+                .onErrorResume(error -> {
+                    if (previous == null) {
+                        return Mono.error(error);
+                    }
+                    logger.warn("Serving stale playlist {}: {}", url, error.getMessage());
+                    return Mono.just(previous);
+                });
+    }
+
+    private Mono<CachedPlaylist> handleResponse(ClientResponse response, CachedPlaylist previous) {
+        long now = System.currentTimeMillis();
+        if (previous != null && response.statusCode().value() == HttpStatus.NOT_MODIFIED.value()) {
+            revalidated.incrementAndGet();
+            return response.releaseBody().thenReturn(previous.refreshed(now));
+        }
+        if (response.statusCode().is2xxSuccessful()) {
+            HttpHeaders headers = response.headers().asHttpHeaders();
+            return response.bodyToMono(String.class)
+                    .defaultIfEmpty("")
+                    .map(body -> new CachedPlaylist(body, headers.getETag(), headers.getFirst(HttpHeaders.LAST_MODIFIED), now));
+        }
+        return response.createException().flatMap(Mono::error);
+    }
+
+    /**
+     * Drops playlists nobody asked for recently, e.g. of streams that ended.
+     */
+    @Scheduled(fixedDelay = 60_000)
+    public void cleanUp() {
+        long now = System.currentTimeMillis();
+        entries.entrySet().removeIf(e -> {
+            boolean idle = now - e.getValue().fetchedAt() > IDLE_EXPIRATION_MILLIS;
+            if (idle) {
+                evictions.incrementAndGet();
+            }
+            return idle;
+        });
+    }
+
+    public CacheStats stats() {
+        return new CacheStats(hits.get(), loads.getStarted(), loads.getJoined(), revalidated.get(),
+                evictions.get(), entries.size(), 0);
+    }
+}
@@ -0,0 +1,292 @@
+package com.example.hls.service.cache;
+
+import com.example.hls.model.CacheStats;
+import com.example.hls.model.SegmentPayload;
+import com.example.hls.util.DirectBuffers;
+import com.example.hls.util.ETags;
+import com.example.hls.util.SegmentNames;
+import com.example.hls.util.SingleFlight;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Byte budgeted cache of live segments fetched from the HTTP origin.
+ * <p>
+ * Segments never change once written and all viewers of a rendition request the same
+ * few files within seconds, so each one is fetched once and kept in a direct buffer
+ * outside of the Java heap. Entries are evicted when they fall out of the live window
+ * of their rendition, and by least recent access when the byte budget is exceeded.
+ * Concurrent misses for a segment share a single origin fetch.
+ * <p>
+ * A miss does not wait for the whole download: once the origin answered with a length, its
+ * body is copied into the cache buffer as it arrives and every viewer of the segment is sent
+ * the bytes received so far, like a relay. Only bodies without a length are joined before
+ * the first byte is sent.
+ */
+@Component
+public class SegmentCache {
+    private static final Logger logger = LoggerFactory.getLogger(SegmentCache.class);
+
+    private final boolean enabled;
+    private final long maxBytes;
+    private final int liveWindow;
+    private final Map<String, CachedSegment> entries = new ConcurrentHashMap<>();
+    private final Map<String, NavigableMap<Long, String>> renditions = new ConcurrentHashMap<>();
+    private final Map<String, Fill> filling = new ConcurrentHashMap<>();
+    private final SingleFlight<String, Source> fills = new SingleFlight<>();
+    private final AtomicLong bytesHeld = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong joined = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    @Autowired
+    public SegmentCache(@Value("${hls.segment-cache.enabled:true}") boolean enabled,
+                        @Value("${hls.segment-cache.max-bytes:268435456}") long maxBytes,
+                        @Value("${hls.segment-cache.live-window:8}") int liveWindow) {
+        this.enabled = enabled;
+        this.maxBytes = maxBytes;
+        this.liveWindow = liveWindow;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns whether the segment is held in cache or being filled.
+     */
+    public boolean contains(String stream, String quality, String fileName) {
+        String key = stream + "/" + quality + "/" + fileName;
+        return entries.containsKey(key) || filling.containsKey(key);
+    }
+
+    /**
+     * Entity tag of the cached segment, {@code null} if it is not held.
+     */
+    public String etag(String stream, String quality, String fileName) {
+        CachedSegment cached = entries.get(stream + "/" + quality + "/" + fileName);
+        return cached != null ? cached.etag : null;
+    }
+
+    /**
+     * Returns the segment from cache, or loads it once through the given origin fetch.
+     */
+    public Mono<SegmentPayload> get(String stream, String quality, String fileName,
+                                    Supplier<Mono<SegmentPayload.Buffers>> loader) {
+        if (!enabled) {
+            return Mono.defer(loader);
+        }
+        String rendition = stream + "/" + quality;
+        String key = rendition + "/" + fileName;
+        return Mono.defer(() -> {
+            CachedSegment cached = entries.get(key);
+            if (cached != null) {
+                hits.incrementAndGet();
+                return Mono.just(cached.payload());
+            }
+            Fill running = filling.get(key);
+            if (running != null) {
+                joined.incrementAndGet();
+                return Mono.just(running.payload());
+            }
+            return fills.execute(key, () -> loader.get().flatMap(payload -> load(rendition, key, fileName, payload)))
+                    .map(Source::payload);
+        });
+    }
+
+    private Mono<Source> load(String rendition, String key, String fileName, SegmentPayload.Buffers payload) {
+        long length = payload.contentLength();
+        if (length < 0 || length > Integer.MAX_VALUE) {
+            // without a length the buffer cannot be allocated up front
+            return store(rendition, key, fileName, payload).map(Source.class::cast);
+        }
+        Fill fill = new Fill(key, rendition, SegmentNames.sequenceOf(fileName), (int) length);
+        filling.put(key, fill);
+        // the fill runs detached from the viewers, one of them leaving does not cut it short
+        payload.body().subscribe(fill::write, fill::fail, fill::complete);
+        return Mono.just(fill);
+    }
+
+    private Mono<CachedSegment> store(String rendition, String key, String fileName, SegmentPayload.Buffers payload) {
+        return DirectBuffers.copyOf(payload.body())
+                .map(data -> {
+                    CachedSegment segment = new CachedSegment(key, rendition, SegmentNames.sequenceOf(fileName), data);
+                    if (data.capacity() <= maxBytes / 4) {
+                        put(segment);
+                    }
+                    return segment;
+                });
+    }
+
+    private void put(CachedSegment segment) {
+        if (entries.put(segment.key, segment) == null) {
+            bytesHeld.addAndGet(segment.size());
+        }
+        if (segment.sequence >= 0) {
+            NavigableMap<Long, String> window = renditions.computeIfAbsent(segment.rendition, r -> new ConcurrentSkipListMap<>());
+            window.put(segment.sequence, segment.key);
+            long oldest = window.lastKey() - liveWindow;
+            NavigableMap<Long, String> expired = window.headMap(oldest, false);
+            expired.values().forEach(this::evict);
+            expired.clear();
+        }
+        while (bytesHeld.get() > maxBytes && evictLeastRecentlyUsed()) {
+            // keep evicting until back under budget
+        }
+    }
+
+    private boolean evictLeastRecentlyUsed() {
+        CachedSegment victim = null;
+        for (CachedSegment candidate : entries.values()) {
+            if (victim == null || candidate.lastAccess < victim.lastAccess) {
+                victim = candidate;
+            }
+        }
+        if (victim == null) {
+            return false;
+        }
+        NavigableMap<Long, String> window = renditions.get(victim.rendition);
+        if (window != null) {
+            window.remove(victim.sequence, victim.key);
+            if (window.isEmpty()) {
+                renditions.remove(victim.rendition, window);
+            }
+        }
+        evict(victim.key);
+        return true;
+    }
+
+    private void evict(String key) {
+        CachedSegment removed = entries.remove(key);
+        if (removed != null) {
+            bytesHeld.addAndGet(-removed.size());
+            evictions.incrementAndGet();
+            logger.debug("Evicted segment {}", key);
+        }
+    }
+
+    public CacheStats stats() {
+        return new CacheStats(hits.get(), fills.getStarted(), fills.getJoined() + joined.get(), 0,
+                evictions.get(), entries.size(), bytesHeld.get());
+    }
+
+    /**
+     * Something a segment can be served from, the cached copy or a fill in progress.
+     */
+    private interface Source {
+        SegmentPayload payload();
+    }
+
+    /**
+     * A segment being copied from the origin body into its cache buffer. Viewers follow the
+     * number of bytes written and are sent each newly written range as a view on the buffer.
+     */
+    private final class Fill implements Source {
+        private final String key;
+        private final String rendition;
+        private final long sequence;
+        private final ByteBuffer data;
+        // bytes written so far, replayed to late viewers
+        private final Sinks.Many<Integer> progress = Sinks.many().replay().latest();
+        private int written;
+
+        Fill(String key, String rendition, long sequence, int length) {
+            this.key = key;
+            this.rendition = rendition;
+            this.sequence = sequence;
+            this.data = ByteBuffer.allocateDirect(length);
+        }
+
+        void write(DataBuffer buffer) {
+            try {
+                int length = buffer.readableByteCount();
+                if (written + length > data.capacity()) {
+                    throw new IllegalStateException("Segment " + key + " is longer than its Content-Length");
+                }
+                buffer.toByteBuffer(buffer.readPosition(), data, written, length);
+                written += length;
+                progress.tryEmitNext(written);
+            } finally {
+                DataBufferUtils.release(buffer);
+            }
+        }
+
+        void complete() {
+            if (written != data.capacity()) {
+                fail(new IllegalStateException("Segment " + key + " ended after " + written + " of " + data.capacity() + " bytes"));
+                return;
+            }
+            if (data.capacity() <= maxBytes / 4) {
+                put(new CachedSegment(key, rendition, sequence, data.asReadOnlyBuffer()));
+            }
+            filling.remove(key, this);
+            progress.tryEmitComplete();
+        }
+
+        void fail(Throwable error) {
+            filling.remove(key, this);
+            logger.debug("Filling segment {} failed: {}", key, error.getMessage());
+            progress.tryEmitError(error);
+        }
+
+        @Override
+        public SegmentPayload payload() {
+            Flux<DataBuffer> body = Flux.defer(() -> {
+                int[] sent = new int[1];
+                return progress.asFlux()
+                        .filter(total -> total > sent[0])
+                        .map(total -> {
+                            ByteBuffer range = data.slice(sent[0], total - sent[0]).asReadOnlyBuffer();
+                            sent[0] = total;
+                            return (DataBuffer) DefaultDataBufferFactory.sharedInstance.wrap(range);
+                        });
+            });
+            return new SegmentPayload.Buffers(body, data.capacity());
+        }
+    }
+
+    private static final class CachedSegment implements Source {
+        private final String key;
+        private final String rendition;
+        private final long sequence;
+        private final ByteBuffer data;
+        private final String etag;
+        private volatile long lastAccess;
+
+        CachedSegment(String key, String rendition, long sequence, ByteBuffer data) {
+            this.key = key;
+            this.rendition = rendition;
+            this.sequence = sequence;
+            this.data = data;
+            this.etag = ETags.of(data);
+            this.lastAccess = System.nanoTime();
+        }
+
+        int size() {
+            return data.capacity();
+        }
+
+        @Override
+        public SegmentPayload payload() {
+            lastAccess = System.nanoTime();
+            return new SegmentPayload.Buffers(DirectBuffers.asBody(data), data.capacity(), etag);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.example.hls.service.cache;
+
+import com.example.hls.model.CachedPlaylist;
+import com.example.hls.model.MediaPlaylist;
+import com.example.hls.model.SegmentPayload;
+import com.example.hls.service.resilience.Upstream;
+import com.example.hls.service.resilience.Upstreams;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads segments into the {@link SegmentCache} as soon as a playlist refresh lists them.
+ * <p>
+ * Players request the newest segment of a playlist right after polling it, so without
+ * prefetching the first viewer of every segment waits for the origin fetch. Playlist
+ * refreshes are shared by all viewers of a rendition, which makes every new segment
+ * prefetched once per rendition. Renditions nobody polled recently are not prefetched,
+ * and prefetches beyond the concurrency limit or the byte budget are skipped, the
+ * segments are then fetched on demand as before.
+ */
+@Component
+public class SegmentPrefetcher {
+    private static final Logger logger = LoggerFactory.getLogger(SegmentPrefetcher.class);
+    private static final long IDLE_EXPIRATION_MILLIS = 60_000;
+
+    private final PlaylistCache playlistCache;
+    private final SegmentCache segmentCache;
+    private final WebClient webClient;
+    private final Upstream origin;
+    private final boolean enabled;
+    private final int maxConcurrent;
+    private final long maxBytes;
+    private final long budgetMillis;
+    private final long viewerIdleMillis;
+    private final Map<String, Rendition> renditions = new ConcurrentHashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong budgetStart = new AtomicLong();
+    private final AtomicLong budgetUsed = new AtomicLong();
+    private final AtomicLong prefetched = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * Rendition of a media playlist requested by players.
+     */
+    private static final class Rendition {
+        private final String stream;
+        private final String quality;
+        private volatile long lastViewed;
+        private long newestSequence = Long.MIN_VALUE;
+
+        Rendition(String stream, String quality) {
+            this.stream = stream;
+            this.quality = quality;
+        }
+    }
+
+    @Autowired
+    public SegmentPrefetcher(final PlaylistCache playlistCache,
+                             final SegmentCache segmentCache,
+                             final WebClient webClient,
+                             final Upstreams upstreams,
+                             @Value("${hls.prefetch.enabled:false}") boolean enabled,
+                             @Value("${hls.prefetch.max-concurrent:8}") int maxConcurrent,
+                             @Value("${hls.prefetch.max-bytes:33554432}") long maxBytes,
+                             @Value("${hls.prefetch.viewer-idle-millis:0}") long viewerIdleMillis,
+                             @Value("${hls.segment-duration-seconds:5}") int segmentDurationSeconds) {
+        this.playlistCache = playlistCache;
+        this.segmentCache = segmentCache;
+        this.webClient = webClient;
+        this.origin = upstreams.origin();
+        this.enabled = enabled && segmentCache.isEnabled();
+        this.maxConcurrent = maxConcurrent;
+        this.maxBytes = maxBytes;
+        // the byte budget is spent per segment duration
+        this.budgetMillis = segmentDurationSeconds * 1000L;
+        // players poll about once per segment, two missed polls mean the viewers left
+        this.viewerIdleMillis = viewerIdleMillis > 0 ? viewerIdleMillis : segmentDurationSeconds * 2000L;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (enabled) {
+            playlistCache.addListener(this::playlistRefreshed);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Records a player request for the media playlist at the origin URL.
+     */
+    public void viewed(String playlistUrl, String stream, String quality) {
+        if (!enabled) {
+            return;
+        }
+        Rendition rendition = renditions.computeIfAbsent(playlistUrl, url -> new Rendition(stream, quality == null ? "" : quality));
+        rendition.lastViewed = System.currentTimeMillis();
+    }
+
+    /**
+     * Prefetches the segments the refreshed playlist lists for the first time. On the first
+     * refresh of a rendition only the newest segment is prefetched, players start at the live edge.
+     */
+    void playlistRefreshed(String playlistUrl, CachedPlaylist cached) {
+        Rendition rendition = renditions.get(playlistUrl);
+        if (rendition == null) {
+            return;
+        }
+        MediaPlaylist playlist = cached.playlist();
+        List<MediaPlaylist.Segment> segments = playlist.segments();
+        if (segments.isEmpty()) {
+            return;
+        }
+        long newest = playlist.mediaSequence() + segments.size() - 1;
+        long from;
+        synchronized (rendition) {
+            // a restarted transcoder starts over at a lower media sequence
+            from = rendition.newestSequence == Long.MIN_VALUE || rendition.newestSequence > newest
+                    ? newest
+                    : Math.max(rendition.newestSequence + 1, playlist.mediaSequence());
+            rendition.newestSequence = newest;
+        }
+        if (System.currentTimeMillis() - rendition.lastViewed > viewerIdleMillis) {
+            skipped.addAndGet(Math.max(0, newest - from + 1));
+            return;
+        }
+        String base = playlistUrl.substring(0, playlistUrl.lastIndexOf('/') + 1);
+        for (long sequence = from; sequence <= newest; sequence++) {
+            prefetch(rendition, base, segments.get((int) (sequence - playlist.mediaSequence())).uri());
+        }
+    }
+
+    private void prefetch(Rendition rendition, String base, String uri) {
+        // only plain segment names map to the segment cache keys used for player requests
+        if (uri.contains("/") || uri.contains("?")
+                || segmentCache.contains(rendition.stream, rendition.quality, uri)) {
+            return;
+        }
+        if (!acquire()) {
+            skipped.incrementAndGet();
+            logger.debug("Skipping prefetch of {}/{}/{}", rendition.stream, rendition.quality, uri);
+            return;
+        }
+        String url = base + uri;
+        segmentCache.get(rendition.stream, rendition.quality, uri,
+                        () -> origin.call(() -> webClient.get().uri(url).retrieve().bodyToMono(byte[].class))
+                                .doOnNext(data -> budgetUsed.addAndGet(data.length))
+                                .map(SegmentPayload::of))
+                .doFinally(signal -> inFlight.decrementAndGet())
+                .subscribe(payload -> prefetched.incrementAndGet(), error -> {
+                    failed.incrementAndGet();
+                    logger.debug("Prefetch of {} failed: {}", url, error.getMessage());
+                });
+    }
+
+    /**
+     * Takes a prefetch slot if one is free and the byte budget of the current period is not spent.
+     */
+    private boolean acquire() {
+        long now = System.currentTimeMillis();
+        long start = budgetStart.get();
+        if (now - start >= budgetMillis && budgetStart.compareAndSet(start, now)) {
+            budgetUsed.set(0);
+        }
+        if (budgetUsed.get() >= maxBytes) {
+            return false;
+        }
+        if (inFlight.incrementAndGet() > maxConcurrent) {
+            inFlight.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Drops renditions nobody polled recently.
+     */
+    @Scheduled(fixedDelay = 60_000)
+    public void cleanUp() {
+        long now = System.currentTimeMillis();
+        renditions.values().removeIf(rendition -> now - rendition.lastViewed > IDLE_EXPIRATION_MILLIS);
+    }
+
+    public long prefetched() {
+        return prefetched.get();
+    }
+
+    public long skipped() {
+        return skipped.get();
+    }
+
+    public long failed() {
+        return failed.get();
+    }
+}
@@ -0,0 +1,216 @@
+package com.example.hls.service.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Timers of the request pipeline stages and counters of the bytes served.
+ * <p>
+ * Stream and quality come from request paths, so their tag values are bounded no matter
+ * what clients request. A stream or quality gets a tag value of its own only once it was
+ * admitted through {@link #admitStream(String)} or {@link #admitQuality(String)}, which the
+ * playlist fetch does when the origin served it, up to {@code max-streams} and
+ * {@code max-qualities} of them. Everything else is reported as {@value #OTHER}. A value
+ * not admitted again for {@code idle-millis} gives up its slot to the next new one, and
+ * its meters are removed.
+ */
+@Component
+public class PipelineMetrics {
+    public static final String OTHER = "other";
+    public static final String NONE = "none";
+
+    public enum Stage {
+        ORIGIN_PLAYLIST("hls.origin.playlist.fetch"),
+        SEGMENT_FETCH("hls.segment.fetch"),
+        SESSION_CONTEXT("hls.session.context.enrichment"),
+        PLAYLIST_REWRITE("hls.playlist.rewrite"),
+        AD_SEGMENT_FETCH("hls.ad.segment.fetch"),
+        TOKEN_VALIDATION("hls.token.validation");
+
+        private final String meterName;
+
+        Stage(String meterName) {
+            this.meterName = meterName;
+        }
+
+        public String meterName() {
+            return meterName;
+        }
+    }
+
+    private record TimerKey(Stage stage, String stream, String quality) {
+    }
+
+    private final MeterRegistry registry;
+    private final boolean histograms;
+    private final BoundedTagValues streams;
+    private final BoundedTagValues qualities;
+    private final Map<TimerKey, Timer> timers = new ConcurrentHashMap<>();
+    private final Map<String, Counter> bytesServed = new ConcurrentHashMap<>();
+
+    public PipelineMetrics(MeterRegistry registry) {
+        this(registry, true, 20, 16);
+    }
+
+    public PipelineMetrics(MeterRegistry registry, boolean histograms, int maxStreams, int maxQualities) {
+        this(registry, histograms, maxStreams, maxQualities, 600_000);
+    }
+
+    @Autowired
+    public PipelineMetrics(MeterRegistry registry,
+                           @Value("${hls.metrics.histograms:true}") boolean histograms,
+                           @Value("${hls.metrics.max-streams:20}") int maxStreams,
+                           @Value("${hls.metrics.max-qualities:16}") int maxQualities,
+                           @Value("${hls.metrics.idle-millis:600000}") long idleMillis) {
+        this.registry = registry;
+        this.histograms = histograms;
+        this.streams = new BoundedTagValues(maxStreams, idleMillis);
+        this.qualities = new BoundedTagValues(maxQualities, idleMillis);
+    }
+
+    /**
+     * Metrics recorded into a private registry, for use outside of the application context.
+     */
+    public static PipelineMetrics simple() {
+        return new PipelineMetrics(new SimpleMeterRegistry());
+    }
+
+    /**
+     * Gives a stream known to exist its own tag value, as long as there is room for it.
+     */
+    public void admitStream(String stream) {
+        if (stream != null && !stream.isEmpty()) {
+            streams.admit(stream).forEach(expired -> forgetTimers(key -> key.stream().equals(expired)));
+        }
+    }
+
+    /**
+     * Gives a quality known to exist its own tag value, as long as there is room for it.
+     */
+    public void admitQuality(String quality) {
+        if (quality != null && !quality.isEmpty()) {
+            qualities.admit(quality).forEach(expired -> {
+                forgetTimers(key -> key.quality().equals(expired));
+                Counter counter = bytesServed.remove(expired);
+                if (counter != null) {
+                    registry.remove(counter);
+                }
+            });
+        }
+    }
+
+    private void forgetTimers(Predicate<TimerKey> expired) {
+        timers.entrySet().removeIf(entry -> {
+            if (!expired.test(entry.getKey())) {
+                return false;
+            }
+            registry.remove(entry.getValue());
+            return true;
+        });
+    }
+
+    public Timer timer(Stage stage, String stream, String quality) {
+        TimerKey key = new TimerKey(stage, streams.tagValue(stream), qualities.tagValue(quality));
+        Timer timer = timers.get(key);
+        return timer != null ? timer : timers.computeIfAbsent(key, this::register);
+    }
+
+    private Timer register(TimerKey key) {
+        Timer.Builder builder = Timer.builder(key.stage().meterName())
+                .tag("stream", key.stream())
+                .tag("quality", key.quality());
+        if (histograms) {
+            // a narrow range keeps the bucket count per series low
+            builder.publishPercentileHistogram()
+                    .minimumExpectedValue(Duration.ofMillis(1))
+                    .maximumExpectedValue(Duration.ofSeconds(10));
+        }
+        return builder.register(registry);
+    }
+
+    /**
+     * Records the time from subscription until the mono completes or fails.
+     */
+    public <T> Mono<T> time(Stage stage, String stream, String quality, Mono<T> mono) {
+        return timed(mono, timer(stage, stream, quality));
+    }
+
+    public static <T> Mono<T> timed(Mono<T> mono, Timer timer) {
+        return Mono.defer(() -> {
+            long started = System.nanoTime();
+            return mono.doOnTerminate(() -> timer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS));
+        });
+    }
+
+    public void countBytesServed(String quality, long bytes) {
+        String tag = qualities.tagValue(quality);
+        Counter counter = bytesServed.get(tag);
+        if (counter == null) {
+            counter = bytesServed.computeIfAbsent(tag, q -> Counter.builder("hls.bytes.served")
+                    .baseUnit("bytes")
+                    .tag("quality", q)
+                    .register(registry));
+        }
+        counter.increment(bytes);
+    }
+
+    /**
+     * Admits up to {@code limit} distinct values, any other value maps to {@value #OTHER}.
+     * Values not admitted again for {@code idleMillis} are expired when room is needed.
+     */
+    private static final class BoundedTagValues {
+        private final int limit;
+        private final long idleMillis;
+        // value to the time it was last admitted
+        private final Map<String, Long> admitted = new ConcurrentHashMap<>();
+
+        BoundedTagValues(int limit, long idleMillis) {
+            this.limit = limit;
+            this.idleMillis = idleMillis;
+        }
+
+        String tagValue(String value) {
+            if (value == null || value.isEmpty()) {
+                return NONE;
+            }
+            return admitted.containsKey(value) ? value : OTHER;
+        }
+
+        /**
+         * @return the values expired to make room
+         */
+        List<String> admit(String value) {
+            long now = System.currentTimeMillis();
+            if (admitted.replace(value, now) != null) {
+                return List.of();
+            }
+            List<String> expired = new ArrayList<>();
+            if (admitted.size() >= limit) {
+                admitted.forEach((candidate, lastAdmitted) -> {
+                    if (now - lastAdmitted > idleMillis && admitted.remove(candidate, lastAdmitted)) {
+                        expired.add(candidate);
+                    }
+                });
+            }
+            // racing admissions may overshoot the limit by a few values, which is harmless
+            if (admitted.size() < limit) {
+                admitted.put(value, now);
+            }
+            return expired;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.hls.service.origin;
+
+import com.example.hls.model.SegmentPayload;
+import com.example.hls.util.ETags;
+import com.example.hls.util.SegmentNames;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Serves segments straight from the transcoder output directory instead of
+ * fetching them back from nginx over HTTP.
+ * <p>
+ * Segment files are immutable once ffmpeg lists them, so the lookup of a segment is
+ * cached: small files are kept as a read-only memory mapping, larger ones are
+ * remembered by path and length and sent with sendfile. Files without a sequence number,
+ * like {@code init.mp4}, are rewritten in place when the transcoder restarts. They are
+ * read into memory on every request and tagged by their content. Missing files resolve
+ * to an empty {@link Mono} so callers can fall back to the HTTP origin.
+ */
+@Component
+public class LocalSegmentOrigin {
+    private static final Logger logger = LoggerFactory.getLogger(LocalSegmentOrigin.class);
+
+    private final boolean enabled;
+    private final Path root;
+    private final long mmapThresholdBytes;
+    private final long expirationMillis;
+    private final Map<Path, LocalSegment> segments = new ConcurrentHashMap<>();
+
+    @Autowired
+    public LocalSegmentOrigin(@Value("${hls.local-origin.enabled:false}") boolean enabled,
+                              @Value("${hls.output-path:live}") String outputPath,
+                              @Value("${hls.local-origin.mmap-threshold-bytes:262144}") long mmapThresholdBytes,
+                              @Value("${hls.local-origin.expiration-millis:60000}") long expirationMillis) {
+        this.enabled = enabled;
+        this.root = Path.of(outputPath).toAbsolutePath().normalize();
+        this.mmapThresholdBytes = mmapThresholdBytes;
+        this.expirationMillis = expirationMillis;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Resolves {@code <output-path>/<stream>/<quality>/<fileName>}, empty if the file does not exist.
+     */
+    public Mono<SegmentPayload> find(String stream, String quality, String fileName) {
+        Path path = resolve(stream, quality, fileName);
+        if (path == null) {
+            return Mono.empty();
+        }
+        if (SegmentNames.sequenceOf(fileName) < 0) {
+            return Mono.fromCallable(() -> read(path)).subscribeOn(Schedulers.boundedElastic());
+        }
+        LocalSegment cached = segments.get(path);
+        if (cached != null) {
+            return Mono.just(cached.payload());
+        }
+        return Mono.fromCallable(() -> open(path))
+                .subscribeOn(Schedulers.boundedElastic())
+                .map(LocalSegment::payload);
+    }
+
+    /**
+     * Entity tag of the segment if its file was opened before, {@code null} otherwise.
+     */
+    public String etag(String stream, String quality, String fileName) {
+        Path path = resolve(stream, quality, fileName);
+        LocalSegment cached = path != null ? segments.get(path) : null;
+        return cached != null ? cached.etag() : null;
+    }
+
+    private Path resolve(String stream, String quality, String fileName) {
+        Path path = root.resolve(stream);
+        if (quality != null && !quality.isEmpty()) {
+            path = path.resolve(quality);
+        }
+        path = path.resolve(fileName).normalize();
+        if (!path.startsWith(root)) {
+            logger.warn("Rejecting segment path outside of the output directory {}", path);
+            return null;
+        }
+        return path;
+    }
+
+    private LocalSegment open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer mapped = size <= mmapThresholdBytes
+                    ? channel.map(FileChannel.MapMode.READ_ONLY, 0, size).asReadOnlyBuffer()
+                    : null;
+            String etag = ETags.of(Files.getLastModifiedTime(path).toMillis(), size);
+            LocalSegment segment = new LocalSegment(path, size, etag, mapped, System.currentTimeMillis());
+            segments.put(path, segment);
+            return segment;
+        } catch (NoSuchFileException e) {
+            logger.debug("Segment {} not found locally", path);
+            return null;
+        }
+    }
+
+    private SegmentPayload read(Path path) throws IOException {
+        try {
+            ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(path));
+            return new SegmentPayload.Buffers(Flux.just(DefaultDataBufferFactory.sharedInstance.wrap(data)),
+                    data.remaining(), ETags.of(data));
+        } catch (NoSuchFileException e) {
+            logger.debug("File {} not found locally", path);
+            return null;
+        }
+    }
+
+    /**
+     * Forgets segments that have left the live window, ffmpeg deletes them shortly after.
+     */
+    @Scheduled(fixedDelay = 10_000)
+    public void cleanUp() {
+        long now = System.currentTimeMillis();
+        segments.values().removeIf(segment -> now - segment.openedAt() > expirationMillis || !Files.exists(segment.path()));
+    }
+
+    private record LocalSegment(Path path, long size, String etag, ByteBuffer mapped, long openedAt) {
+
+        SegmentPayload payload() {
+            if (mapped != null) {
+                // every response gets its own view on the shared mapping
+                return new SegmentPayload.Buffers(Flux.just(DefaultDataBufferFactory.sharedInstance.wrap(mapped.duplicate())), size, etag);
+            }
+            return new SegmentPayload.File(path, size, etag);
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package com.example.hls.service.origin;
+
+import com.example.hls.model.MediaPlaylist;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+
+/**
+ * In-memory index of the segments of every live rendition in the transcoder output.
+ * <p>
+ * ffmpeg replaces a rendition's playlist each time it finished a segment, so a watch on
+ * the output directories tells exactly when segments become ready, without waiting for
+ * a player to ask. On every playlist change the new segments are indexed with their size
+ * and media sequence and announced to the listeners. The latest segment of a rendition
+ * is a field read, lookups by name a map lookup.
+ * <p>
+ * A single daemon thread owns the watch service and is the only writer of the index.
+ */
+@Component
+public class SegmentIndex implements Runnable {
+    private static final Logger logger = LoggerFactory.getLogger(SegmentIndex.class);
+    private static final String MASTER_PLAYLIST = "master.m3u8";
+
+    private final boolean enabled;
+    private final Path root;
+    private final Map<String, Rendition> renditions = new ConcurrentHashMap<>();
+    private final Map<WatchKey, Path> directories = new ConcurrentHashMap<>();
+    private final List<SegmentListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile WatchService watcher;
+    private Thread thread;
+
+    /**
+     * A segment listed in the playlist of its rendition, i.e. completely written.
+     */
+    public record Segment(String stream, String quality, String fileName, long sequence, double duration,
+                          long size, long readyAt) {
+    }
+
+    @FunctionalInterface
+    public interface SegmentListener {
+        void segmentReady(Segment segment);
+    }
+
+    public record RenditionStatus(String stream, String quality, long mediaSequence, long latestSequence,
+                                  int segments, long updatedAt) {
+    }
+
+    private static final class Rendition {
+        private final NavigableMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+        private final Map<String, Segment> byName = new ConcurrentHashMap<>();
+        private volatile Segment latest;
+        private volatile long mediaSequence;
+        private volatile long updatedAt;
+    }
+
+    @Autowired
+    public SegmentIndex(@Value("${hls.segment-index.enabled:false}") boolean enabled,
+                        @Value("${hls.output-path:live}") String outputPath) {
+        this.enabled = enabled;
+        this.root = Path.of(outputPath).toAbsolutePath().normalize();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void addListener(SegmentListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Returns the newest ready segment of the rendition.
+     */
+    public Optional<Segment> latest(String stream, String quality) {
+        Rendition rendition = renditions.get(key(stream, quality));
+        return rendition == null ? Optional.empty() : Optional.ofNullable(rendition.latest);
+    }
+
+    /**
+     * Returns the segment if it is ready and still in the live window.
+     */
+    public Optional<Segment> find(String stream, String quality, String fileName) {
+        Rendition rendition = renditions.get(key(stream, quality));
+        return rendition == null ? Optional.empty() : Optional.ofNullable(rendition.byName.get(fileName));
+    }
+
+    /**
+     * Returns the ready segments of the rendition in media sequence order.
+     */
+    public List<Segment> segments(String stream, String quality) {
+        Rendition rendition = renditions.get(key(stream, quality));
+        return rendition == null ? List.of() : List.copyOf(rendition.segments.values());
+    }
+
+    public List<RenditionStatus> renditions() {
+        List<RenditionStatus> status = new ArrayList<>();
+        renditions.forEach((key, rendition) -> {
+            Segment latest = rendition.latest;
+            if (latest != null) {
+                status.add(new RenditionStatus(latest.stream(), latest.quality(), rendition.mediaSequence,
+                        latest.sequence(), rendition.segments.size(), rendition.updatedAt));
+            }
+        });
+        return status;
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        Files.createDirectories(root);
+        watcher = FileSystems.getDefault().newWatchService();
+        register(root);
+        try (Stream<Path> existing = Files.walk(root, 2)) {
+            existing.filter(Files::isDirectory).filter(dir -> !dir.equals(root)).forEach(this::register);
+        }
+        rescan();
+        thread = new Thread(this, "segment-index");
+        thread.setDaemon(true);
+        thread.start();
+        logger.info("Indexing segments under {}", root);
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+        if (watcher != null) {
+            watcher.close();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watcher.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            Path directory = directories.get(key);
+            try {
+                if (directory != null) {
+                    handle(directory, key.pollEvents());
+                }
+            } catch (RuntimeException e) {
+                logger.warn("Failed to index changes in {}", directory, e);
+            }
+            if (!key.reset()) {
+                directories.remove(key);
+                if (directory != null) {
+                    forget(directory);
+                }
+            }
+        }
+    }
+
+    private void handle(Path directory, List<WatchEvent<?>> events) {
+        for (WatchEvent<?> event : events) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                rescan();
+                continue;
+            }
+            Path path = directory.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                // stream directories hold the rendition directories, both are watched
+                int depth = root.relativize(path).getNameCount();
+                if (depth <= 2) {
+                    // rendition directories may have been created before the stream directory was watched
+                    try (Stream<Path> created = Files.walk(path, 2 - depth)) {
+                        created.filter(Files::isDirectory).forEach(this::register);
+                    } catch (IOException e) {
+                        logger.debug("Failed to watch {}", path, e);
+                    }
+                    scan(path);
+                }
+            } else if (event.kind() != StandardWatchEventKinds.ENTRY_DELETE && isMediaPlaylist(path)) {
+                playlistChanged(path);
+            }
+        }
+    }
+
+    private void register(Path directory) {
+        try {
+            WatchKey key = directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            directories.put(key, directory);
+        } catch (IOException e) {
+            logger.warn("Cannot watch {}", directory, e);
+        }
+    }
+
+    private void rescan() {
+        try (Stream<Path> playlists = Files.walk(root, 3)) {
+            playlists.filter(SegmentIndex::isMediaPlaylist).forEach(this::playlistChanged);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Failed to rescan {}", root, e);
+        }
+    }
+
+    private void scan(Path directory) {
+        try (Stream<Path> playlists = Files.walk(directory, 2)) {
+            playlists.filter(SegmentIndex::isMediaPlaylist).forEach(this::playlistChanged);
+        } catch (IOException e) {
+            logger.debug("Failed to scan {}", directory, e);
+        }
+    }
+
+    private static boolean isMediaPlaylist(Path path) {
+        String name = path.getFileName().toString();
+        return name.endsWith(".m3u8") && !name.equals(MASTER_PLAYLIST);
+    }
+
+    /**
+     * Indexes the segments newly listed in the playlist and drops the ones that left the live window.
+     */
+    private void playlistChanged(Path playlistPath) {
+        Path directory = playlistPath.getParent();
+        Path relative = root.relativize(directory);
+        if (relative.toString().isEmpty() || relative.getNameCount() > 2) {
+            return;
+        }
+        String stream = relative.getName(0).toString();
+        String quality = relative.getNameCount() == 2 ? relative.getName(1).toString() : "";
+        MediaPlaylist playlist;
+        try {
+            playlist = MediaPlaylist.parse(Files.readString(playlistPath));
+        } catch (NoSuchFileException e) {
+            return;
+        } catch (IOException e) {
+            logger.debug("Cannot read playlist {}", playlistPath, e);
+            return;
+        }
+        Rendition rendition = renditions.computeIfAbsent(key(stream, quality), k -> new Rendition());
+        long now = System.currentTimeMillis();
+        List<Segment> ready = new ArrayList<>();
+        List<MediaPlaylist.Segment> listed = playlist.segments();
+        long newest = rendition.latest == null ? Long.MIN_VALUE : rendition.latest.sequence();
+        if (newest > playlist.mediaSequence() + listed.size() - 1) {
+            // a restarted transcoder starts over at a lower media sequence
+            rendition.segments.clear();
+            rendition.byName.clear();
+            newest = Long.MIN_VALUE;
+        }
+        for (int i = 0; i < listed.size(); i++) {
+            long sequence = playlist.mediaSequence() + i;
+            if (sequence <= newest && rendition.segments.containsKey(sequence)) {
+                continue;
+            }
+            MediaPlaylist.Segment listedSegment = listed.get(i);
+            try {
+                long size = Files.size(directory.resolve(listedSegment.uri()));
+                Segment segment = new Segment(stream, quality, listedSegment.uri(), sequence, listedSegment.duration(), size, now);
+                rendition.segments.put(sequence, segment);
+                rendition.byName.put(segment.fileName(), segment);
+                ready.add(segment);
+            } catch (IOException e) {
+                logger.debug("Listed segment {} is gone", listedSegment.uri());
+            }
+        }
+        NavigableMap<Long, Segment> expired = rendition.segments.headMap(playlist.mediaSequence(), false);
+        expired.values().forEach(segment -> rendition.byName.remove(segment.fileName(), segment));
+        expired.clear();
+        rendition.mediaSequence = playlist.mediaSequence();
+        rendition.latest = rendition.segments.isEmpty() ? null : rendition.segments.lastEntry().getValue();
+        rendition.updatedAt = now;
+        ready.forEach(this::notifyListeners);
+    }
+
+    private void notifyListeners(Segment segment) {
+        for (SegmentListener listener : listeners) {
+            try {
+                listener.segmentReady(segment);
+            } catch (RuntimeException e) {
+                logger.warn("Segment listener failed for {}/{}", segment.stream(), segment.fileName(), e);
+            }
+        }
+    }
+
+    /**
+     * Drops the renditions below a directory that was deleted, e.g. after the stream ended.
+     */
+    private void forget(Path directory) {
+        Path relative = root.relativize(directory);
+        if (relative.toString().isEmpty()) {
+            return;
+        }
+        String stream = relative.getName(0).toString();
+        if (relative.getNameCount() == 1) {
+            renditions.keySet().removeIf(key -> key.startsWith(stream + "/"));
+        } else {
+            renditions.remove(key(stream, relative.getName(1).toString()));
+        }
+    }
+
+    private static String key(String stream, String quality) {
+        return stream + "/" + (quality == null ? "" : quality);
+    }
+}
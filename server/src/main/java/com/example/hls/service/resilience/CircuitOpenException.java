@@ -0,0 +1,11 @@
+package com.example.hls.service.resilience;
+
+/**
+ * Signals a call rejected without being attempted because the upstream's circuit is open.
+ */
+public class CircuitOpenException extends RuntimeException {
+
+    public CircuitOpenException(String upstream) {
+        super("Circuit of upstream " + upstream + " is open");
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.hls.service.resilience;
+
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+
+/**
+ * Point in time by which the response to the current client request is due.
+ * <p>
+ * {@link DeadlineWebFilter} stores it in the Reactor context of every request, upstream
+ * calls made on behalf of that request are bounded by whatever is left of it.
+ */
+public record Deadline(long expiresAtNanos) {
+
+    public static final Class<Deadline> KEY = Deadline.class;
+
+    public static Deadline after(Duration budget) {
+        return new Deadline(System.nanoTime() + budget.toNanos());
+    }
+
+    public Duration remaining() {
+        return Duration.ofNanos(expiresAtNanos - System.nanoTime());
+    }
+
+    /**
+     * Times the call out after the given timeout or at the deadline of the current
+     * request, whichever comes first. Fails right away if the deadline already passed.
+     * Calls cut short by the deadline fail with {@link DeadlineExceededException}.
+     */
+    public static <T> Mono<T> bound(Mono<T> call, Duration timeout) {
+        return Mono.deferContextual(context -> {
+            if (context.hasKey(KEY)) {
+                Duration remaining = context.get(KEY).remaining();
+                if (remaining.isNegative() || remaining.isZero()) {
+                    return Mono.error(new DeadlineExceededException());
+                }
+                if (remaining.compareTo(timeout) < 0) {
+                    return call.timeout(remaining, Mono.error(DeadlineExceededException::new));
+                }
+            }
+            return call.timeout(timeout);
+        });
+    }
+}
@@ -0,0 +1,14 @@
+package com.example.hls.service.resilience;
+
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Signals an upstream call cut short because the deadline of the client request passed,
+ * which says nothing about the health of the upstream.
+ */
+public class DeadlineExceededException extends TimeoutException {
+
+    public DeadlineExceededException() {
+        super("Request deadline exceeded");
+    }
+}
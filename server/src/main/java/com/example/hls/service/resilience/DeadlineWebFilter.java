@@ -0,0 +1,27 @@
+package com.example.hls.service.resilience;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+
+/**
+ * Gives every request a latency budget that upstream calls made for it have to fit in.
+ */
+@Component
+public class DeadlineWebFilter implements WebFilter {
+    private final Duration budget;
+
+    public DeadlineWebFilter(@Value("${hls.resilience.request-budget-millis:4000}") long budgetMillis) {
+        this.budget = Duration.ofMillis(budgetMillis);
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        return chain.filter(exchange).contextWrite(context -> context.put(Deadline.KEY, Deadline.after(budget)));
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.hls.service.resilience;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Estimates a latency percentile over the most recent successful calls.
+ * <p>
+ * Samples go into a small ring, the percentile is recomputed from a sorted copy every
+ * few samples, so recording stays a counter increment and an array store.
+ */
+public class LatencyTracker {
+    private static final int SAMPLES = 256;
+    private static final int RECOMPUTE_EVERY = 32;
+
+    private final double percentile;
+    private final long[] samples = new long[SAMPLES];
+    private final AtomicLong recorded = new AtomicLong();
+    private volatile long percentileNanos = -1;
+
+    public LatencyTracker(double percentile) {
+        this.percentile = percentile;
+    }
+
+    public void record(long nanos) {
+        long n = recorded.getAndIncrement();
+        samples[(int) (n % SAMPLES)] = nanos;
+        if ((n + 1) % RECOMPUTE_EVERY == 0) {
+            recompute(Math.min(n + 1, SAMPLES));
+        }
+    }
+
+    private void recompute(long count) {
+        long[] sorted = Arrays.copyOf(samples, (int) count);
+        Arrays.sort(sorted);
+        percentileNanos = sorted[(int) Math.min(count - 1, (long) Math.ceil(percentile * count) - 1)];
+    }
+
+    /**
+     * The percentile in nanos, or -1 until enough calls were recorded.
+     */
+    public long percentileNanos() {
+        return percentileNanos;
+    }
+}
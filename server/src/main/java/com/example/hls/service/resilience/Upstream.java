@@ -0,0 +1,159 @@
+package com.example.hls.service.resilience;
+
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Guards the calls to one remote service: bounds them by timeout and request deadline,
+ * fails fast through a circuit breaker, and for idempotent GETs sends a hedged second
+ * request once the first one takes longer than the recent p95.
+ */
+public class Upstream {
+    private final String name;
+    private final Duration timeout;
+    private final CircuitBreaker breaker;
+    private final LatencyTracker latency = new LatencyTracker(0.95);
+    private final boolean hedging;
+    private final Duration minHedgeDelay;
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+
+    /**
+     * Counters of an upstream, {@code p95Millis} is -1 until enough calls were made.
+     */
+    public record Stats(String name, CircuitBreaker.State state, long opened, long calls, long failures,
+                        long timeouts, long rejected, long hedges, long hedgeWins, double p95Millis) {
+    }
+
+    /**
+     * Answer of one hedged attempt: a value, nothing, or an error that the other attempt cannot change.
+     */
+    private record Outcome<T>(T value, Throwable error) {
+    }
+
+    public Upstream(String name, Duration timeout, CircuitBreaker breaker, boolean hedging, Duration minHedgeDelay) {
+        this.name = name;
+        this.timeout = timeout;
+        this.breaker = breaker;
+        this.hedging = hedging;
+        this.minHedgeDelay = minHedgeDelay;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Makes the call unless the circuit is open, in which case it fails with
+     * {@link CircuitOpenException} right away so the caller's fallback kicks in.
+     */
+    public <T> Mono<T> call(Supplier<Mono<T>> request) {
+        return guard(() -> attempt(request));
+    }
+
+    /**
+     * Like {@link #call(Supplier)}, additionally repeating the request if no response
+     * arrived within the recent p95 latency and using whichever answers first, the other
+     * one is cancelled. An attempt failing with a server or connection error leaves the
+     * other one running, answers like 404 are final. The request must be idempotent.
+     */
+    public <T> Mono<T> hedgedGet(Supplier<Mono<T>> request) {
+        if (!hedging) {
+            return call(request);
+        }
+        return guard(() -> Mono.firstWithValue(outcome(attempt(request)),
+                        Mono.delay(hedgeDelay()).then(Mono.defer(() -> {
+                            hedges.incrementAndGet();
+                            return outcome(attempt(request).doOnNext(value -> hedgeWins.incrementAndGet()));
+                        })))
+                .onErrorMap(NoSuchElementException.class, Upstream::firstError)
+                .flatMap(outcome -> outcome.error() != null
+                        ? Mono.<T>error(outcome.error())
+                        : Mono.justOrEmpty(outcome.value())));
+    }
+
+    /**
+     * Turns empty answers and final errors into values, so they end the race like a response.
+     */
+    private static <T> Mono<Outcome<T>> outcome(Mono<T> attempt) {
+        return attempt.map(value -> new Outcome<T>(value, null))
+                .onErrorResume(Upstream::isFinal, error -> Mono.just(new Outcome<>(null, error)))
+                .defaultIfEmpty(new Outcome<>(null, null));
+    }
+
+    private static boolean isFinal(Throwable error) {
+        return error instanceof WebClientResponseException response && !response.getStatusCode().is5xxServerError();
+    }
+
+    /**
+     * Both attempts failed, the error of the first one is reported.
+     */
+    private static Throwable firstError(NoSuchElementException error) {
+        List<Throwable> errors = error.getCause() != null
+                ? Exceptions.unwrapMultiple(error.getCause())
+                : List.of(error.getSuppressed());
+        return errors.isEmpty() ? error : errors.get(0);
+    }
+
+    private <T> Mono<T> guard(Supplier<Mono<T>> call) {
+        return Mono.defer(() -> {
+            if (!breaker.tryAcquire()) {
+                rejected.incrementAndGet();
+                return Mono.error(new CircuitOpenException(name));
+            }
+            calls.incrementAndGet();
+            return Deadline.bound(call.get(), timeout)
+                    .doOnSuccess(value -> breaker.onSuccess())
+                    .doOnError(this::onError)
+                    .doOnCancel(breaker::onCancel);
+        });
+    }
+
+    private <T> Mono<T> attempt(Supplier<Mono<T>> request) {
+        return Mono.defer(() -> {
+            long started = System.nanoTime();
+            return request.get().doOnSuccess(value -> latency.record(System.nanoTime() - started));
+        });
+    }
+
+    private void onError(Throwable error) {
+        if (error instanceof TimeoutException) {
+            timeouts.incrementAndGet();
+        }
+        // the client's budget ran out, not the upstream's patience
+        if (error instanceof DeadlineExceededException) {
+            breaker.onCancel();
+            return;
+        }
+        // answers like 404 come from a healthy upstream and do not count against it
+        if (error instanceof WebClientResponseException response && !response.getStatusCode().is5xxServerError()) {
+            breaker.onSuccess();
+            return;
+        }
+        failures.incrementAndGet();
+        breaker.onFailure();
+    }
+
+    private Duration hedgeDelay() {
+        long p95 = latency.percentileNanos();
+        return p95 < minHedgeDelay.toNanos() ? minHedgeDelay : Duration.ofNanos(p95);
+    }
+
+    public Stats stats() {
+        long p95 = latency.percentileNanos();
+        return new Stats(name, breaker.getState(), breaker.getOpened(), calls.get(), failures.get(), timeouts.get(),
+                rejected.get(), hedges.get(), hedgeWins.get(), p95 < 0 ? -1 : p95 / 1e6);
+    }
+}
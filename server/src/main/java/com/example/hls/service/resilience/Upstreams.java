@@ -0,0 +1,73 @@
+package com.example.hls.service.resilience;
+
+import com.example.hls.config.AdMediaConfiguration;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * The remote services the server depends on, each guarded by its own {@link Upstream}.
+ */
+@Component
+public class Upstreams {
+    private final Upstream origin;
+    private final Upstream adMedia;
+    private final Upstream adProvider;
+    private final Upstream sessionContext;
+
+    @Autowired
+    public Upstreams(AdMediaConfiguration adMediaConfiguration,
+                     @Value("${hls.resilience.origin.timeout-millis:2000}") long originTimeoutMillis,
+                     @Value("${sessioncontext.requests.timeout:5000}") long sessionContextTimeoutMillis,
+                     @Value("${hls.resilience.failure-threshold:5}") int failureThreshold,
+                     @Value("${hls.resilience.open-millis:5000}") long openMillis,
+                     @Value("${hls.resilience.hedging.enabled:true}") boolean hedging,
+                     @Value("${hls.resilience.hedging.min-delay-millis:50}") long minHedgeDelayMillis) {
+        this(originTimeoutMillis, adMediaConfiguration.getRequestTimeout(), adMediaConfiguration.getAdProviderTimeout(),
+                sessionContextTimeoutMillis, failureThreshold, openMillis, hedging, minHedgeDelayMillis);
+    }
+
+    public Upstreams(long originTimeoutMillis, long adMediaTimeoutMillis, long adProviderTimeoutMillis,
+                     long sessionContextTimeoutMillis, int failureThreshold, long openMillis,
+                     boolean hedging, long minHedgeDelayMillis) {
+        Duration minHedgeDelay = Duration.ofMillis(minHedgeDelayMillis);
+        this.origin = new Upstream("origin", Duration.ofMillis(originTimeoutMillis),
+                new CircuitBreaker(failureThreshold, openMillis), hedging, minHedgeDelay);
+        this.adMedia = new Upstream("ad-media", Duration.ofMillis(adMediaTimeoutMillis),
+                new CircuitBreaker(failureThreshold, openMillis), hedging, minHedgeDelay);
+        this.adProvider = new Upstream("ad-provider", Duration.ofMillis(adProviderTimeoutMillis),
+                new CircuitBreaker(failureThreshold, openMillis), false, minHedgeDelay);
+        this.sessionContext = new Upstream("session-context", Duration.ofMillis(sessionContextTimeoutMillis),
+                new CircuitBreaker(failureThreshold, openMillis), false, minHedgeDelay);
+    }
+
+    /**
+     * Default settings, for use outside of the application context.
+     */
+    public static Upstreams defaults() {
+        return new Upstreams(2_000, 5_000, 5_000, 5_000, 5, 5_000, true, 50);
+    }
+
+    public Upstream origin() {
+        return origin;
+    }
+
+    public Upstream adMedia() {
+        return adMedia;
+    }
+
+    public Upstream adProvider() {
+        return adProvider;
+    }
+
+    public Upstream sessionContext() {
+        return sessionContext;
+    }
+
+    public List<Upstream.Stats> stats() {
+        return List.of(origin.stats(), adMedia.stats(), adProvider.stats(), sessionContext.stats());
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.hls.service.session;
+
+import com.example.hls.model.Session;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Keeps sessions in a heap map only, they are lost on restart.
+ */
+public class InMemorySessionStore implements SessionStore {
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+
+    @Override
+    public Session get(String id) {
+        return sessions.get(id);
+    }
+
+    @Override
+    public Session computeIfAbsent(String id, Function<String, Session> factory) {
+        return sessions.computeIfAbsent(id, factory);
+    }
+
+    @Override
+    public boolean remove(String id, Session session) {
+        return sessions.remove(id, session);
+    }
+
+    @Override
+    public int size() {
+        return sessions.size();
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, Session> action) {
+        sessions.forEach(action);
+    }
+}
@@ -0,0 +1,446 @@
+package com.example.hls.service.session;
+
+import com.example.hls.model.QualityMetrics;
+import com.example.hls.model.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Session store that mirrors every session into a fixed-size record of a memory-mapped
+ * file, so ad cadence and byte counters survive restarts.
+ * <p>
+ * Sessions live on the heap as usual. A record is written when its session is created,
+ * {@link #checkpoint()} rewrites the mutable fields of records whose session changed
+ * since the last pass and forces the mapping, one session at a time without copying or
+ * locking the store.
+ * <p>
+ * On startup the file is mapped and only an index from id hash to record slot is built,
+ * a session object is restored from its record when the player comes back. Records of
+ * players that do not come back within the idle timeout are dropped by the checkpoint
+ * without ever being restored. Ids longer than {@value #MAX_ID_BYTES} bytes and sessions
+ * above the file capacity are kept in memory only.
+ */
+public class MappedSessionStore implements SessionStore {
+    private static final Logger logger = LoggerFactory.getLogger(MappedSessionStore.class);
+
+    static final int RECORD_BYTES = 256;
+    static final int MAX_ID_BYTES = 59;
+    static final int MAX_QUALITIES = 4;
+    static final int MAX_QUALITY_BYTES = 15;
+
+    private static final int HEADER_BYTES = 4096;
+    private static final long FILE_MAGIC = 0x484c5353455353L;
+    private static final int FILE_VERSION = 1;
+    private static final int RECORD_MAGIC = 0x53455331;
+
+    // header layout
+    private static final int HEADER_MAGIC = 0;
+    private static final int HEADER_VERSION = 8;
+    private static final int HEADER_CAPACITY = 12;
+
+    // record layout
+    private static final int MARKER = 0;
+    private static final int ID_LENGTH = 4;
+    private static final int ID = 5;
+    private static final int FREQUENCY = 64;
+    private static final int QUALITY_COUNT = 68;
+    private static final int START_TIME = 72;
+    private static final int LAST_ACCESS = 80;
+    private static final int AD_STATE = 88;
+    private static final int QUALITIES = 96;
+
+    // quality entry layout
+    private static final int QUALITY_ENTRY_BYTES = 40;
+    private static final int QUALITY_NAME_LENGTH = 0;
+    private static final int QUALITY_NAME = 1;
+    private static final int QUALITY_BYTES = 16;
+    private static final int QUALITY_SEGMENTS = 24;
+    private static final int QUALITY_SEQUENCE = 32;
+
+    private final Path path;
+    private final int capacity;
+    private final long idleTimeoutMillis;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final Map<String, Entry> sessions = new ConcurrentHashMap<>();
+    private final int[] freeSlots;
+    private int freeCount;
+    // slots of removed sessions, reused only after the next checkpoint pass so a pass
+    // still writing the removed session cannot overwrite the slot's new owner
+    private final Queue<Integer> releasedSlots = new ConcurrentLinkedQueue<>();
+    // open addressing index of recovered records not restored yet: slot + 1, 0 empty, -1 deleted
+    private final int[] recovered;
+    private volatile int recoveredCount;
+    private BiConsumer<String, Session> restoreListener = (id, session) -> {
+    };
+
+    private static final class Entry {
+        private final Session session;
+        private final int slot;
+        // state as last written to the record, to skip sessions that did not change
+        private long savedAccess;
+        private long savedState;
+        private long savedBytes;
+
+        private Entry(Session session, int slot) {
+            this.session = session;
+            this.slot = slot;
+            saved();
+        }
+
+        private boolean changed() {
+            return session.getLastAccess() != savedAccess
+                    || session.getAdStateWord() != savedState
+                    || downloadedBytes() != savedBytes;
+        }
+
+        private void saved() {
+            savedAccess = session.getLastAccess();
+            savedState = session.getAdStateWord();
+            savedBytes = downloadedBytes();
+        }
+
+        private long downloadedBytes() {
+            long bytes = 0;
+            for (QualityMetrics metrics : session.getQualities().values()) {
+                bytes += metrics.getDownloadedBytes();
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * @param capacity          number of records in the file
+     * @param idleTimeoutMillis recovered records idle for longer are dropped
+     */
+    public MappedSessionStore(Path path, int capacity, long idleTimeoutMillis) {
+        this.path = path;
+        this.capacity = capacity;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.freeSlots = new int[capacity];
+        this.recovered = new int[Integer.highestOneBit(Math.max(1, capacity)) << 2];
+        long size = HEADER_BYTES + (long) capacity * RECORD_BYTES;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Session store capacity " + capacity + " exceeds a single mapping");
+        }
+        int storedCapacity;
+        try {
+            Path parent = path.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            storedCapacity = readStoredCapacity(channel);
+            if (channel.size() > size) {
+                channel.truncate(size);
+            }
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open session store " + path, e);
+        }
+        long started = System.nanoTime();
+        recover(storedCapacity);
+        buffer.putLong(HEADER_MAGIC, FILE_MAGIC);
+        buffer.putInt(HEADER_VERSION, FILE_VERSION);
+        buffer.putInt(HEADER_CAPACITY, capacity);
+        logger.info("Recovered {} sessions from {} in {} ms", recoveredCount, path, (System.nanoTime() - started) / 1_000_000);
+    }
+
+    /**
+     * Returns the capacity written by a previous run, or -1 if the file is new or not a session store.
+     */
+    private static int readStoredCapacity(FileChannel channel) throws IOException {
+        if (channel.size() < HEADER_BYTES) {
+            return -1;
+        }
+        ByteBuffer header = ByteBuffer.allocate(16);
+        channel.read(header, 0);
+        if (header.getLong(HEADER_MAGIC) != FILE_MAGIC || header.getInt(HEADER_VERSION) != FILE_VERSION) {
+            return -1;
+        }
+        return header.getInt(HEADER_CAPACITY);
+    }
+
+    private void recover(int storedCapacity) {
+        for (int slot = capacity - 1; slot >= 0; slot--) {
+            int base = offset(slot);
+            if (slot < storedCapacity && buffer.getInt(base + MARKER) == RECORD_MAGIC) {
+                indexRecovered(slot, hash(base));
+                continue;
+            }
+            if (storedCapacity < 0) {
+                // unknown file contents, make sure nothing is recovered from it later
+                buffer.putInt(base + MARKER, 0);
+            }
+            freeSlots[freeCount++] = slot;
+        }
+    }
+
+    private void indexRecovered(int slot, int hash) {
+        int mask = recovered.length - 1;
+        int i = hash & mask;
+        while (recovered[i] > 0) {
+            i = (i + 1) & mask;
+        }
+        recovered[i] = slot + 1;
+        recoveredCount++;
+    }
+
+    private static int offset(int slot) {
+        return HEADER_BYTES + slot * RECORD_BYTES;
+    }
+
+    /**
+     * FNV-1a over the UTF-8 id of the record.
+     */
+    private int hash(int base) {
+        int length = buffer.get(base + ID_LENGTH);
+        int hash = 0x811c9dc5;
+        for (int i = 0; i < length; i++) {
+            hash = (hash ^ (buffer.get(base + ID + i) & 0xff)) * 0x01000193;
+        }
+        return hash;
+    }
+
+    private static int hash(byte[] id) {
+        int hash = 0x811c9dc5;
+        for (byte b : id) {
+            hash = (hash ^ (b & 0xff)) * 0x01000193;
+        }
+        return hash;
+    }
+
+    private boolean idEquals(int base, byte[] id) {
+        if (buffer.get(base + ID_LENGTH) != id.length) {
+            return false;
+        }
+        for (int i = 0; i < id.length; i++) {
+            if (buffer.get(base + ID + i) != id[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Takes the recovered record of the id out of the index and restores its session.
+     */
+    private Entry restore(String id) {
+        byte[] encodedId = id.getBytes(StandardCharsets.UTF_8);
+        int slot = -1;
+        synchronized (recovered) {
+            if (recoveredCount == 0) {
+                return null;
+            }
+            int mask = recovered.length - 1;
+            for (int i = hash(encodedId) & mask; recovered[i] != 0; i = (i + 1) & mask) {
+                if (recovered[i] > 0 && idEquals(offset(recovered[i] - 1), encodedId)) {
+                    slot = recovered[i] - 1;
+                    recovered[i] = -1;
+                    recoveredCount--;
+                    break;
+                }
+            }
+        }
+        if (slot < 0) {
+            return null;
+        }
+        Session session = readSession(offset(slot));
+        restoreListener.accept(id, session);
+        return new Entry(session, slot);
+    }
+
+    private Session readSession(int base) {
+        Session session = new Session(buffer.getInt(base + FREQUENCY),
+                Instant.ofEpochMilli(buffer.getLong(base + START_TIME)),
+                buffer.getLong(base + LAST_ACCESS),
+                buffer.getLong(base + AD_STATE));
+        int qualities = Math.min(buffer.getInt(base + QUALITY_COUNT), MAX_QUALITIES);
+        for (int i = 0; i < qualities; i++) {
+            int entry = base + QUALITIES + i * QUALITY_ENTRY_BYTES;
+            byte[] name = new byte[buffer.get(entry + QUALITY_NAME_LENGTH)];
+            buffer.get(entry + QUALITY_NAME, name);
+            session.getMetrics(new String(name, StandardCharsets.UTF_8)).restore(
+                    buffer.getLong(entry + QUALITY_BYTES),
+                    buffer.getLong(entry + QUALITY_SEGMENTS),
+                    buffer.getLong(entry + QUALITY_SEQUENCE));
+        }
+        return session;
+    }
+
+    @Override
+    public void onRestore(BiConsumer<String, Session> listener) {
+        this.restoreListener = listener;
+    }
+
+    @Override
+    public Session get(String id) {
+        Entry entry = sessions.get(id);
+        if (entry == null && recoveredCount > 0) {
+            entry = sessions.computeIfAbsent(id, this::restore);
+        }
+        return entry == null ? null : entry.session;
+    }
+
+    @Override
+    public Session computeIfAbsent(String id, Function<String, Session> factory) {
+        Entry entry = sessions.get(id);
+        if (entry != null) {
+            return entry.session;
+        }
+        return sessions.computeIfAbsent(id, key -> {
+            Entry restored = restore(key);
+            if (restored != null) {
+                return restored;
+            }
+            Session session = factory.apply(key);
+            byte[] encodedId = key.getBytes(StandardCharsets.UTF_8);
+            int slot = encodedId.length <= MAX_ID_BYTES ? allocate() : -1;
+            if (slot < 0) {
+                logger.debug("Session {} is not persisted", key);
+                return new Entry(session, -1);
+            }
+            int base = offset(slot);
+            buffer.put(base + ID_LENGTH, (byte) encodedId.length);
+            buffer.put(base + ID, encodedId);
+            buffer.putInt(base + FREQUENCY, session.getFrequencySegments());
+            buffer.putLong(base + START_TIME, session.getStartTime().toEpochMilli());
+            writeState(base, session);
+            // the marker goes last, a record torn by a crash is never recovered
+            buffer.putInt(base + MARKER, RECORD_MAGIC);
+            return new Entry(session, slot);
+        }).session;
+    }
+
+    @Override
+    public boolean remove(String id, Session session) {
+        Entry entry = sessions.get(id);
+        if (entry == null || entry.session != session || !sessions.remove(id, entry)) {
+            return false;
+        }
+        if (entry.slot >= 0) {
+            buffer.putInt(offset(entry.slot) + MARKER, 0);
+            releasedSlots.add(entry.slot);
+        }
+        return true;
+    }
+
+    /**
+     * Number of restored or new sessions, recovered records not restored yet are not counted.
+     */
+    @Override
+    public int size() {
+        return sessions.size();
+    }
+
+    public int recoveredPending() {
+        return recoveredCount;
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, Session> action) {
+        sessions.forEach((id, entry) -> action.accept(id, entry.session));
+    }
+
+    /**
+     * Writes the mutable state of every session changed since the last pass into its record,
+     * drops recovered records that were not claimed within the idle timeout and flushes
+     * the mapping to disk. Sessions keep being served while their records are rewritten.
+     */
+    @Override
+    public synchronized void checkpoint() {
+        sessions.values().forEach(entry -> {
+            if (entry.slot >= 0 && entry.changed()) {
+                entry.saved();
+                writeState(offset(entry.slot), entry.session);
+            }
+        });
+        dropIdleRecovered(System.currentTimeMillis() - idleTimeoutMillis);
+        buffer.force();
+        Integer slot;
+        while ((slot = releasedSlots.poll()) != null) {
+            release(slot);
+        }
+    }
+
+    private void dropIdleRecovered(long cutoff) {
+        synchronized (recovered) {
+            if (recoveredCount == 0) {
+                return;
+            }
+            for (int i = 0; i < recovered.length; i++) {
+                int slot = recovered[i] - 1;
+                if (slot >= 0 && buffer.getLong(offset(slot) + LAST_ACCESS) < cutoff) {
+                    buffer.putInt(offset(slot) + MARKER, 0);
+                    recovered[i] = -1;
+                    recoveredCount--;
+                    releasedSlots.add(slot);
+                }
+            }
+            if (recoveredCount == 0) {
+                Arrays.fill(recovered, 0);
+            }
+        }
+    }
+
+    private void writeState(int base, Session session) {
+        buffer.putLong(base + LAST_ACCESS, session.getLastAccess());
+        buffer.putLong(base + AD_STATE, session.getAdStateWord());
+        int count = 0;
+        for (Map.Entry<String, QualityMetrics> quality : session.getQualities().entrySet()) {
+            byte[] name = quality.getKey().getBytes(StandardCharsets.UTF_8);
+            if (count == MAX_QUALITIES || name.length > MAX_QUALITY_BYTES) {
+                continue;
+            }
+            QualityMetrics metrics = quality.getValue();
+            int entry = base + QUALITIES + count * QUALITY_ENTRY_BYTES;
+            buffer.put(entry + QUALITY_NAME_LENGTH, (byte) name.length);
+            buffer.put(entry + QUALITY_NAME, name);
+            buffer.putLong(entry + QUALITY_BYTES, metrics.getDownloadedBytes());
+            buffer.putLong(entry + QUALITY_SEGMENTS, metrics.getDownloadedSegments());
+            buffer.putLong(entry + QUALITY_SEQUENCE, metrics.getLastSequence());
+            count++;
+        }
+        buffer.putInt(base + QUALITY_COUNT, count);
+    }
+
+    private int allocate() {
+        synchronized (freeSlots) {
+            return freeCount == 0 ? -1 : freeSlots[--freeCount];
+        }
+    }
+
+    private void release(int slot) {
+        synchronized (freeSlots) {
+            freeSlots[freeCount++] = slot;
+        }
+    }
+
+    @Override
+    public void close() {
+        checkpoint();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close session store {}", path, e);
+        }
+    }
+}
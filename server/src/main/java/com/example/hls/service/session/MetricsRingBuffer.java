@@ -0,0 +1,120 @@
+package com.example.hls.service.session;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded multi-producer, single-consumer ring of segment transfer records.
+ * <p>
+ * Slots are preallocated as parallel arrays, so publishing only claims a sequence with
+ * one CAS and stores references to strings the caller already holds. Each slot carries
+ * its own sequence which tells the consumer when the record is complete and the
+ * producers when the slot is free again. A full ring drops the record instead of
+ * blocking the event loop.
+ */
+public class MetricsRingBuffer {
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final String[] sessionIds;
+    private final String[] qualities;
+    private final String[] chunks;
+    private final long[] bytes;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile long head;
+
+    /**
+     * Receives records on the consumer thread.
+     */
+    @FunctionalInterface
+    public interface RecordHandler {
+        void onRecord(String sessionId, String quality, String chunk, long bytes);
+    }
+
+    public MetricsRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.mask = size - 1;
+        this.sequences = new AtomicLongArray(size);
+        this.sessionIds = new String[size];
+        this.qualities = new String[size];
+        this.chunks = new String[size];
+        this.bytes = new long[size];
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Publishes a record, returns false and counts a drop if the ring is full.
+     */
+    public boolean publish(String sessionId, String quality, String chunk, long byteCount) {
+        while (true) {
+            long position = tail.get();
+            int index = (int) (position & mask);
+            long sequence = sequences.get(index);
+            if (sequence < position) {
+                dropped.incrementAndGet();
+                return false;
+            }
+            if (sequence == position && tail.compareAndSet(position, position + 1)) {
+                sessionIds[index] = sessionId;
+                qualities[index] = quality;
+                chunks[index] = chunk;
+                bytes[index] = byteCount;
+                sequences.lazySet(index, position + 1);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Hands up to {@code limit} complete records to the handler. Single consumer only.
+     *
+     * @return number of records drained
+     */
+    public int drain(RecordHandler handler, int limit) {
+        long position = head;
+        int drained = 0;
+        while (drained < limit) {
+            int index = (int) (position & mask);
+            if (sequences.get(index) != position + 1) {
+                break;
+            }
+            String sessionId = sessionIds[index];
+            String quality = qualities[index];
+            String chunk = chunks[index];
+            long byteCount = bytes[index];
+            sessionIds[index] = null;
+            qualities[index] = null;
+            chunks[index] = null;
+            sequences.lazySet(index, position + mask + 1);
+            position++;
+            drained++;
+            handler.onRecord(sessionId, quality, chunk, byteCount);
+        }
+        head = position;
+        return drained;
+    }
+
+    /**
+     * Sequence of the next record to publish, records below it were claimed.
+     */
+    public long published() {
+        return tail.get();
+    }
+
+    /**
+     * Sequence of the next record to consume.
+     */
+    public long consumed() {
+        return head;
+    }
+
+    public long dropped() {
+        return dropped.get();
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.hls.service.session;
+
+import com.example.hls.service.resilience.Upstream;
+import com.example.hls.service.resilience.Upstreams;
+import com.example.hls.util.JsonConverter;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.zenomedia.common.model.events.session.SessionContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.util.concurrent.Queues;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects session context requests for a short window and sends them to the session
+ * context service as one bulk request.
+ * <p>
+ * A batch is sent once it holds {@code max-size} contexts or the window passed since its
+ * first one. The service answers with the enriched contexts, which are matched back to
+ * the waiting callers by session id, or by position if ids are missing. Callers whose
+ * context is not in the answer get their own context back.
+ * <p>
+ * Each bulk request goes through the session context upstream, which bounds it by the
+ * request timeout and counts a failed batch once against the circuit breaker.
+ */
+@Component
+public class SessionContextBatcher {
+    private static final Logger logger = LoggerFactory.getLogger(SessionContextBatcher.class);
+    private static final TypeReference<List<SessionContext>> CONTEXT_LIST = new TypeReference<>() {
+    };
+
+    private final WebClient webClient;
+    private final JsonConverter converter;
+    private final Upstream upstream;
+    private final boolean enabled;
+    private final String bulkUrl;
+    private final int maxSize;
+    // request threads offer to a lock-free multi-producer queue, the sink drains it to the single subscriber
+    private final Sinks.Many<Pending> pending = Sinks.unsafe().many().unicast()
+            .onBackpressureBuffer(Queues.<Pending>unboundedMultiproducer().get());
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong items = new AtomicLong();
+
+    private record Pending(SessionContext context, Sinks.One<SessionContext> result) {
+    }
+
+    /**
+     * Number of bulk requests and contexts sent, the fill ratio is the mean batch size over max-size.
+     */
+    public record BatchStats(long batches, long items, int maxSize, double fillRatio) {
+    }
+
+    public SessionContextBatcher(final WebClient webClient, final JsonConverter converter, boolean enabled,
+                                 String bulkUrl, long windowMillis, int maxSize, int maxInFlight) {
+        this(webClient, converter, Upstreams.defaults(), enabled, bulkUrl, windowMillis, maxSize, maxInFlight);
+    }
+
+    @Autowired
+    public SessionContextBatcher(@Qualifier("sessionContext") final WebClient webClient,
+                                 final JsonConverter converter,
+                                 final Upstreams upstreams,
+                                 @Value("${service.session-context.batch.enabled:false}") boolean enabled,
+                                 @Value("${service.session-context.batch.url:${service.session-context.url}/bulk}") String bulkUrl,
+                                 @Value("${service.session-context.batch.window-millis:5}") long windowMillis,
+                                 @Value("${service.session-context.batch.max-size:50}") int maxSize,
+                                 @Value("${service.session-context.batch.max-in-flight:4}") int maxInFlight) {
+        this.webClient = webClient;
+        this.converter = converter;
+        this.upstream = upstreams.sessionContext();
+        this.enabled = enabled;
+        this.bulkUrl = bulkUrl;
+        this.maxSize = maxSize;
+        if (enabled) {
+            pending.asFlux()
+                    .bufferTimeout(maxSize, Duration.ofMillis(windowMillis), true)
+                    .flatMap(this::send, maxInFlight)
+                    .subscribe();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Queues the context for the next batch and emits the enriched context once the batch
+     * was answered, or an error if the bulk request failed. A context that cannot be queued
+     * is emitted as it is, without enrichment.
+     */
+    public Mono<SessionContext> submit(SessionContext context) {
+        return Mono.defer(() -> {
+            Sinks.One<SessionContext> result = Sinks.one();
+            Sinks.EmitResult emitted = pending.tryEmitNext(new Pending(context, result));
+            if (emitted.isFailure()) {
+                logger.warn("Session context {} not queued for a batch: {}", context.getId(), emitted);
+                return Mono.just(context);
+            }
+            return result.asMono();
+        });
+    }
+
+    private Mono<Void> send(List<Pending> batch) {
+        batches.incrementAndGet();
+        items.addAndGet(batch.size());
+        List<SessionContext> contexts = batch.stream().map(Pending::context).toList();
+        logger.debug("Sending {} session contexts to {}", contexts.size(), bulkUrl);
+        return upstream.call(() -> webClient.post()
+                        .uri(bulkUrl)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .bodyValue(contexts)
+                        .retrieve()
+                        .bodyToMono(String.class))
+                .map(body -> converter.deserializeJson(body, CONTEXT_LIST))
+                .doOnNext(results -> fanOut(batch, results))
+                .doOnError(err -> {
+                    logger.warn("Bulk session context request of {} contexts failed: {}", batch.size(), err.getMessage());
+                    batch.forEach(p -> p.result().tryEmitError(err));
+                })
+                .onErrorResume(err -> Mono.empty())
+                .then();
+    }
+
+    private void fanOut(List<Pending> batch, List<SessionContext> results) {
+        Map<String, SessionContext> byId = new HashMap<>();
+        results.forEach(result -> {
+            if (result != null && result.getId() != null) {
+                byId.put(result.getId(), result);
+            }
+        });
+        boolean positional = results.size() == batch.size();
+        for (int i = 0; i < batch.size(); i++) {
+            Pending p = batch.get(i);
+            SessionContext enhanced = byId.get(p.context().getId());
+            if (enhanced == null && positional && results.get(i) != null) {
+                enhanced = results.get(i);
+            }
+            p.result().tryEmitValue(enhanced != null ? enhanced : p.context());
+        }
+    }
+
+    public BatchStats stats() {
+        long sent = batches.get();
+        long contexts = items.get();
+        return new BatchStats(sent, contexts, maxSize, sent == 0 ? 0 : (double) contexts / (sent * maxSize));
+    }
+}
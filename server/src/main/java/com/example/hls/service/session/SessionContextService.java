@@ -1,13 +1,20 @@
 package com.example.hls.service.session;
 
+import com.example.hls.model.CacheStats;
+import com.example.hls.service.metrics.PipelineMetrics;
+import com.example.hls.service.resilience.Upstream;
+import com.example.hls.service.resilience.Upstreams;
 import com.example.hls.util.JsonConverter;
+import com.example.hls.util.SingleFlight;
 import com.zenomedia.common.model.events.session.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 import org.springframework.web.reactive.function.client.ClientResponse;
@@ -15,12 +22,20 @@ import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.publisher.Mono;
 
 import java.net.InetSocketAddress;
-import java.time.Duration;
+import java.util.Comparator;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Builds session contexts from player requests and enriches them through the session context service.
+ * <p>
+ * Enriched contexts are cached per session id. Playlist requests always get the cached
+ * or locally built context right away, expired or missing entries are refreshed in the
+ * background, one request per session at a time.
+ */
 @Service
 public class SessionContextService {
     private static final Logger logger = LoggerFactory.getLogger(SessionContextService.class);
@@ -28,20 +43,69 @@ public class SessionContextService {
     private final WebClient webClient;
     private String sessionContextUrl;
     private final String localPublicIp;
-    private final long timeoutMillis;
     private final JsonConverter converter;
+    private final SessionContextBatcher batcher;
+    private final Upstream upstream;
+    private final PipelineMetrics metrics;
     private final Map<String, String> upstreamsCache = new ConcurrentHashMap<>();
+    private final long ttlMillis;
+    private final long retryMillis;
+    private final long expirationMillis;
+    private final int maxEntries;
+    private final Map<String, CachedContext> contexts = new ConcurrentHashMap<>();
+    private final SingleFlight<String, SessionContext> refreshes = new SingleFlight<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong staleHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong refreshed = new AtomicLong();
+    private final AtomicLong refreshFailures = new AtomicLong();
+    private final AtomicLong refreshNanos = new AtomicLong();
+    private final AtomicLong maxRefreshNanos = new AtomicLong();
 
-    public SessionContextService(final WebClient webClient,
+    /**
+     * A cached context, {@code refreshedAt} is 0 while only the locally built context is known.
+     */
+    private static final class CachedContext {
+        private final SessionContext context;
+        private final long refreshedAt;
+        private volatile long lastAccess;
+
+        private CachedContext(SessionContext context, long refreshedAt, long lastAccess) {
+            this.context = context;
+            this.refreshedAt = refreshedAt;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    /**
+     * Refresh latency of the session context service.
+     */
+    public record RefreshStats(long refreshes, long failures, double meanMillis, double maxMillis) {
+    }
+
+    public SessionContextService(@Qualifier("sessionContext") final WebClient webClient,
                                  final JsonConverter converter,
+                                 final SessionContextBatcher batcher,
+                                 final Upstreams upstreams,
+                                 final PipelineMetrics metrics,
                                  @Value("${service.session-context.url}") String sessionContextUrl,
                                  @Value("${local.external.ip}") String localPublicIp,
-                                 @Value("${sessioncontext.requests.timeout:5000}") long timeoutMillis) {
+                                 @Value("${hls.session-context.ttl-millis:300000}") long ttlMillis,
+                                 @Value("${hls.session-context.retry-millis:30000}") long retryMillis,
+                                 @Value("${hls.session-context.expiration-millis:1800000}") long expirationMillis,
+                                 @Value("${hls.session-context.max-entries:100000}") int maxEntries) {
         this.webClient = webClient;
         this.converter = converter;
+        this.batcher = batcher;
+        this.upstream = upstreams.sessionContext();
+        this.metrics = metrics;
         this.sessionContextUrl = sessionContextUrl;
         this.localPublicIp = localPublicIp;
-        this.timeoutMillis = timeoutMillis;
+        this.ttlMillis = ttlMillis;
+        this.retryMillis = retryMillis;
+        this.expirationMillis = expirationMillis;
+        this.maxEntries = maxEntries;
     }
 
     /**
@@ -51,21 +115,144 @@ public class SessionContextService {
         this.sessionContextUrl = sessionContextUrl;
     }
 
+    /**
+     * Returns the context of the session without waiting for the session context service.
+     * A fresh cached context is returned as is, a stale one is returned while it is refreshed
+     * in the background, and on a miss the locally built context is returned and enriched
+     * for the next request.
+     */
+    public SessionContext getSessionContext(ServerHttpRequest request, String stream, String sessionId) {
+        long now = System.currentTimeMillis();
+        CachedContext cached = contexts.get(sessionId);
+        if (cached != null) {
+            cached.lastAccess = now;
+            if (now - cached.refreshedAt < ttlMillis) {
+                hits.incrementAndGet();
+            } else {
+                staleHits.incrementAndGet();
+                refresh(request, stream, sessionId, null);
+            }
+            return cached.context;
+        }
+        misses.incrementAndGet();
+        SessionContext local = buildSessionContext(request, stream, sessionId);
+        contexts.putIfAbsent(sessionId, new CachedContext(local, 0, now));
+        if (contexts.size() > maxEntries) {
+            evictLeastRecentlyUsed();
+        }
+        refresh(request, stream, sessionId, local);
+        return local;
+    }
+
+    /**
+     * Enriches the context in the background. The local context is built from the request
+     * right away, so nothing of the request is touched after the response went out.
+     */
+    private void refresh(ServerHttpRequest request, String stream, String sessionId, SessionContext built) {
+        if (refreshes.isInFlight(sessionId)) {
+            return;
+        }
+        refreshes.execute(sessionId, () -> {
+            long started = System.nanoTime();
+            SessionContext local = built != null ? built : buildSessionContext(request, stream, sessionId);
+            return metrics.time(PipelineMetrics.Stage.SESSION_CONTEXT, stream, null,
+                            requestEnhancedSessionContext(request, stream, local))
+                    .doOnNext(context -> {
+                        long elapsed = System.nanoTime() - started;
+                        refreshed.incrementAndGet();
+                        refreshNanos.addAndGet(elapsed);
+                        maxRefreshNanos.accumulateAndGet(elapsed, Math::max);
+                        long now = System.currentTimeMillis();
+                        CachedContext previous = contexts.get(sessionId);
+                        if (context == local) {
+                            // the service failed, try again after the retry delay instead of on every request
+                            refreshFailures.incrementAndGet();
+                            SessionContext kept = previous != null ? previous.context : local;
+                            contexts.put(sessionId, new CachedContext(kept, now - ttlMillis + retryMillis, now));
+                        } else {
+                            contexts.put(sessionId, new CachedContext(context, now,
+                                    previous != null ? previous.lastAccess : now));
+                        }
+                    });
+        }).subscribe();
+    }
+
+    private void evictLeastRecentlyUsed() {
+        int excess = contexts.size() - maxEntries;
+        if (excess <= 0) {
+            return;
+        }
+        // evict a tenth at once so the scan is not repeated for every new session
+        contexts.entrySet().stream()
+                .sorted(Comparator.comparingLong(e -> e.getValue().lastAccess))
+                .limit(excess + maxEntries / 10)
+                .forEach(e -> {
+                    if (contexts.remove(e.getKey(), e.getValue())) {
+                        evictions.incrementAndGet();
+                    }
+                });
+    }
+
+    /**
+     * Drops contexts of sessions that stopped requesting playlists.
+     */
+    @Scheduled(fixedDelay = 60_000)
+    public void cleanUp() {
+        long now = System.currentTimeMillis();
+        contexts.entrySet().removeIf(e -> {
+            boolean idle = now - e.getValue().lastAccess > expirationMillis;
+            if (idle) {
+                evictions.incrementAndGet();
+            }
+            return idle;
+        });
+    }
+
+    /**
+     * Cache counters, stale hits are reported as coalesced and refreshes as revalidated.
+     */
+    public CacheStats stats() {
+        return new CacheStats(hits.get(), misses.get(), staleHits.get(), refreshed.get(),
+                evictions.get(), contexts.size(), 0);
+    }
+
+    public RefreshStats refreshStats() {
+        long count = refreshed.get();
+        return new RefreshStats(count, refreshFailures.get(),
+                count == 0 ? 0 : refreshNanos.get() / 1e6 / count,
+                maxRefreshNanos.get() / 1e6);
+    }
+
     public Mono<SessionContext> requestEnhancedSessionContext(ServerHttpRequest request,
                                                               String stream,
                                                               String sessionId) {
-        logger.info("Requesting enhanced session context");
-        SessionContext sessionContext = getSessionContext(request, stream, sessionId);
-        String query = request.getURI().getQuery();
-        String urlWithQuery = (Objects.nonNull(query) && !query.isEmpty()) ? sessionContextUrl + "?" + query : sessionContextUrl;
-
-        return webClient.post()
-                .uri(urlWithQuery)
-                .contentType(MediaType.APPLICATION_JSON)
-                .header("x-session-id", sessionContext.getId())
-                .bodyValue(sessionContext)
-                .exchangeToMono(resp -> handleResponse(resp, sessionContext, stream))
-                .timeout(Duration.ofMillis(timeoutMillis))
+        return requestEnhancedSessionContext(request, stream, buildSessionContext(request, stream, sessionId));
+    }
+
+    /**
+     * Posts the locally built context to the session context service, emits the local
+     * context itself if the service fails.
+     */
+    private Mono<SessionContext> requestEnhancedSessionContext(ServerHttpRequest request,
+                                                               String stream,
+                                                               SessionContext sessionContext) {
+        logger.debug("Requesting enhanced session context");
+        Mono<SessionContext> enhanced;
+        if (batcher.isEnabled()) {
+            // query parameters travel inside the context, the bulk request has no query of its own.
+            // The batcher guards the bulk request, a failed batch counts once against the breaker
+            enhanced = batcher.submit(sessionContext).map(context -> remember(context, stream));
+        } else {
+            String query = request.getURI().getQuery();
+            String urlWithQuery = (Objects.nonNull(query) && !query.isEmpty()) ? sessionContextUrl + "?" + query : sessionContextUrl;
+            enhanced = upstream.call(() -> webClient.post()
+                    .uri(urlWithQuery)
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .header("x-session-id", sessionContext.getId())
+                    .bodyValue(sessionContext)
+                    .exchangeToMono(resp -> handleResponse(resp, sessionContext, stream)));
+        }
+        return enhanced
                 .doOnError(err -> {
                     logger.error("Failed to get listener context from: {}, IP: {}, for stream:{}! Error {}",
                             sessionContextUrl, sessionContext.getConnection().getClientIp(), stream, err.getMessage(), err);
@@ -80,14 +267,7 @@ public class SessionContextService {
                     .map(body -> {
                         logger.debug(body);
                         try {
-                            SessionContext enhanced = converter.deserializeJson(body, SessionContext.class);
-                            if (Objects.nonNull(enhanced.getContent())) {
-                                Optional<String> upstream = enhanced.getContent().getUpstream();
-                                if (Objects.nonNull(upstream) && upstream.isPresent()) {
-                                    upstreamsCache.put(stream, upstream.get());
-                                }
-                            }
-                            return enhanced;
+                            return remember(converter.deserializeJson(body, SessionContext.class), stream);
                         } catch (Exception e) {
                             logger.warn("Failed to parse enhanced session context", e);
                             return sessionContext;
@@ -105,7 +285,20 @@ public class SessionContextService {
         }
     }
 
-    private SessionContext getSessionContext(ServerHttpRequest request, String stream, String sessionId) {
+    /**
+     * Remembers the upstream the service picked for the stream, so later contexts carry it.
+     */
+    private SessionContext remember(SessionContext enhanced, String stream) {
+        if (Objects.nonNull(enhanced.getContent())) {
+            Optional<String> upstream = enhanced.getContent().getUpstream();
+            if (Objects.nonNull(upstream) && upstream.isPresent()) {
+                upstreamsCache.put(stream, upstream.get());
+            }
+        }
+        return enhanced;
+    }
+
+    private SessionContext buildSessionContext(ServerHttpRequest request, String stream, String sessionId) {
         String ipOverride = StringUtils.hasText(localPublicIp) ? localPublicIp : null;
 
         InetSocketAddress local = request.getLocalAddress();
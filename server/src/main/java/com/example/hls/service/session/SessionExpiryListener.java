@@ -0,0 +1,13 @@
+package com.example.hls.service.session;
+
+import com.example.hls.model.Session;
+
+/**
+ * Notified when a session is removed for being idle or to stay under the session limit,
+ * so its final metrics can be flushed.
+ */
+@FunctionalInterface
+public interface SessionExpiryListener {
+
+    void onExpired(String sessionId, Session session);
+}
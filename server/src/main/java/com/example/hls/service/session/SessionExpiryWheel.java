@@ -0,0 +1,113 @@
+package com.example.hls.service.session;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * Hashed timer wheel holding the expiry deadlines of sessions.
+ * <p>
+ * Each session id sits in exactly one slot. Accesses never move it, the owner only
+ * records the access time on the session. When the wheel reaches a slot the owner
+ * checks every id in it and either expires the session or schedules it again for its
+ * real deadline, so the cost of expiry is proportional to the sessions due in a tick
+ * instead of a scan over all of them.
+ */
+public class SessionExpiryWheel {
+    private final long tickMillis;
+    private final Queue<String>[] slots;
+    private long currentTick;
+
+    @SuppressWarnings("unchecked")
+    public SessionExpiryWheel(long tickMillis, long horizonMillis, long now) {
+        this.tickMillis = tickMillis;
+        int size = (int) Math.max(2, horizonMillis / tickMillis + 2);
+        this.slots = new Queue[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new ConcurrentLinkedQueue<>();
+        }
+        this.currentTick = now / tickMillis;
+    }
+
+    /**
+     * Schedules the id to be checked at the given deadline, clamped to the wheel horizon.
+     */
+    public void schedule(String id, long deadlineMillis) {
+        long tick;
+        synchronized (this) {
+            tick = Math.min(Math.max(deadlineMillis / tickMillis, currentTick + 1), currentTick + slots.length - 1);
+        }
+        slots[(int) (tick % slots.length)].add(id);
+    }
+
+    /**
+     * Advances the wheel to the given time and hands every id that became due to the consumer.
+     */
+    public void advance(long now, Consumer<String> due) {
+        long target = now / tickMillis;
+        while (true) {
+            long tick;
+            synchronized (this) {
+                if (currentTick >= target) {
+                    return;
+                }
+                tick = ++currentTick;
+            }
+            drain(slots[(int) (tick % slots.length)], Integer.MAX_VALUE, due);
+        }
+    }
+
+    /**
+     * Decides on an id handed out by {@link #evictEarliest(int, Evictor)}.
+     */
+    @FunctionalInterface
+    public interface Evictor {
+        /**
+         * @param slotEndMillis end of the slot the id was taken from, an id whose real deadline is
+         *                      later was accessed since it was scheduled
+         * @return whether the id was evicted, otherwise the owner schedules it again or it is gone
+         */
+        boolean evict(String id, long slotEndMillis);
+    }
+
+    /**
+     * Hands ids to the evictor slot by slot, nearest deadlines first and regardless of whether
+     * they are due, until {@code count} of them were evicted. Used to enforce a hard size limit.
+     *
+     * @return number of evicted ids
+     */
+    public int evictEarliest(int count, Evictor evictor) {
+        long start;
+        synchronized (this) {
+            start = currentTick + 1;
+        }
+        int evicted = 0;
+        for (int i = 0; i < slots.length && evicted < count; i++) {
+            long tick = start + i;
+            Queue<String> slot = slots[(int) (tick % slots.length)];
+            long slotEnd = (tick + 1) * tickMillis;
+            // ids scheduled again land in later slots, or in this one when clamped to the horizon,
+            // only the ids present now are checked
+            for (int checked = slot.size(); checked > 0 && evicted < count; checked--) {
+                String id = slot.poll();
+                if (id == null) {
+                    break;
+                }
+                if (evictor.evict(id, slotEnd)) {
+                    evicted++;
+                }
+            }
+        }
+        return evicted;
+    }
+
+    private static int drain(Queue<String> slot, int limit, Consumer<String> consumer) {
+        int drained = 0;
+        String id;
+        while (drained < limit && (id = slot.poll()) != null) {
+            consumer.accept(id);
+            drained++;
+        }
+        return drained;
+    }
+}
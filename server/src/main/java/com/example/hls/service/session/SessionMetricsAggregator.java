@@ -0,0 +1,133 @@
+package com.example.hls.service.session;
+
+import com.example.hls.model.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+/**
+ * Daemon thread folding the records of a {@link MetricsRingBuffer} into per-session
+ * {@link com.example.hls.model.QualityMetrics} and per-quality totals.
+ * <p>
+ * Being the only writer, it updates plain volatile counters without atomics. When the
+ * ring is empty the thread parks until a producer signals a publish.
+ */
+public class SessionMetricsAggregator implements Runnable {
+    private static final Logger logger = LoggerFactory.getLogger(SessionMetricsAggregator.class);
+    private static final int BATCH_SIZE = 1024;
+    // upper bound of an idle park, a safety net should a signal ever be missed
+    private static final long IDLE_PARK_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final MetricsRingBuffer ring;
+    private final Function<String, Session> sessions;
+    private final Map<String, QualityTotals> totals = new ConcurrentHashMap<>();
+    private final Thread thread;
+    private volatile boolean running = true;
+    private volatile boolean idle;
+
+    /**
+     * Bytes and segments transferred for one quality across all sessions.
+     */
+    public static final class QualityTotals {
+        private volatile long bytes;
+        private volatile long segments;
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getSegments() {
+            return segments;
+        }
+    }
+
+    /**
+     * @param sessions looks up sessions by id, may return null for unknown ones
+     */
+    public SessionMetricsAggregator(MetricsRingBuffer ring, Function<String, Session> sessions) {
+        this.ring = ring;
+        this.sessions = sessions;
+        this.thread = new Thread(this, "session-metrics");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Wakes the thread if it is parked, called by producers after publishing.
+     */
+    public void signal() {
+        if (idle) {
+            idle = false;
+            LockSupport.unpark(thread);
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                if (ring.drain(this::fold, BATCH_SIZE) == 0) {
+                    idle = true;
+                    // a record claimed after the drain is seen here, or its producer sees the flag
+                    if (ring.published() == ring.consumed() && running) {
+                        LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                    }
+                    idle = false;
+                }
+            } catch (RuntimeException e) {
+                logger.warn("Failed to aggregate session metrics", e);
+            }
+        }
+    }
+
+    private void fold(String sessionId, String quality, String chunk, long bytes) {
+        Session session = sessions.apply(sessionId);
+        if (session != null) {
+            session.getMetrics(quality).update(chunk, bytes);
+        }
+        QualityTotals qualityTotals = totals.get(quality);
+        if (qualityTotals == null) {
+            qualityTotals = totals.computeIfAbsent(quality, q -> new QualityTotals());
+        }
+        qualityTotals.bytes = qualityTotals.bytes + bytes;
+        qualityTotals.segments = qualityTotals.segments + 1;
+    }
+
+    /**
+     * Waits until every record published before the call has been aggregated.
+     */
+    public void flush() {
+        long target = ring.published();
+        while (ring.consumed() < target && thread.isAlive()) {
+            LockSupport.unpark(thread);
+            LockSupport.parkNanos(100_000);
+        }
+    }
+
+    /**
+     * Snapshot of the transferred bytes per quality.
+     */
+    public Map<String, Long> bytesByQuality() {
+        Map<String, Long> snapshot = new HashMap<>();
+        totals.forEach((quality, t) -> snapshot.put(quality, t.getBytes()));
+        return snapshot;
+    }
+
+    public Map<String, QualityTotals> getTotals() {
+        return totals;
+    }
+}
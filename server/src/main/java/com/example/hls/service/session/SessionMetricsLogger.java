@@ -0,0 +1,22 @@
+package com.example.hls.service.session;
+
+import com.example.hls.model.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Logs the final metrics of expired sessions.
+ */
+@Component
+public class SessionMetricsLogger implements SessionExpiryListener {
+    private static final Logger logger = LoggerFactory.getLogger(SessionMetricsLogger.class);
+
+    @Override
+    public void onExpired(String sessionId, Session session) {
+        session.getQualities().forEach((quality, metrics) ->
+                logger.info("Session {} ended after {}s, quality {}: {} bytes, last chunk {}",
+                        sessionId, session.getListeningSeconds(), quality,
+                        metrics.getDownloadedBytes(), metrics.getLastDownloadedChunk()));
+    }
+}
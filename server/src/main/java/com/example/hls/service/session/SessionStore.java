@@ -0,0 +1,47 @@
+package com.example.hls.service.session;
+
+import com.example.hls.model.Session;
+
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Holds the live sessions of {@link com.example.hls.service.SessionService}.
+ * <p>
+ * Implementations must be safe for concurrent use. Sessions stay mutable objects on
+ * the heap, a persistent store saves their state on {@link #checkpoint()} and hands
+ * them back after a restart, possibly only once they are asked for again.
+ */
+public interface SessionStore {
+
+    Session get(String id);
+
+    /**
+     * Returns the session for the id, creating and storing it with the factory if missing.
+     */
+    Session computeIfAbsent(String id, Function<String, Session> factory);
+
+    /**
+     * Removes the session if the id is still mapped to it.
+     */
+    boolean remove(String id, Session session);
+
+    int size();
+
+    void forEach(BiConsumer<String, Session> action);
+
+    /**
+     * Registers a callback for sessions a persistent store brings back from a previous run.
+     */
+    default void onRestore(BiConsumer<String, Session> listener) {
+    }
+
+    /**
+     * Persists the current state of all sessions, a no-op for in-memory stores.
+     */
+    default void checkpoint() {
+    }
+
+    default void close() {
+    }
+}
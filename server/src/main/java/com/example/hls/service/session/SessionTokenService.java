@@ -1,47 +1,169 @@
 package com.example.hls.service.session;
 
+import com.example.hls.model.CacheStats;
+import com.example.hls.service.metrics.PipelineMetrics;
 import com.zenomedia.session.common.SessionTokenManager;
 import com.zenomedia.session.common.model.SessionTokenParams;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
-import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Decodes and verifies session tokens.
+ * <p>
+ * A viewer sends the same token with every playlist poll, so verified parameters are
+ * cached by token until the token expires. Expired tokens are decoded on every use
+ * and never cached.
+ */
 @Service
 public class SessionTokenService {
     private static final Logger logger = LoggerFactory.getLogger(SessionTokenService.class);
 
     private final SessionTokenManager sessionTokenManager;
     private final Set<String> serverHostNames;
+    private final PipelineMetrics metrics;
+    private final int maxEntries;
+    private final Map<String, SessionTokenParams> verified = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
 
-    @Autowired
     public SessionTokenService(final SessionTokenManager sessionTokenManager,
                                final Set<String> serverHostNames) {
+        this(sessionTokenManager, serverHostNames, 100_000);
+    }
+
+    public SessionTokenService(final SessionTokenManager sessionTokenManager,
+                               final Set<String> serverHostNames,
+                               int maxEntries) {
+        this(sessionTokenManager, serverHostNames, PipelineMetrics.simple(), maxEntries);
+    }
+
+    @Autowired
+    public SessionTokenService(final SessionTokenManager sessionTokenManager,
+                               final Set<String> serverHostNames,
+                               final PipelineMetrics metrics,
+                               @Value("${hls.session-token.max-entries:100000}") int maxEntries) {
         this.sessionTokenManager = sessionTokenManager;
         this.serverHostNames = serverHostNames;
+        this.metrics = metrics;
+        this.maxEntries = maxEntries;
     }
 
-    public boolean isValid(final String token, final String stream) {
+    /**
+     * Returns whether the decoded token was issued for the stream by one of this server's hosts
+     * and has not expired.
+     */
+    public boolean isValid(final SessionTokenParams params, final String stream) {
+        return params.getExpiration() > System.currentTimeMillis()
+                && Objects.equals(stream, params.getStream())
+                && serverHostNames.contains(params.getHost());
+    }
+
+    /**
+     * Returns the parameters of the token, decoding it on the calling thread on a cache miss.
+     *
+     * @return {@code null} if there is no token or it cannot be decoded
+     */
+    public SessionTokenParams getParams(final String token) {
         if (!StringUtils.hasText(token)) {
-            return false;
+            return null;
         }
+        SessionTokenParams cached = cached(token, System.currentTimeMillis());
+        return cached != null ? cached : decode(token);
+    }
 
-        long now = System.currentTimeMillis();
-        final SessionTokenParams params = getParams(token);
-        logger.info("Params {}", params);
-        logger.info("Expired: {}", params.getExpiration() > now);
-        logger.info("Stream equals {}", Objects.equals(stream, params.getStream()));
-        logger.info("Hostnames contains {}", serverHostNames.contains(params.getHost()));
+    /**
+     * Returns the parameters of the token. A cache miss is decoded on the bounded elastic
+     * scheduler, keeping signature verification off the event loop.
+     *
+     * @return empty if there is no token or it cannot be decoded
+     */
+    public Mono<SessionTokenParams> resolve(final String token) {
+        if (!StringUtils.hasText(token)) {
+            return Mono.empty();
+        }
+        SessionTokenParams cached = cached(token, System.currentTimeMillis());
+        if (cached != null) {
+            return Mono.just(cached);
+        }
+        return Mono.fromCallable(() -> decode(token)).subscribeOn(Schedulers.boundedElastic());
+    }
 
-        return true;
+    private SessionTokenParams cached(String token, long now) {
+        SessionTokenParams params = verified.get(token);
+        if (params == null) {
+            return null;
+        }
+        if (params.getExpiration() <= now) {
+            verified.remove(token, params);
+            return null;
+        }
+        hits.incrementAndGet();
+        return params;
     }
 
-    public SessionTokenParams getParams(final String token) {
-        return sessionTokenManager.getParams(token);
+    private SessionTokenParams decode(String token) {
+        misses.incrementAndGet();
+        long started = System.nanoTime();
+        SessionTokenParams params;
+        try {
+            params = sessionTokenManager.getParams(token);
+        } catch (RuntimeException e) {
+            logger.debug("Session token could not be decoded: {}", e.getMessage());
+            params = null;
+        }
+        // only misses are timed, a cached token costs a map lookup
+        metrics.timer(PipelineMetrics.Stage.TOKEN_VALIDATION, params != null ? params.getStream() : null, null)
+                .record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        if (params != null && params.getExpiration() > System.currentTimeMillis()) {
+            verified.put(token, params);
+            if (verified.size() > maxEntries) {
+                evictSoonestExpiring();
+            }
+        }
+        return params;
+    }
+
+    private void evictSoonestExpiring() {
+        int excess = verified.size() - maxEntries;
+        if (excess <= 0) {
+            return;
+        }
+        // evict a tenth at once so the scan is not repeated for every new token
+        verified.entrySet().stream()
+                .sorted(Comparator.comparingLong(e -> e.getValue().getExpiration()))
+                .limit(excess + maxEntries / 10)
+                .forEach(e -> {
+                    if (verified.remove(e.getKey(), e.getValue())) {
+                        evictions.incrementAndGet();
+                    }
+                });
+    }
+
+    /**
+     * Drops tokens that expired since they were verified.
+     */
+    @Scheduled(fixedDelay = 60_000)
+    public void cleanUp() {
+        long now = System.currentTimeMillis();
+        int before = verified.size();
+        verified.values().removeIf(params -> params.getExpiration() <= now);
+        logger.debug("Dropped {} expired session tokens", before - verified.size());
+    }
+
+    public CacheStats stats() {
+        return new CacheStats(hits.get(), misses.get(), 0, 0, evictions.get(), verified.size(), 0);
     }
 }
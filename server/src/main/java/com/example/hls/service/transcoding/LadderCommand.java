@@ -0,0 +1,140 @@
+package com.example.hls.service.transcoding;
+
+import com.example.hls.config.TranscodingProperties.Ladder;
+import com.example.hls.config.TranscodingProperties.Rendition;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringJoiner;
+
+/**
+ * Builds the ffmpeg command transcoding one input into all renditions of a ladder.
+ * <p>
+ * The input is opened and decoded once, {@code split} and {@code asplit} fan the decoded
+ * video and audio out to one encoder per rendition. CMAF ladders write an fMP4 init segment
+ * and {@code .m4s} media segments per rendition. Their input is stamped with wall clock time
+ * and segments carry program date times, so the media timestamps line up with the DASH
+ * timeline built from the program date times.
+ */
+public final class LadderCommand {
+
+    private LadderCommand() {
+    }
+
+    public static List<String> build(String ffmpegPath, String inputUrl, String streamPath, Ladder ladder) {
+        List<Rendition> renditions = ladder.renditions();
+        if (renditions.isEmpty()) {
+            throw new IllegalArgumentException("Ladder without renditions");
+        }
+        long videoCount = renditions.stream().filter(Rendition::hasVideo).count();
+        long audioCount = renditions.stream().filter(Rendition::hasAudio).count();
+
+        List<String> filters = new ArrayList<>();
+        if (videoCount > 0) {
+            filters.add("[0:v]split=" + videoCount + labels("v", videoCount));
+        }
+        if (audioCount > 0) {
+            filters.add("[0:a]asplit=" + audioCount + labels("a", audioCount));
+        }
+
+        List<String> outputs = new ArrayList<>();
+        StringJoiner streamMap = new StringJoiner(" ");
+        int v = 0;
+        int a = 0;
+        for (Rendition rendition : renditions) {
+            StringJoiner variant = new StringJoiner(",");
+            if (rendition.hasVideo()) {
+                String source = "[v" + v + "]";
+                if (rendition.width() != null && rendition.height() != null) {
+                    filters.add(source + "scale=" + rendition.width() + ":" + rendition.height() + "[v" + v + "s]");
+                    source = "[v" + v + "s]";
+                }
+                outputs.addAll(List.of("-map", source,
+                        "-c:v:" + v, rendition.videoCodec(),
+                        "-preset:v:" + v, ladder.preset(),
+                        "-g:v:" + v, String.valueOf(ladder.gop()),
+                        "-keyint_min:v:" + v, String.valueOf(ladder.gop()),
+                        "-sc_threshold:v:" + v, "0",
+                        // a key frame at every segment boundary, also with wall clock timestamps of CMAF input
+                        "-force_key_frames:v:" + v, forceKeyFrames(ladder)));
+                if (rendition.videoBitrate() != null) {
+                    outputs.addAll(List.of("-b:v:" + v, rendition.videoBitrate()));
+                }
+                variant.add("v:" + v++);
+            }
+            if (rendition.hasAudio()) {
+                outputs.addAll(List.of("-map", "[a" + a + "]", "-c:a:" + a, rendition.audioCodec()));
+                if (rendition.audioBitrate() != null) {
+                    outputs.addAll(List.of("-b:a:" + a, rendition.audioBitrate()));
+                }
+                variant.add("a:" + a++);
+            }
+            streamMap.add(variant.add("name:" + rendition.name()).toString());
+        }
+
+        List<String> command = new ArrayList<>();
+        command.add(ffmpegPath);
+        if (ladder.isCmaf()) {
+            command.addAll(List.of("-use_wallclock_as_timestamps", "1", "-copyts"));
+        }
+        command.add("-i");
+        command.add(inputUrl);
+        command.add("-filter_complex");
+        command.add(String.join(";", filters));
+        command.addAll(outputs);
+        command.add("-var_stream_map");
+        command.add(streamMap.toString());
+        command.add("-master_pl_name");
+        command.add("master.m3u8");
+        command.add("-hls_segment_filename");
+        command.add(String.format("%s/%%v/segment_%%03d.%s", streamPath, segmentExtension(ladder)));
+        command.add("-f");
+        command.add("hls");
+        if (ladder.isCmaf()) {
+            command.add("-hls_segment_type");
+            command.add("fmp4");
+            command.add("-hls_fmp4_init_filename");
+            command.add("init.mp4");
+        }
+        if (ladder.isLowLatency()) {
+            // every part is cut as a segment of its own, the server groups them into full segments.
+            // Parts are cut by time, only the first part of a segment starts on a forced key frame.
+            // A part is written to a temporary file and renamed when complete, the hinted part is
+            // never visible half written.
+            command.add("-hls_time");
+            command.add(String.valueOf((double) ladder.segmentSeconds() / ladder.partsPerSegment()));
+            command.add("-hls_flags");
+            command.add("delete_segments+append_list+split_by_time+temp_file" + (ladder.isCmaf() ? "+program_date_time" : ""));
+            command.add("-hls_list_size");
+            command.add(String.valueOf(ladder.listSize() * ladder.partsPerSegment()));
+        } else {
+            command.add("-hls_time");
+            command.add(String.valueOf(ladder.segmentSeconds()));
+            command.add("-hls_flags");
+            command.add("delete_segments+append_list+independent_segments" + (ladder.isCmaf() ? "+program_date_time" : ""));
+            command.add("-hls_list_size");
+            command.add(String.valueOf(ladder.listSize()));
+        }
+        command.add(String.format("%s/%%v/playlist.m3u8", streamPath));
+        return command;
+    }
+
+    private static String forceKeyFrames(Ladder ladder) {
+        return "expr:if(isnan(prev_forced_t),1,gte(t-prev_forced_t," + ladder.segmentSeconds() + "))";
+    }
+
+    private static String segmentExtension(Ladder ladder) {
+        if (ladder.isCmaf()) {
+            return "m4s";
+        }
+        return ladder.hasVideo() ? "ts" : "aac";
+    }
+
+    private static String labels(String prefix, long count) {
+        StringBuilder labels = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            labels.append('[').append(prefix).append(i).append(']');
+        }
+        return labels.toString();
+    }
+}
@@ -0,0 +1,261 @@
+package com.example.hls.service.transcoding;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * One ffmpeg process transcoding a stream, restarted with exponential backoff when it
+ * exits abnormally until the stream is stopped.
+ * <p>
+ * The combined output of ffmpeg is drained on a virtual thread, otherwise a full pipe
+ * blocks the encoder. Output is logged at a limited rate and the last lines are kept,
+ * they are logged when the process fails.
+ */
+public class TranscoderProcess {
+    private static final Logger logger = LoggerFactory.getLogger(TranscoderProcess.class);
+    private static final int TAIL_LINES = 20;
+    private static final long STOP_GRACE_MILLIS = 5_000;
+
+    /**
+     * @param newestOutputMillis modification time of the newest file in the output directory, 0 if there is none
+     */
+    public record Status(String stream, long pid, boolean running, int restarts, long startedAt,
+                         long newestOutputMillis) {
+    }
+
+    /**
+     * Restart and logging limits shared by all transcoders.
+     *
+     * @param initialBackoffMillis delay before the first restart, doubled for every further failure
+     * @param maxBackoffMillis     upper bound of the delay, a run longer than this resets the backoff
+     * @param maxRestarts          consecutive failed runs after which the stream is given up
+     * @param logLinesPerMinute    output lines logged per minute, the rest is only counted
+     */
+    public record Settings(long initialBackoffMillis, long maxBackoffMillis, int maxRestarts, int logLinesPerMinute) {
+    }
+
+    private final String stream;
+    private final List<String> command;
+    private final Path outputDir;
+    private final Settings settings;
+    private final ScheduledExecutorService scheduler;
+    private final ArrayDeque<String> tail = new ArrayDeque<>(TAIL_LINES);
+    private final AtomicInteger restarts = new AtomicInteger();
+
+    private Process process;
+    private int consecutiveFailures;
+    private boolean restartRequested;
+    private volatile boolean stopped;
+    private volatile long startedAt;
+
+    public TranscoderProcess(String stream, List<String> command, Path outputDir, Settings settings,
+                             ScheduledExecutorService scheduler) {
+        this.stream = stream;
+        this.command = List.copyOf(command);
+        this.outputDir = outputDir;
+        this.settings = settings;
+        this.scheduler = scheduler;
+    }
+
+    public String getStream() {
+        return stream;
+    }
+
+    public synchronized void start() {
+        if (stopped) {
+            return;
+        }
+        try {
+            logger.info("Starting ffmpeg for {}: {}", stream, String.join(" ", command));
+            Process started = new ProcessBuilder(command).redirectErrorStream(true).start();
+            process = started;
+            startedAt = System.currentTimeMillis();
+            restartRequested = false;
+            synchronized (tail) {
+                tail.clear();
+            }
+            Thread.ofVirtual().name("ffmpeg-" + stream).start(() -> drain(started));
+            started.onExit().thenAccept(this::exited);
+        } catch (IOException e) {
+            logger.error("ffmpeg for {} could not be started", stream, e);
+            scheduleRestart(false);
+        }
+    }
+
+    private void exited(Process exited) {
+        int exit = exited.exitValue();
+        synchronized (this) {
+            if (exited != process) {
+                return;
+            }
+            if (stopped) {
+                logger.info("ffmpeg for {} stopped", stream);
+                return;
+            }
+            // ffmpeg exits with 0 when the input ended, the publish done hook follows
+            if (exit == 0 && !restartRequested) {
+                logger.info("ffmpeg for {} finished", stream);
+                return;
+            }
+            logger.warn("ffmpeg for {} exited with status {}, last output:\n{}", stream, exit, tail());
+            scheduleRestart(true);
+        }
+    }
+
+    /**
+     * @param ran whether the process was running, a start that failed never resets the backoff
+     */
+    private synchronized void scheduleRestart(boolean ran) {
+        if (stopped) {
+            return;
+        }
+        if (ran && System.currentTimeMillis() - startedAt >= settings.maxBackoffMillis()) {
+            consecutiveFailures = 0;
+        }
+        consecutiveFailures++;
+        if (consecutiveFailures > settings.maxRestarts()) {
+            logger.error("Giving up ffmpeg for {} after {} failed runs", stream, consecutiveFailures);
+            return;
+        }
+        long delay = Math.min(settings.initialBackoffMillis() << Math.min(consecutiveFailures - 1, 20),
+                settings.maxBackoffMillis());
+        restarts.incrementAndGet();
+        logger.info("Restarting ffmpeg for {} in {} ms", stream, delay);
+        scheduler.schedule(this::start, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Kills the running process, it is started again like after a crash. A process that
+     * hangs and ignores the termination request is killed forcibly after a grace period.
+     */
+    public synchronized void restart(String reason) {
+        if (stopped || process == null || !process.isAlive()) {
+            return;
+        }
+        logger.warn("Restarting ffmpeg for {}: {}", stream, reason);
+        restartRequested = true;
+        terminate(process);
+    }
+
+    /**
+     * Stops the process for good, killing it if it does not exit within a grace period.
+     */
+    public void stop() {
+        Process running;
+        synchronized (this) {
+            stopped = true;
+            running = process;
+        }
+        if (running == null || !running.isAlive()) {
+            return;
+        }
+        terminate(running);
+    }
+
+    private void terminate(Process running) {
+        running.destroy();
+        running.onExit()
+                .orTimeout(STOP_GRACE_MILLIS, TimeUnit.MILLISECONDS)
+                .exceptionally(timeout -> {
+                    logger.warn("ffmpeg for {} did not exit, killing it", stream);
+                    running.destroyForcibly();
+                    return running;
+                });
+    }
+
+    public synchronized boolean isRunning() {
+        return process != null && process.isAlive();
+    }
+
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    private void drain(Process source) {
+        long windowStart = System.currentTimeMillis();
+        int logged = 0;
+        long suppressed = 0;
+        try (BufferedReader reader = source.inputReader()) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                synchronized (tail) {
+                    if (tail.size() == TAIL_LINES) {
+                        tail.removeFirst();
+                    }
+                    tail.addLast(line);
+                }
+                long now = System.currentTimeMillis();
+                if (now - windowStart >= 60_000) {
+                    if (suppressed > 0) {
+                        logger.info("[{}] {} ffmpeg output lines not logged", stream, suppressed);
+                    }
+                    windowStart = now;
+                    logged = 0;
+                    suppressed = 0;
+                }
+                if (logged < settings.logLinesPerMinute()) {
+                    logged++;
+                    logger.info("[{}] {}", stream, line);
+                } else {
+                    suppressed++;
+                }
+            }
+        } catch (IOException e) {
+            // the stream closes when the process is destroyed
+            logger.debug("ffmpeg output of {} closed: {}", stream, e.getMessage());
+        }
+    }
+
+    private String tail() {
+        synchronized (tail) {
+            return String.join("\n", tail);
+        }
+    }
+
+    /**
+     * Modification time of the newest file written by the transcoder, 0 if there is none yet.
+     */
+    public long newestOutputMillis() {
+        if (!Files.isDirectory(outputDir)) {
+            return 0;
+        }
+        // the output directory holds one sub directory per rendition
+        try (Stream<Path> files = Files.walk(outputDir, 2)) {
+            return files.filter(Files::isRegularFile)
+                    .mapToLong(file -> {
+                        try {
+                            return Files.getLastModifiedTime(file).toMillis();
+                        } catch (IOException e) {
+                            // deleted by the transcoder in the meantime
+                            return 0;
+                        }
+                    })
+                    .max()
+                    .orElse(0);
+        } catch (IOException | UncheckedIOException e) {
+            logger.debug("Could not scan output of {}: {}", stream, e.getMessage());
+            return 0;
+        }
+    }
+
+    public Status status() {
+        Process current;
+        synchronized (this) {
+            current = process;
+        }
+        return new Status(stream, current != null ? current.pid() : -1, current != null && current.isAlive(),
+                restarts.get(), startedAt, newestOutputMillis());
+    }
+}
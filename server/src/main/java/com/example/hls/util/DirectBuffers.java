@@ -0,0 +1,42 @@
+package com.example.hls.util;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Helpers for keeping response bodies outside of the Java heap.
+ */
+public final class DirectBuffers {
+
+    private DirectBuffers() {
+    }
+
+    /**
+     * Aggregates the body into a read-only direct buffer and releases the source buffers.
+     */
+    public static Mono<ByteBuffer> copyOf(Flux<DataBuffer> body) {
+        return DataBufferUtils.join(body)
+                .map(joined -> {
+                    try {
+                        int size = joined.readableByteCount();
+                        ByteBuffer data = ByteBuffer.allocateDirect(size);
+                        joined.toByteBuffer(0, data, 0, size);
+                        return data.asReadOnlyBuffer();
+                    } finally {
+                        DataBufferUtils.release(joined);
+                    }
+                });
+    }
+
+    /**
+     * Wraps a shared buffer for one response, every subscriber reads through its own view.
+     */
+    public static Flux<DataBuffer> asBody(ByteBuffer data) {
+        return Flux.defer(() -> Flux.just(DefaultDataBufferFactory.sharedInstance.wrap(data.duplicate())));
+    }
+}
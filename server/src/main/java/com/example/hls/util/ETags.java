@@ -0,0 +1,48 @@
+package com.example.hls.util;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32C;
+
+/**
+ * Strong entity tags of segment content, sent so players and caches in front of the
+ * server can revalidate a segment without downloading it again.
+ */
+public final class ETags {
+
+    private ETags() {
+    }
+
+    /**
+     * Tag of the buffer content, a CRC32C checksum together with the length. Computed once
+     * when the content is cached, not per response.
+     */
+    public static String of(ByteBuffer data) {
+        CRC32C checksum = new CRC32C();
+        checksum.update(data.duplicate());
+        return "\"" + Long.toHexString(checksum.getValue()) + "-" + Integer.toHexString(data.remaining()) + "\"";
+    }
+
+    /**
+     * Tag of a file from its modification time and length, like the one nginx sends.
+     */
+    public static String of(long lastModifiedMillis, long size) {
+        return "\"" + Long.toHexString(lastModifiedMillis / 1000) + "-" + Long.toHexString(size) + "\"";
+    }
+
+    /**
+     * Whether one of the tags of an {@code If-None-Match} header matches, by weak comparison.
+     */
+    public static boolean matches(Iterable<String> ifNoneMatch, String etag) {
+        String tag = weak(etag);
+        for (String candidate : ifNoneMatch) {
+            if (candidate.equals("*") || weak(candidate).equals(tag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String weak(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.hls.util;
+
+/**
+ * Helpers for the segment file names written by ffmpeg, e.g. {@code segment_012.ts} or {@code segment_012.m4s}.
+ */
+public final class SegmentNames {
+
+    private SegmentNames() {
+    }
+
+    /**
+     * Returns the sequence number of a segment name, parsed from the last run of digits
+     * before the extension without allocating, or -1 if the name carries none. The
+     * extension is skipped since {@code .m4s} and {@code .mp4} carry digits themselves.
+     */
+    public static long sequenceOf(CharSequence name) {
+        int end = name.length();
+        for (int i = end - 1; i >= 0 && name.charAt(i) != '/'; i--) {
+            if (name.charAt(i) == '.') {
+                end = i;
+                break;
+            }
+        }
+        while (end > 0 && !Character.isDigit(name.charAt(end - 1))) {
+            end--;
+        }
+        int start = end;
+        while (start > 0 && Character.isDigit(name.charAt(start - 1))) {
+            start--;
+        }
+        if (start == end) {
+            return -1;
+        }
+        long sequence = 0;
+        for (int i = start; i < end; i++) {
+            sequence = sequence * 10 + (name.charAt(i) - '0');
+        }
+        return sequence;
+    }
+}
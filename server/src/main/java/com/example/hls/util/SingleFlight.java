@@ -0,0 +1,74 @@
+package com.example.hls.util;
+
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Collapses concurrent loads of the same key into a single in-flight call.
+ * <p>
+ * The first caller for a key subscribes to the loader, every caller arriving while
+ * that load is running joins its result. The load is detached from the callers, so
+ * a viewer cancelling its request does not cancel the fetch the others wait for. It runs
+ * with the Reactor context of the first caller, e.g. bounded by that request's deadline.
+ */
+public final class SingleFlight<K, V> {
+    private final Map<K, CompletableFuture<V>> calls = new ConcurrentHashMap<>();
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong joined = new AtomicLong();
+
+    public Mono<V> execute(K key, Supplier<Mono<V>> loader) {
+        return Mono.deferContextual(context -> {
+            CompletableFuture<V> call = new CompletableFuture<>();
+            CompletableFuture<V> existing = calls.putIfAbsent(key, call);
+            if (existing != null) {
+                joined.incrementAndGet();
+                return Mono.fromFuture(existing, true);
+            }
+            started.incrementAndGet();
+            try {
+                loader.get().contextWrite(context).subscribe(
+                        value -> complete(key, call, value),
+                        error -> {
+                            calls.remove(key, call);
+                            call.completeExceptionally(error);
+                        },
+                        () -> complete(key, call, null));
+            } catch (RuntimeException e) {
+                calls.remove(key, call);
+                call.completeExceptionally(e);
+            }
+            return Mono.fromFuture(call, true);
+        });
+    }
+
+    private void complete(K key, CompletableFuture<V> call, V value) {
+        calls.remove(key, call);
+        call.complete(value);
+    }
+
+    /**
+     * Whether a load for the key is currently running.
+     */
+    public boolean isInFlight(K key) {
+        return calls.containsKey(key);
+    }
+
+    /**
+     * Number of loads that actually reached the loader.
+     */
+    public long getStarted() {
+        return started.get();
+    }
+
+    /**
+     * Number of callers that joined a load started by someone else.
+     */
+    public long getJoined() {
+        return joined.get();
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.hls;
+
+import com.example.hls.model.CacheStats;
+import com.example.hls.service.cache.AdCreativeCache;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.netty.ByteBufFlux;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdCreativeCacheTests {
+
+    @Test
+    void decidedCreativesAreEvictedLeastRecentlyUsedFirst() {
+        Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+        // ad origin answering every creative with 1000 bytes
+        DisposableServer server = HttpServer.create()
+                .port(0)
+                .handle((req, res) -> {
+                    requests.computeIfAbsent(req.path(), path -> new AtomicInteger()).incrementAndGet();
+                    return res.send(ByteBufFlux.fromString(Flux.just("x".repeat(1000))));
+                })
+                .bindNow();
+
+        AdCreativeCache cache = new AdCreativeCache(WebClient.create(), "http://localhost:" + server.port() + "/ads",
+                List.of("720p"), List.of(), List.of("ad-0"), 3000);
+        cache.reload().block();
+        cache.get("720p", "c1-0.ts").block();
+        cache.get("720p", "c2-0.ts").block();
+        // c1 was served again, c2 is the least recently used one
+        cache.get("720p", "c1-0.ts").block();
+        cache.get("720p", "c3-0.ts").block();
+
+        CacheStats stats = cache.stats();
+        assertEquals(1, stats.evictions());
+        assertEquals(3, stats.entries());
+        assertEquals(3000, stats.bytes());
+
+        cache.get("720p", "ad-0.ts").block();
+        cache.get("720p", "c1-0.ts").block();
+        cache.get("720p", "c2-0.ts").block();
+        assertEquals(1, requests.get("ads/720p/ad-0.ts").get());
+        assertEquals(1, requests.get("ads/720p/c1-0.ts").get());
+        assertEquals(2, requests.get("ads/720p/c2-0.ts").get());
+        // the configured creative stays pinned however the others are used
+        assertEquals(2, cache.stats().evictions());
+        assertEquals(3000, cache.stats().bytes());
+        server.disposeNow();
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.hls;
+
+import com.example.hls.model.Session;
+import com.example.hls.model.ad.AdDetails;
+import com.example.hls.model.ad.AdResponse;
+import com.example.hls.model.ad.AdSegment;
+import com.example.hls.model.ad.SessionContext;
+import com.example.hls.service.AdDecisionService;
+import com.example.hls.service.AdMediaService;
+import com.zenomedia.common.model.ads.AdCatalogItem;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class AdDecisionServiceTests {
+
+    private static final List<String> DEFAULT_POD = List.of("ad-0.ts", "ad-1.ts", "ad-2.ts");
+
+    @Test
+    void decidedCreativesAreStagedAheadOfTheBreak() {
+        AdDetails details = new AdDetails();
+        details.setDuration(12);
+        details.setUrl("http://ads/creative.mp3");
+        AdResponse response = new AdResponse();
+        response.setAdDetailsList(List.of(details));
+        AdCatalogItem item = mock(AdCatalogItem.class);
+        when(item.getContentHash()).thenReturn("c0ffee");
+        AdMediaService adMediaService = mock(AdMediaService.class);
+        when(adMediaService.getAd(anyString(), anyLong(), anyBoolean(), any())).thenReturn(Mono.just(response));
+        when(adMediaService.retrieveAdMediaForUrl("http://ads/creative.mp3")).thenReturn(Mono.just(item));
+
+        // a ten second lead is two segments before the break after six segments
+        AdDecisionService decisions = new AdDecisionService(adMediaService, true, 10_000, 2_000, 15, 5);
+        Session session = new Session(6);
+        for (int i = 0; i < 3; i++) {
+            decisions.segmentServed(session, "/1.2.3.4:50000", "1.2.3.4", session.incrementSegments());
+        }
+        verifyNoInteractions(adMediaService);
+
+        for (int i = 0; i < 3; i++) {
+            decisions.segmentServed(session, "/1.2.3.4:50000", "1.2.3.4", session.incrementSegments());
+        }
+        ArgumentCaptor<SessionContext> context = ArgumentCaptor.forClass(SessionContext.class);
+        verify(adMediaService, times(1)).getAd(anyString(), eq(15L), eq(false), context.capture());
+        assertEquals("/1.2.3.4:50000", context.getValue().getId());
+        assertEquals("1.2.3.4", context.getValue().getClientIp());
+        // the last segment holds the rest of the creative
+        assertEquals(List.of(new AdSegment("c0ffee", "c0ffee-0.ts", 5), new AdSegment("c0ffee", "c0ffee-1.ts", 5),
+                new AdSegment("c0ffee", "c0ffee-2.ts", 2)), session.getStagedAdSegments());
+        assertEquals(List.of("c0ffee-0.ts", "c0ffee-1.ts", "c0ffee-2.ts"), session.getNextAdSegments());
+        assertEquals(1, decisions.staged());
+
+        assertTrue(session.tryBeginAdInsertion());
+        session.completeAdInsertion();
+        assertEquals(DEFAULT_POD, session.getNextAdSegments());
+    }
+
+    @Test
+    void breaksWithoutDecisionUseTheDefaultSegments() {
+        AdMediaService adMediaService = mock(AdMediaService.class);
+        // the ad media service answers failed ad requests with an empty response
+        when(adMediaService.getAd(anyString(), anyLong(), anyBoolean(), any())).thenReturn(Mono.just(new AdResponse()));
+
+        AdDecisionService decisions = new AdDecisionService(adMediaService, true, 5_000, 2_000, 15, 5);
+        Session session = new Session(2);
+        decisions.segmentServed(session, "1.2.3.4", "1.2.3.4", session.incrementSegments());
+        assertFalse(session.hasStagedAdPod());
+        assertEquals(DEFAULT_POD, session.getNextAdSegments());
+        assertEquals(1, decisions.failed());
+
+        // a decision arriving after its break was inserted is not used for the next one
+        long adBreak = session.getAdBreakNumber();
+        session.incrementSegments();
+        assertTrue(session.tryBeginAdInsertion());
+        session.completeAdInsertion();
+        session.stageAdPod(adBreak, List.of(new AdSegment("late", "late-0.ts", 5)));
+        assertEquals(DEFAULT_POD, session.getNextAdSegments());
+    }
+}
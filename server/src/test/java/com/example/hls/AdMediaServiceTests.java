@@ -4,6 +4,7 @@ import com.example.hls.config.AdMediaConfiguration;
 import com.example.hls.model.ad.AdResponse;
 import com.example.hls.model.ad.SessionContext;
 import com.example.hls.service.AdMediaService;
+import com.example.hls.service.resilience.Upstreams;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.example.hls.util.JsonConverter;
 import org.junit.jupiter.api.Test;
@@ -38,7 +39,7 @@ class AdMediaServiceTests {
         ReflectionTestUtils.setField(config, "adProviderUrl", "http://localhost:" + server.port());
 
         WebClient client = WebClient.builder().baseUrl("http://localhost:" + server.port()).build();
-        AdMediaService service = new AdMediaService(client, config, new JsonConverter(new ObjectMapper()));
+        AdMediaService service = new AdMediaService(client, config, new JsonConverter(new ObjectMapper()), Upstreams.defaults());
 
         AdResponse response = service.getAd("b1", 30L, true, new SessionContext("s1", "1.1.1.1")).block();
 
@@ -58,7 +59,7 @@ class AdMediaServiceTests {
         ReflectionTestUtils.setField(config, "adProviderUrl", "http://localhost:" + server.port());
 
         WebClient client = WebClient.builder().baseUrl("http://localhost:" + server.port()).build();
-        AdMediaService service = new AdMediaService(client, config, new JsonConverter(new ObjectMapper()));
+        AdMediaService service = new AdMediaService(client, config, new JsonConverter(new ObjectMapper()), Upstreams.defaults());
 
         AdResponse response = service.getAd("b1", 30L, true, new SessionContext("s1", "1.1.1.1")).block();
 
@@ -79,7 +80,7 @@ class AdMediaServiceTests {
         ReflectionTestUtils.setField(config, "adProviderUrl", "http://localhost:" + server.port());
 
         WebClient client = WebClient.builder().baseUrl("http://localhost:" + server.port()).build();
-        AdMediaService service = new AdMediaService(client, config, new JsonConverter(new ObjectMapper()));
+        AdMediaService service = new AdMediaService(client, config, new JsonConverter(new ObjectMapper()), Upstreams.defaults());
 
         service.skipNext(new SessionContext("s1", "1.1.1.1")).block();
         server.disposeNow();
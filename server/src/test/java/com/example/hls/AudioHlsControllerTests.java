@@ -1,6 +1,7 @@
 package com.example.hls;
 
 import com.example.hls.controller.AudioHlsController;
+import com.example.hls.model.ServedPlaylist;
 import com.example.hls.service.HlsService;
 import com.example.hls.service.FfmpegService;
 import com.example.hls.service.session.SessionTokenService;
@@ -9,12 +10,16 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.reactive.WebFluxTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.CacheControl;
 import org.springframework.test.web.reactive.server.WebTestClient;
 
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.when;
 import reactor.core.publisher.Mono;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
 @WebFluxTest(AudioHlsController.class)
 class AudioHlsControllerTests {
 
@@ -32,8 +37,9 @@ class AudioHlsControllerTests {
 
     @BeforeEach
     void setup() {
-        when(hlsService.getPlaylist(anyString(), anyString(), anyString(), anyString()))
-                .thenReturn(Mono.just("playlist"));
+        when(hlsService.getPlaylist(anyString(), anyString(), anyString(), anyString(), any(), any()))
+                .thenReturn(Mono.just(new ServedPlaylist("playlist".getBytes(StandardCharsets.UTF_8),
+                        CacheControl.maxAge(Duration.ofSeconds(2)).cachePublic())));
     }
 
     @Test
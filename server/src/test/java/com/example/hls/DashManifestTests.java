@@ -0,0 +1,58 @@
+package com.example.hls;
+
+import com.example.hls.model.DashManifest;
+import com.example.hls.model.MediaPlaylist;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DashManifestTests {
+
+    private static final MediaPlaylist MASTER = MediaPlaylist.parse("""
+            #EXTM3U
+            #EXT-X-VERSION:7
+            #EXT-X-STREAM-INF:BANDWIDTH=2800000,RESOLUTION=1280x720,CODECS="avc1.64001f,mp4a.40.2"
+            720p/playlist.m3u8
+            #EXT-X-STREAM-INF:BANDWIDTH=192000,CODECS="mp4a.40.2"
+            high/playlist.m3u8
+            """);
+
+    private static final MediaPlaylist VIDEO = MediaPlaylist.parse("""
+            #EXTM3U
+            #EXT-X-VERSION:7
+            #EXT-X-TARGETDURATION:4
+            #EXT-X-MEDIA-SEQUENCE:12
+            #EXT-X-MAP:URI="init.mp4"
+            #EXT-X-PROGRAM-DATE-TIME:2024-05-01T10:00:00.000+0000
+            #EXTINF:4.000000,
+            segment_012.m4s
+            #EXT-X-PROGRAM-DATE-TIME:2024-05-01T10:00:04.000+0000
+            #EXTINF:4.000000,
+            segment_013.m4s
+            """);
+
+    @Test
+    void cmafRenditionsBecomeRepresentations() {
+        MediaPlaylist audio = MediaPlaylist.parse(VIDEO.render().replace("segment_", "a_"));
+
+        String mpd = DashManifest.render(MASTER, Map.of("720p/playlist.m3u8", VIDEO, "high/playlist.m3u8", audio), 0)
+                .orElseThrow();
+
+        assertTrue(mpd.contains("<Representation id=\"720p\" bandwidth=\"2800000\" width=\"1280\" height=\"720\" codecs=\"avc1.64001f,mp4a.40.2\">"));
+        assertTrue(mpd.contains("initialization=\"720p/init.mp4\" media=\"720p/segment_$Number%03d$.m4s\" startNumber=\"12\""));
+        assertTrue(mpd.contains("<S t=\"1714557600000\" d=\"4000\"/>"));
+        assertTrue(mpd.contains("<S t=\"1714557604000\" d=\"4000\"/>"));
+        assertTrue(mpd.contains("<AdaptationSet contentType=\"audio\" mimeType=\"audio/mp4\""));
+        assertTrue(mpd.contains("media=\"high/a_$Number%03d$.m4s\""));
+    }
+
+    @Test
+    void transportStreamRenditionsAreLeftOut() {
+        MediaPlaylist ts = MediaPlaylist.parse("#EXTM3U\n#EXT-X-TARGETDURATION:4\n#EXTINF:4.0,\nsegment_001.ts");
+
+        assertEquals(Optional.empty(), DashManifest.render(MASTER, Map.of("720p/playlist.m3u8", ts), 0));
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.hls;
+
+import com.example.hls.config.TranscodingProperties;
+import com.example.hls.service.FfmpegService;
+import com.example.hls.service.transcoding.TranscoderProcess;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FfmpegServiceTests {
+
+    private static final TranscodingProperties TRANSCODING = new TranscodingProperties(null, null, null, null);
+
+    @TempDir
+    Path output;
+
+    @Test
+    void crashedTranscoderIsRestartedWithBackoff() throws Exception {
+        FfmpegService service = new FfmpegService(output.toString(), "ffmpeg", TRANSCODING, 20, 1_000, 3, 30, 30_000);
+
+        service.supervise("s1", List.of("sh", "-c", "echo failing; exit 3"));
+
+        awaitTrue(() -> status(service).restarts() == 3 && !status(service).running());
+        Thread.sleep(500);
+        // given up after the third restart
+        assertEquals(3, status(service).restarts());
+        service.shutdown();
+    }
+
+    @Test
+    void transcoderThatCannotStartIsGivenUp() throws Exception {
+        FfmpegService service = new FfmpegService(output.toString(), "ffmpeg", TRANSCODING, 20, 1_000, 3, 30, 30_000);
+
+        service.supervise("s1", List.of(output.resolve("no-such-ffmpeg").toString()));
+
+        awaitTrue(() -> status(service).restarts() == 3);
+        Thread.sleep(500);
+        assertEquals(3, status(service).restarts());
+        service.shutdown();
+    }
+
+    @Test
+    void stalledTranscoderIsRestartedAndStoppedWhenDone() throws Exception {
+        FfmpegService service = new FfmpegService(output.toString(), "ffmpeg", TRANSCODING, 20, 1_000, 3, 30, 200);
+
+        service.supervise("s1", List.of("sleep", "30"));
+        awaitTrue(() -> status(service).running());
+        awaitTrue(() -> {
+            service.checkStalls();
+            return status(service).restarts() == 1;
+        });
+        awaitTrue(() -> status(service).running());
+        assertEquals(1, service.runningProcesses());
+
+        service.stopTranscoding("s1");
+
+        assertTrue(service.transcoders().isEmpty());
+        awaitTrue(() -> service.runningProcesses() == 0);
+        service.shutdown();
+    }
+
+    private static TranscoderProcess.Status status(FfmpegService service) {
+        return service.transcoders().get(0);
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "condition not met in time");
+            Thread.sleep(20);
+        }
+    }
+}
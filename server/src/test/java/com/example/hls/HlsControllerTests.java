@@ -1,18 +1,32 @@
 package com.example.hls;
 
 import com.example.hls.controller.HlsController;
+import com.example.hls.model.SegmentPayload;
+import com.example.hls.model.ServedPlaylist;
 import com.example.hls.service.HlsService;
 import com.example.hls.service.FfmpegService;
+import com.example.hls.service.cache.AdCreativeCache;
+import com.example.hls.service.session.SessionContextService;
 import com.example.hls.service.session.SessionTokenService;
+import com.zenomedia.session.common.model.SessionTokenParams;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.reactive.WebFluxTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.CacheControl;
 import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
 import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
@@ -33,20 +47,38 @@ class HlsControllerTests {
     @MockBean
     private FfmpegService ffmpegService;
 
+    @MockBean
+    private SessionContextService sessionContextService;
+
+    @MockBean
+    private AdCreativeCache adCreativeCache;
+
     @BeforeEach
     void setup() {
-        when(hlsService.getPlaylist(anyString(), anyString(), anyString(), anyString()))
-                .thenReturn(Mono.just("playlist"));
+        when(hlsService.getPlaylist(anyString(), anyString(), anyString(), anyString(), any(), any()))
+                .thenReturn(Mono.just(new ServedPlaylist("playlist".getBytes(StandardCharsets.UTF_8),
+                        CacheControl.maxAge(Duration.ofSeconds(2)).cachePublic())));
+        SessionTokenParams params = mock(SessionTokenParams.class);
+        when(params.getId()).thenReturn("s1");
+        when(tokenService.resolve(anyString())).thenReturn(Mono.empty());
+        when(tokenService.resolve("t1")).thenReturn(Mono.just(params));
     }
 
     @Test
     void returnsPlaylist() {
-        webClient.get().uri("/live/stream/foo/playlist.m3u8")
+        webClient.get().uri("/live/stream/foo/playlist.m3u8?zt=t1")
                 .exchange()
                 .expectStatus().isOk()
                 .expectBody(String.class).isEqualTo("playlist");
     }
 
+    @Test
+    void rejectsPlaylistWithUndecodableToken() {
+        webClient.get().uri("/live/stream/foo/playlist.m3u8?zt=garbage")
+                .exchange()
+                .expectStatus().isForbidden();
+    }
+
     @Test
     void returnsPlaylistWithQuality() {
         webClient.get().uri("/live/stream/foo/720p/playlist.m3u8")
@@ -55,6 +87,46 @@ class HlsControllerTests {
                 .expectBody(String.class).isEqualTo("playlist");
     }
 
+    @Test
+    void playlistCarriesTheCacheControlOfTheService() {
+        webClient.get().uri("/live/stream/foo/720p/playlist.m3u8")
+                .exchange()
+                .expectHeader().cacheControl(CacheControl.maxAge(Duration.ofSeconds(2)).cachePublic());
+    }
+
+    @Test
+    void segmentsAreImmutableAndRevalidatedByEtag() {
+        when(hlsService.getSegment(anyString(), anyString(), anyString(), anyString(), anyString()))
+                .thenAnswer(invocation -> Mono.just(new SegmentPayload.Buffers(
+                        Flux.just(DefaultDataBufferFactory.sharedInstance.wrap(new byte[188])), 188, "\"abc-bc\"")));
+
+        webClient.get().uri("/live/stream/foo/720p/segment_001.ts")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals("ETag", "\"abc-bc\"")
+                .expectHeader().valueEquals("Cache-Control", "max-age=31536000, public, immutable");
+
+        webClient.get().uri("/live/stream/foo/720p/segment_001.ts")
+                .header("If-None-Match", "\"abc-bc\"")
+                .exchange()
+                .expectStatus().isNotModified()
+                .expectBody().isEmpty();
+    }
+
+    @Test
+    void knownSegmentIsRevalidatedWithoutFetchingIt() {
+        when(hlsService.knownEtag("foo", "720p", "segment_001.ts")).thenReturn("\"abc-bc\"");
+
+        webClient.get().uri("/live/stream/foo/720p/segment_001.ts")
+                .header("If-None-Match", "\"abc-bc\"")
+                .exchange()
+                .expectStatus().isNotModified()
+                .expectHeader().valueEquals("ETag", "\"abc-bc\"")
+                .expectBody().isEmpty();
+
+        verify(hlsService, never()).getSegment(anyString(), anyString(), anyString(), anyString(), anyString());
+    }
+
     @Test
     void rejectsInvalidStreamOnValidate() {
         webClient.post().uri(uriBuilder -> uriBuilder.path("/live/stream/validate").queryParam("name", "bad").build())
@@ -68,4 +140,12 @@ class HlsControllerTests {
                 .exchange()
                 .expectStatus().isOk();
     }
+
+    @Test
+    void reloadsAdCreatives() {
+        when(adCreativeCache.reload()).thenReturn(Mono.empty());
+        webClient.post().uri("/live/stream/ads/reload")
+                .exchange()
+                .expectStatus().isOk();
+    }
 }
@@ -0,0 +1,135 @@
+package com.example.hls;
+
+import com.example.hls.config.AdMediaConfiguration;
+import com.example.hls.model.SegmentPayload;
+import com.example.hls.service.AdDecisionService;
+import com.example.hls.service.AdMediaService;
+import com.example.hls.service.HlsService;
+import com.example.hls.service.SessionService;
+import com.example.hls.service.cache.AdCreativeCache;
+import com.example.hls.service.cache.PlaylistCache;
+import com.example.hls.service.cache.SegmentCache;
+import com.example.hls.service.cache.SegmentPrefetcher;
+import com.example.hls.service.metrics.PipelineMetrics;
+import com.example.hls.service.origin.LocalSegmentOrigin;
+import com.example.hls.service.origin.SegmentIndex;
+import com.example.hls.service.resilience.Upstreams;
+import com.example.hls.util.JsonConverter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HlsServiceTests {
+
+    private static HlsService hlsService(String base, SessionService sessionService, LocalSegmentOrigin localSegmentOrigin) {
+        WebClient webClient = WebClient.create();
+        PlaylistCache playlists = new PlaylistCache(webClient, 2_500, 5);
+        // with the segment cache disabled every request is relayed from the origin
+        SegmentCache segments = new SegmentCache(false, 1024 * 1024, 8);
+        HlsService hlsService = new HlsService(webClient,
+                sessionService,
+                playlists,
+                localSegmentOrigin,
+                segments,
+                new AdCreativeCache(webClient, base + "/ads", List.of("720p"), List.of(), List.of("ad-0"), 1024 * 1024),
+                Upstreams.defaults(),
+                PipelineMetrics.simple(),
+                new SegmentIndex(false, "live"),
+                new SegmentPrefetcher(playlists, segments, webClient, Upstreams.defaults(), false, 8, 1024 * 1024, 0, 5),
+                new AdDecisionService(new AdMediaService(webClient, new AdMediaConfiguration(),
+                        new JsonConverter(new ObjectMapper()), Upstreams.defaults()), false, 10_000, 2_000, 15, 5));
+        ReflectionTestUtils.setField(hlsService, "originBaseUrl", base + "/hls");
+        ReflectionTestUtils.setField(hlsService, "segmentDurationSeconds", 5);
+        ReflectionTestUtils.setField(hlsService, "segmentDelivery", "streaming");
+        return hlsService;
+    }
+
+    @Test
+    void streamedSegmentIsRelayedAndCountedForTheSession() {
+        byte[] segment = new byte[3 * 65_536];
+        for (int i = 0; i < segment.length; i++) {
+            segment[i] = (byte) i;
+        }
+        // origin sending the segment in three chunks with a pause in between
+        DisposableServer origin = HttpServer.create()
+                .port(0)
+                .handle((req, res) -> res.header("Content-Length", String.valueOf(segment.length))
+                        .sendByteArray(Flux.range(0, 3)
+                                .delayElements(Duration.ofMillis(20))
+                                .map(i -> Arrays.copyOfRange(segment, i * 65_536, (i + 1) * 65_536))))
+                .bindNow();
+        String base = "http://localhost:" + origin.port();
+        SessionService sessionService = new SessionService();
+        HlsService hlsService = hlsService(base, sessionService, new LocalSegmentOrigin(false, "live", 262_144, 60_000));
+
+        SegmentPayload payload = hlsService.getSegment("foo", "segment_001", "720p", "user-1").block();
+        assertEquals(segment.length, payload.contentLength());
+        // nothing is counted before the body was sent
+        sessionService.flushMetrics();
+        assertEquals(0, sessionService.getSession("user-1").getMetrics("720p").getDownloadedBytes());
+
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        long chunks = ((SegmentPayload.Buffers) payload).body()
+                .doOnNext(buffer -> {
+                    byte[] bytes = new byte[buffer.readableByteCount()];
+                    buffer.read(bytes);
+                    received.writeBytes(bytes);
+                    DataBufferUtils.release(buffer);
+                })
+                .count()
+                .block();
+        sessionService.flushMetrics();
+
+        assertTrue(chunks > 1);
+        assertArrayEquals(segment, received.toByteArray());
+        assertEquals(segment.length, sessionService.getSession("user-1").getMetrics("720p").getDownloadedBytes());
+        sessionService.shutdown();
+        origin.disposeNow();
+    }
+
+    @Test
+    void segmentMissingLocallyIsFetchedFromOrigin(@TempDir Path output) throws Exception {
+        Files.write(Files.createDirectories(output.resolve("foo/720p")).resolve("segment_001.ts"), new byte[100]);
+        Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+        DisposableServer origin = HttpServer.create()
+                .port(0)
+                .handle((req, res) -> {
+                    requests.computeIfAbsent(req.path(), path -> new AtomicInteger()).incrementAndGet();
+                    return res.header("Content-Length", "300").sendByteArray(Mono.just(new byte[300]));
+                })
+                .bindNow();
+        SessionService sessionService = new SessionService();
+        HlsService hlsService = hlsService("http://localhost:" + origin.port(), sessionService,
+                new LocalSegmentOrigin(true, output.toString(), 1024, 60_000));
+
+        SegmentPayload local = hlsService.getSegment("foo", "segment_001", "720p", "user-1").block();
+        SegmentPayload fetched = hlsService.getSegment("foo", "segment_002", "720p", "user-1").block();
+
+        assertEquals(100, local.contentLength());
+        assertEquals(300, fetched.contentLength());
+        ((SegmentPayload.Buffers) fetched).body().map(DataBufferUtils::release).blockLast();
+        assertNull(requests.get("hls/foo/720p/segment_001.ts"));
+        assertEquals(1, requests.get("hls/foo/720p/segment_002.ts").get());
+        sessionService.shutdown();
+        origin.disposeNow();
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.hls;
+
+import com.example.hls.config.HttpClientProperties;
+import com.example.hls.config.WebClientConfiguration;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import org.junit.jupiter.api.Test;
+import reactor.netty.http.Http2SslContextSpec;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HttpClientPropertiesTests {
+
+    private static HttpClient httpClient(String protocol) throws Exception {
+        HttpClientProperties.Pool pool = new HttpClientProperties.Pool(0, 0, 0, 0, 0, 0, null, 0, protocol);
+        SslContext sslContext = SslContextBuilder.forClient().build();
+        return WebClientConfiguration.httpClient(pool, ConnectionProvider.newConnection(), sslContext,
+                Http2SslContextSpec.forClient());
+    }
+
+    @Test
+    void upstreamsWithoutEntryUseDefaults() {
+        HttpClientProperties properties = new HttpClientProperties(null);
+
+        HttpClientProperties.Pool pool = properties.pool("origin");
+        assertEquals(100, pool.maxConnections());
+        assertEquals(200, pool.pendingAcquireMaxCount());
+        assertEquals(1_000, pool.pendingAcquireTimeoutMillis());
+        assertEquals(30_000, pool.maxIdleTimeMillis());
+        assertEquals(0, pool.maxLifeTimeMillis());
+        assertEquals(0, pool.evictInBackgroundMillis());
+        assertFalse(pool.isLifo());
+        assertEquals(0, pool.warmConnections());
+        assertEquals("http11", pool.protocol());
+    }
+
+    @Test
+    void configuredUpstreamOverridesDefaults() {
+        HttpClientProperties properties = new HttpClientProperties(Map.of(
+                "origin", new HttpClientProperties.Pool(500, 0, 250, 0, 60_000, 5_000, "lifo", 8, "h2c"),
+                "ad-media", new HttpClientProperties.Pool(10, 0, 0, 0, 0, 0, null, 0, null)));
+
+        HttpClientProperties.Pool origin = properties.pool("origin");
+        assertEquals(500, origin.maxConnections());
+        // the queue follows the configured pool size when it is not set itself
+        assertEquals(1_000, origin.pendingAcquireMaxCount());
+        assertEquals(250, origin.pendingAcquireTimeoutMillis());
+        assertEquals(30_000, origin.maxIdleTimeMillis());
+        assertEquals(60_000, origin.maxLifeTimeMillis());
+        assertEquals(5_000, origin.evictInBackgroundMillis());
+        assertTrue(origin.isLifo());
+        assertEquals(8, origin.warmConnections());
+        assertEquals("h2c", origin.protocol());
+
+        assertEquals(10, properties.pool("ad-media").maxConnections());
+        assertEquals(20, properties.pool("ad-media").pendingAcquireMaxCount());
+        assertEquals("http11", properties.pool("ad-media").protocol());
+        assertEquals(100, properties.pool("session-context").maxConnections());
+    }
+
+    @Test
+    void protocolSelectsTransport() throws Exception {
+        HttpClient http11 = httpClient("http11");
+        assertArrayEquals(new HttpProtocol[]{HttpProtocol.HTTP11}, http11.configuration().protocols());
+        assertTrue(http11.configuration().isSecure());
+
+        HttpClient h2 = httpClient("h2");
+        assertArrayEquals(new HttpProtocol[]{HttpProtocol.H2, HttpProtocol.HTTP11}, h2.configuration().protocols());
+        assertTrue(h2.configuration().isSecure());
+
+        HttpClient h2c = httpClient("h2c");
+        assertArrayEquals(new HttpProtocol[]{HttpProtocol.H2C}, h2c.configuration().protocols());
+        assertFalse(h2c.configuration().isSecure());
+    }
+}
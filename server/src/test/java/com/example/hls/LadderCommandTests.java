@@ -0,0 +1,90 @@
+package com.example.hls;
+
+import com.example.hls.config.TranscodingProperties;
+import com.example.hls.config.TranscodingProperties.Ladder;
+import com.example.hls.config.TranscodingProperties.Rendition;
+import com.example.hls.service.transcoding.LadderCommand;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LadderCommandTests {
+
+    private static final Ladder VIDEO = new Ladder(List.of(
+            new Rendition("720p", 1280, 720, "libx264", "2500k", "aac", "128k"),
+            new Rendition("360p", 640, 360, "libx264", "800k", null, null)), 48, "veryfast", 4, 8, 0, null);
+
+    private static final Ladder AUDIO = new Ladder(List.of(
+            new Rendition("high", null, null, null, null, "aac", "192k"),
+            new Rendition("medium", null, null, null, null, "aac", "128k"),
+            new Rendition("low", null, null, null, null, "aac", "64k")), 0, null, 4, 8, 0, null);
+
+    @Test
+    void audioInputIsOpenedOnce() {
+        List<String> command = LadderCommand.build("/opt/ffmpeg", "rtmp://in/live/abc1234mb", "live/abc1234mb", AUDIO);
+
+        assertEquals("/opt/ffmpeg", command.get(0));
+        assertEquals(1, Collections.frequency(command, "-i"));
+        assertEquals("[0:a]asplit=3[a0][a1][a2]", after(command, "-filter_complex"));
+        assertEquals("a:0,name:high a:1,name:medium a:2,name:low", after(command, "-var_stream_map"));
+        assertEquals("live/abc1234mb/%v/segment_%03d.aac", after(command, "-hls_segment_filename"));
+        assertEquals("192k", after(command, "-b:a:0"));
+    }
+
+    @Test
+    void videoIsSplitAndScaledPerRendition() {
+        List<String> command = LadderCommand.build("ffmpeg", "rtmp://in/live/s", "live/s", VIDEO);
+
+        assertEquals(1, Collections.frequency(command, "-i"));
+        assertEquals("[0:v]split=2[v0][v1];[0:a]asplit=1[a0];[v0]scale=1280:720[v0s];[v1]scale=640:360[v1s]",
+                after(command, "-filter_complex"));
+        assertEquals("v:0,a:0,name:720p v:1,name:360p", after(command, "-var_stream_map"));
+        assertEquals("800k", after(command, "-b:v:1"));
+        assertEquals("48", after(command, "-g:v:1"));
+        assertEquals("live/s/%v/segment_%03d.ts", after(command, "-hls_segment_filename"));
+    }
+
+    @Test
+    void lowLatencyLadderCutsParts() {
+        Ladder lowLatency = new Ladder(VIDEO.renditions(), 48, "veryfast", 4, 8, 4, null);
+
+        List<String> command = LadderCommand.build("ffmpeg", "rtmp://in/live/s", "live/s", lowLatency);
+
+        assertEquals("1.0", after(command, "-hls_time"));
+        assertEquals("32", after(command, "-hls_list_size"));
+        assertEquals("delete_segments+append_list+split_by_time+temp_file", after(command, "-hls_flags"));
+        // parts are cut by time, segment boundaries still start on a key frame
+        assertEquals("expr:if(isnan(prev_forced_t),1,gte(t-prev_forced_t,4))", after(command, "-force_key_frames:v:0"));
+    }
+
+    @Test
+    void cmafLadderWritesInitAndMediaSegments() {
+        Ladder cmaf = new Ladder(VIDEO.renditions(), 48, "veryfast", 4, 8, 0, "fmp4");
+
+        List<String> command = LadderCommand.build("ffmpeg", "rtmp://in/live/s", "live/s", cmaf);
+
+        assertEquals("1", after(command, "-use_wallclock_as_timestamps"));
+        assertEquals("fmp4", after(command, "-hls_segment_type"));
+        assertEquals("init.mp4", after(command, "-hls_fmp4_init_filename"));
+        assertEquals("live/s/%v/segment_%03d.m4s", after(command, "-hls_segment_filename"));
+        assertTrue(after(command, "-hls_flags").endsWith("+program_date_time"));
+    }
+
+    @Test
+    void ladderIsSelectedByStreamSuffix() {
+        TranscodingProperties properties = new TranscodingProperties("video", "audio",
+                Map.of("tv", "video", "mb", "audio"), Map.of("video", VIDEO, "audio", AUDIO));
+
+        assertSame(AUDIO, properties.ladderFor("abc1234mb"));
+        assertSame(VIDEO, properties.ladderFor("abcdef12345tv"));
+        assertSame(VIDEO, properties.ladderFor("abcdef12345vv"));
+    }
+
+    private static String after(List<String> command, String option) {
+        return command.get(command.indexOf(option) + 1);
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.hls;
+
+import com.example.hls.model.SegmentPayload;
+import com.example.hls.service.origin.LocalSegmentOrigin;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.buffer.DataBufferUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LocalSegmentOriginTests {
+
+    @TempDir
+    Path output;
+
+    private static long bodyLength(SegmentPayload payload) {
+        SegmentPayload.Buffers buffers = (SegmentPayload.Buffers) payload;
+        return DataBufferUtils.join(buffers.body()).map(buffer -> {
+            int length = buffer.readableByteCount();
+            DataBufferUtils.release(buffer);
+            return length;
+        }).block();
+    }
+
+    @Test
+    void smallSegmentIsServedFromMemoryMapping() throws Exception {
+        byte[] data = new byte[1000];
+        Arrays.fill(data, (byte) 7);
+        Files.write(Files.createDirectories(output.resolve("foo/720p")).resolve("segment_001.ts"), data);
+        LocalSegmentOrigin origin = new LocalSegmentOrigin(true, output.toString(), 1024, 60_000);
+
+        SegmentPayload payload = origin.find("foo", "720p", "segment_001.ts").block();
+
+        SegmentPayload.Buffers buffers = assertInstanceOf(SegmentPayload.Buffers.class, payload);
+        assertEquals(1000, buffers.contentLength());
+        assertNotNull(buffers.etag());
+        byte[] body = DataBufferUtils.join(buffers.body()).map(buffer -> {
+            byte[] bytes = new byte[buffer.readableByteCount()];
+            buffer.read(bytes);
+            return bytes;
+        }).block();
+        assertArrayEquals(data, body);
+        assertEquals(buffers.etag(), origin.etag("foo", "720p", "segment_001.ts"));
+        // the mapping is reused, every response reads it from the start
+        assertEquals(1000, bodyLength(origin.find("foo", "720p", "segment_001.ts").block()));
+    }
+
+    @Test
+    void largeSegmentIsServedWithSendfile() throws Exception {
+        Path segment = Files.createDirectories(output.resolve("foo/720p")).resolve("segment_001.ts");
+        Files.write(segment, new byte[4096]);
+        LocalSegmentOrigin origin = new LocalSegmentOrigin(true, output.toString(), 1024, 60_000);
+
+        SegmentPayload payload = origin.find("foo", "720p", "segment_001.ts").block();
+
+        SegmentPayload.File file = assertInstanceOf(SegmentPayload.File.class, payload);
+        assertEquals(segment, file.path());
+        assertEquals(4096, file.contentLength());
+    }
+
+    @Test
+    void missingSegmentResolvesEmpty() throws Exception {
+        Files.createDirectories(output.resolve("foo/720p"));
+        LocalSegmentOrigin origin = new LocalSegmentOrigin(true, output.toString(), 1024, 60_000);
+
+        assertNull(origin.find("foo", "720p", "segment_001.ts").block());
+        assertNull(origin.find("foo", "720p", "init.mp4").block());
+        assertNull(origin.etag("foo", "720p", "segment_001.ts"));
+    }
+
+    @Test
+    void pathsOutsideOutputDirectoryAreRejected() throws Exception {
+        Path outside = Files.createDirectories(output.resolve("secret"));
+        Files.write(outside.resolve("segment_001.ts"), new byte[100]);
+        LocalSegmentOrigin origin = new LocalSegmentOrigin(true, output.resolve("live").toString(), 1024, 60_000);
+
+        assertNull(origin.find("..", "secret", "segment_001.ts").block());
+        assertNull(origin.find("foo", "720p", "../../../secret/segment_001.ts").block());
+        assertNull(origin.find("foo", "../../secret", "segment_001.ts").block());
+    }
+
+    @Test
+    void initSegmentRewrittenInPlaceIsServedFresh() throws Exception {
+        Path rendition = Files.createDirectories(output.resolve("foo/720p"));
+        Files.write(rendition.resolve("init.mp4"), new byte[100]);
+        LocalSegmentOrigin origin = new LocalSegmentOrigin(true, output.toString(), 1024, 60_000);
+
+        SegmentPayload first = origin.find("foo", "720p", "init.mp4").block();
+        // a restarted transcoder writes a shorter init segment under the same name
+        Files.write(rendition.resolve("init.mp4"), new byte[40]);
+        SegmentPayload second = origin.find("foo", "720p", "init.mp4").block();
+
+        assertEquals(100, first.contentLength());
+        assertEquals(40, second.contentLength());
+        assertEquals(40, bodyLength(second));
+        assertNotEquals(first.etag(), second.etag());
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.hls;
+
+import com.example.hls.model.LowLatencyPlaylist;
+import com.example.hls.model.MediaPlaylist;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LowLatencyPlaylistTests {
+
+    /**
+     * One second parts from 3 to {@code last}.
+     */
+    private static MediaPlaylist parts(int last) {
+        StringBuilder m3u8 = new StringBuilder("#EXTM3U\n#EXT-X-VERSION:3\n#EXT-X-TARGETDURATION:1\n#EXT-X-MEDIA-SEQUENCE:3\n");
+        for (int i = 3; i <= last; i++) {
+            m3u8.append("#EXTINF:1.000000,\n").append(String.format("segment_%03d.ts\n", i));
+        }
+        return MediaPlaylist.parse(m3u8.toString());
+    }
+
+    @Test
+    void partsAreGroupedIntoSegments() {
+        String rendered = LowLatencyPlaylist.render(parts(8), 2, List.of());
+
+        assertEquals(String.join("\n",
+                "#EXTM3U",
+                "#EXT-X-VERSION:6",
+                "#EXT-X-TARGETDURATION:2",
+                "#EXT-X-SERVER-CONTROL:CAN-BLOCK-RELOAD=YES,PART-HOLD-BACK=3.000",
+                "#EXT-X-PART-INF:PART-TARGET=1.000",
+                "#EXT-X-MEDIA-SEQUENCE:2",
+                "#EXT-X-PART:DURATION=1.000,URI=\"segment_004.ts\",INDEPENDENT=YES",
+                "#EXT-X-PART:DURATION=1.000,URI=\"segment_005.ts\"",
+                "#EXTINF:2.000,",
+                "ll_2.ts",
+                "#EXT-X-PART:DURATION=1.000,URI=\"segment_006.ts\",INDEPENDENT=YES",
+                "#EXT-X-PART:DURATION=1.000,URI=\"segment_007.ts\"",
+                "#EXTINF:2.000,",
+                "ll_3.ts",
+                "#EXT-X-PART:DURATION=1.000,URI=\"segment_008.ts\",INDEPENDENT=YES",
+                "#EXT-X-PRELOAD-HINT:TYPE=PART,URI=\"segment_009.ts\""), rendered);
+    }
+
+    @Test
+    void adBreakReplacesPendingParts() {
+        String rendered = LowLatencyPlaylist.render(parts(8), 2,
+                List.of("#EXT-X-DISCONTINUITY", "#EXTINF:4.0,", "ads/ad-0.ts", "#EXT-X-DISCONTINUITY"));
+
+        assertTrue(rendered.endsWith("ll_3.ts\n#EXT-X-DISCONTINUITY\n#EXTINF:4.0,\nads/ad-0.ts\n#EXT-X-DISCONTINUITY"));
+        assertFalse(rendered.contains("PRELOAD-HINT"));
+        assertFalse(rendered.contains("segment_008.ts"));
+    }
+
+    @Test
+    void blockingReloadConditions() {
+        MediaPlaylist playlist = parts(8);
+
+        assertTrue(LowLatencyPlaylist.contains(playlist, 2, 3, -1));
+        assertTrue(LowLatencyPlaylist.contains(playlist, 2, 4, 0));
+        assertFalse(LowLatencyPlaylist.contains(playlist, 2, 4, 1));
+        assertFalse(LowLatencyPlaylist.contains(playlist, 2, 4, -1));
+        assertEquals(4, LowLatencyPlaylist.nextMsn(playlist, 2));
+        assertEquals(12, LowLatencyPlaylist.msnOf("ll_12"));
+        assertEquals(-1, LowLatencyPlaylist.msnOf("segment_012"));
+        assertEquals("720p/segment_1000.ts", LowLatencyPlaylist.partUri("720p/segment_012.ts", 1000));
+    }
+}
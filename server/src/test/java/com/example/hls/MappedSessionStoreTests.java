@@ -0,0 +1,70 @@
+package com.example.hls;
+
+import com.example.hls.model.QualityMetrics;
+import com.example.hls.model.Session;
+import com.example.hls.service.session.MappedSessionStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedSessionStoreTests {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void sessionsSurviveReopen() {
+        Path file = dir.resolve("sessions.dat");
+        MappedSessionStore store = new MappedSessionStore(file, 16, 60_000);
+        Session session = store.computeIfAbsent("s1", id -> new Session(3));
+        session.incrementSegments();
+        session.getMetrics("720p").update("segment_42.ts", 1000);
+        Session removed = store.computeIfAbsent("s2", id -> new Session(3));
+        store.remove("s2", removed);
+        store.close();
+
+        MappedSessionStore reopened = new MappedSessionStore(file, 16, 60_000);
+        assertEquals(1, reopened.recoveredPending());
+        assertNull(reopened.get("s2"));
+        Session restored = reopened.get("s1");
+        assertEquals(session.getStartTime().toEpochMilli(), restored.getStartTime().toEpochMilli());
+        assertEquals(3, restored.getFrequencySegments());
+        assertEquals(2, restored.incrementSegments());
+        QualityMetrics metrics = restored.getMetrics("720p");
+        assertEquals(1000, metrics.getDownloadedBytes());
+        assertEquals(42, metrics.getLastSequence());
+        assertEquals(0, reopened.recoveredPending());
+        reopened.close();
+    }
+
+    @Test
+    void idleRecoveredSessionsAreDropped() {
+        Path file = dir.resolve("idle.dat");
+        MappedSessionStore store = new MappedSessionStore(file, 4, 60_000);
+        store.computeIfAbsent("s1", id -> new Session(0, Instant.now(), 0, 0));
+        store.close();
+
+        MappedSessionStore reopened = new MappedSessionStore(file, 4, 60_000);
+        reopened.checkpoint();
+        assertEquals(0, reopened.recoveredPending());
+        assertNull(reopened.get("s1"));
+        reopened.close();
+    }
+
+    @Test
+    void sessionsAboveCapacityStayInMemory() {
+        MappedSessionStore store = new MappedSessionStore(dir.resolve("small.dat"), 1, 60_000);
+        store.computeIfAbsent("s1", id -> new Session(0));
+        store.computeIfAbsent("s2", id -> new Session(0));
+        assertEquals(2, store.size());
+        store.close();
+
+        MappedSessionStore reopened = new MappedSessionStore(dir.resolve("small.dat"), 1, 60_000);
+        assertEquals(1, reopened.recoveredPending());
+        reopened.close();
+    }
+}
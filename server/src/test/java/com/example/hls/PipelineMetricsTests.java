@@ -0,0 +1,80 @@
+package com.example.hls;
+
+import com.example.hls.service.metrics.PipelineMetrics;
+import com.example.hls.service.metrics.PipelineMetrics.Stage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PipelineMetricsTests {
+
+    @Test
+    void streamTagsAreBounded() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        PipelineMetrics metrics = new PipelineMetrics(registry, false, 2, 4);
+
+        for (int i = 0; i < 10; i++) {
+            metrics.admitStream("stream" + i);
+            metrics.time(Stage.SEGMENT_FETCH, "stream" + i, "720p", Mono.just(i)).block();
+        }
+
+        assertEquals(3, registry.find("hls.segment.fetch").timers().size());
+        assertEquals(8, registry.get("hls.segment.fetch").tag("stream", PipelineMetrics.OTHER).timer().count());
+        assertEquals(1, registry.get("hls.segment.fetch").tag("stream", "stream0").timer().count());
+    }
+
+    @Test
+    void requestedStreamsAndQualitiesDoNotTakeTagValues() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        PipelineMetrics metrics = new PipelineMetrics(registry, false, 1, 1);
+
+        // probes for streams and qualities that do not exist must not use up the slots
+        for (int i = 0; i < 10; i++) {
+            metrics.time(Stage.SEGMENT_FETCH, "probe" + i, "q" + i, Mono.just(i)).block();
+        }
+        metrics.admitStream("live");
+        metrics.admitQuality("720p");
+        metrics.time(Stage.SEGMENT_FETCH, "live", "720p", Mono.just(0)).block();
+
+        assertEquals(10, registry.get("hls.segment.fetch").tag("stream", PipelineMetrics.OTHER).timer().count());
+        assertEquals(10, registry.get("hls.segment.fetch").tag("quality", PipelineMetrics.OTHER).timer().count());
+        assertEquals(1, registry.get("hls.segment.fetch").tag("stream", "live").tag("quality", "720p").timer().count());
+    }
+
+    @Test
+    void idleStreamsGiveUpTheirSlot() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        PipelineMetrics metrics = new PipelineMetrics(registry, false, 1, 4, 10);
+
+        metrics.admitStream("old");
+        metrics.time(Stage.SEGMENT_FETCH, "old", null, Mono.just(0)).block();
+        Thread.sleep(50);
+        metrics.admitStream("new");
+        metrics.time(Stage.SEGMENT_FETCH, "new", null, Mono.just(0)).block();
+        metrics.time(Stage.SEGMENT_FETCH, "old", null, Mono.just(0)).block();
+
+        assertNull(registry.find("hls.segment.fetch").tag("stream", "old").timer());
+        assertEquals(1, registry.get("hls.segment.fetch").tag("stream", "new").timer().count());
+        assertEquals(1, registry.get("hls.segment.fetch").tag("stream", PipelineMetrics.OTHER).timer().count());
+    }
+
+    @Test
+    void monoIsTimedUntilItCompletes() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        PipelineMetrics metrics = new PipelineMetrics(registry);
+
+        metrics.time(Stage.ORIGIN_PLAYLIST, "foo", null, Mono.delay(Duration.ofMillis(50))).block();
+        metrics.admitQuality("720p");
+        metrics.countBytesServed("720p", 100);
+        metrics.countBytesServed("720p", 50);
+
+        assertTrue(registry.get("hls.origin.playlist.fetch").tag("quality", PipelineMetrics.NONE).timer()
+                .totalTime(TimeUnit.MILLISECONDS) >= 50);
+        assertEquals(150, registry.get("hls.bytes.served").tag("quality", "720p").counter().count());
+    }
+}
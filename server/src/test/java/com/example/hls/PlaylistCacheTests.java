@@ -0,0 +1,133 @@
+package com.example.hls;
+
+import com.example.hls.model.CacheStats;
+import com.example.hls.model.CachedPlaylist;
+import com.example.hls.model.MediaPlaylist;
+import com.example.hls.model.PlaylistVariant;
+import com.example.hls.model.ad.AdSegment;
+import com.example.hls.service.cache.PlaylistCache;
+import com.example.hls.service.resilience.Upstreams;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PlaylistCacheTests {
+
+    private static final String PLAYLIST = "#EXTM3U\n#EXTINF:4.0,\nsegment_001.ts";
+
+    @Test
+    void concurrentMissesShareOneOriginRequest() {
+        AtomicInteger requests = new AtomicInteger();
+        DisposableServer server = HttpServer.create()
+                .port(0)
+                .handle((req, res) -> {
+                    requests.incrementAndGet();
+                    return res.status(200)
+                            .header("ETag", "\"v1\"")
+                            .sendString(Mono.just(PLAYLIST).delayElement(Duration.ofMillis(100)));
+                })
+                .bindNow();
+
+        PlaylistCache cache = new PlaylistCache(WebClient.create(), 10_000, 5);
+        String url = "http://localhost:" + server.port() + "/hls/foo/720p/playlist.m3u8";
+
+        List<String> bodies = Flux.range(0, 10)
+                .flatMap(i -> cache.get(url))
+                .collectList()
+                .block();
+
+        assertEquals(10, bodies.size());
+        bodies.forEach(body -> assertEquals(PLAYLIST, body));
+        assertEquals(1, requests.get());
+
+        assertEquals(PLAYLIST, cache.get(url).block());
+        CacheStats stats = cache.stats();
+        assertEquals(1, stats.misses());
+        assertEquals(9, stats.coalesced());
+        assertEquals(1, stats.hits());
+        server.disposeNow();
+    }
+
+    @Test
+    void expiredEntryIsRevalidatedWithEtag() throws Exception {
+        AtomicInteger notModified = new AtomicInteger();
+        DisposableServer server = HttpServer.create()
+                .port(0)
+                .handle((req, res) -> {
+                    if ("\"v1\"".equals(req.requestHeaders().get("If-None-Match"))) {
+                        notModified.incrementAndGet();
+                        return res.status(304).send();
+                    }
+                    return res.status(200).header("ETag", "\"v1\"").sendString(Mono.just(PLAYLIST));
+                })
+                .bindNow();
+
+        PlaylistCache cache = new PlaylistCache(WebClient.create(), 1, 5);
+        String url = "http://localhost:" + server.port() + "/hls/foo/720p/playlist.m3u8";
+
+        assertEquals(PLAYLIST, cache.get(url).block());
+        Thread.sleep(5);
+        assertEquals(PLAYLIST, cache.get(url).block());
+
+        assertEquals(1, notModified.get());
+        assertEquals(1, cache.stats().revalidated());
+        server.disposeNow();
+    }
+
+    @Test
+    void variantsAreRenderedOncePerEntry() {
+        DisposableServer server = HttpServer.create()
+                .port(0)
+                .handle((req, res) -> res.status(200).sendString(Mono.just(PLAYLIST + "\n#EXT-X-ENDLIST\n")))
+                .bindNow();
+
+        PlaylistCache cache = new PlaylistCache(WebClient.create(), 10_000, 5);
+        String url = "http://localhost:" + server.port() + "/hls/foo/720p/playlist.m3u8";
+        PlaylistVariant ads = new PlaylistVariant("ads/720p/", List.of(AdSegment.predefined("ad-0.ts", 5)));
+
+        CachedPlaylist first = cache.getEntry(url).block();
+        CachedPlaylist second = cache.getEntry(url).block();
+        byte[] plain = first.variant(PlaylistVariant.NONE, MediaPlaylist::render);
+        byte[] withAds = first.variant(ads, playlist -> playlist.render(List.of("#EXTINF:5.0,", "ads/720p/ad-0.ts")));
+
+        assertSame(plain, second.variant(PlaylistVariant.NONE, MediaPlaylist::render));
+        assertSame(withAds, second.variant(ads, playlist -> fail("rendered twice")));
+        assertEquals(PLAYLIST + "\n#EXT-X-ENDLIST", new String(plain, StandardCharsets.UTF_8));
+        assertEquals(PLAYLIST + "\n#EXTINF:5.0,\nads/720p/ad-0.ts\n#EXT-X-ENDLIST", new String(withAds, StandardCharsets.UTF_8));
+        server.disposeNow();
+    }
+
+    @Test
+    void parkedReloadIsReleasedByTheNextRefresh() {
+        AtomicInteger requests = new AtomicInteger();
+        DisposableServer server = HttpServer.create()
+                .port(0)
+                .handle((req, res) -> res.status(200).sendString(Mono.just(requests.incrementAndGet() < 3
+                        ? PLAYLIST
+                        : PLAYLIST + "\n#EXTINF:4.0,\nsegment_002.ts")))
+                .bindNow();
+
+        PlaylistCache cache = new PlaylistCache(WebClient.create(), Upstreams.defaults(), 10_000, 5, 20);
+        String url = "http://localhost:" + server.port() + "/hls/foo/720p/playlist.m3u8";
+
+        CachedPlaylist updated = cache.awaitEntry(url, entry -> entry.playlist().segments().size() == 2,
+                Duration.ofSeconds(5), null).block();
+        assertEquals(2, updated.playlist().segments().size());
+        assertEquals(0, cache.parkedRequests());
+
+        // the condition is never met, the latest entry is returned after the timeout
+        CachedPlaylist latest = cache.awaitEntry(url, entry -> false, Duration.ofMillis(100), null).block();
+        assertEquals(2, latest.playlist().segments().size());
+        server.disposeNow();
+    }
+}
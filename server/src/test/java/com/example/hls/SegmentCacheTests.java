@@ -0,0 +1,120 @@
+package com.example.hls;
+
+import com.example.hls.model.CacheStats;
+import com.example.hls.model.SegmentPayload;
+import com.example.hls.service.cache.SegmentCache;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentCacheTests {
+
+    private static Mono<SegmentPayload.Buffers> origin(AtomicInteger fetches, int size) {
+        return Mono.fromSupplier(() -> {
+            fetches.incrementAndGet();
+            return SegmentPayload.of(new byte[size]);
+        }).delayElement(Duration.ofMillis(50));
+    }
+
+    private static long bodyLength(SegmentPayload payload) {
+        SegmentPayload.Buffers buffers = (SegmentPayload.Buffers) payload;
+        return DataBufferUtils.join(buffers.body()).map(buffer -> {
+            int length = buffer.readableByteCount();
+            DataBufferUtils.release(buffer);
+            return length;
+        }).block();
+    }
+
+    @Test
+    void concurrentMissesShareOneFetch() {
+        SegmentCache cache = new SegmentCache(true, 1024 * 1024, 8);
+        AtomicInteger fetches = new AtomicInteger();
+
+        Flux.range(0, 10)
+                .flatMap(i -> cache.get("foo", "720p", "segment_001.ts", () -> origin(fetches, 1000)))
+                .doOnNext(payload -> assertEquals(1000, bodyLength(payload)))
+                .blockLast();
+        cache.get("foo", "720p", "segment_001.ts", () -> origin(fetches, 1000)).block();
+
+        assertEquals(1, fetches.get());
+        CacheStats stats = cache.stats();
+        assertEquals(1, stats.misses());
+        assertEquals(9, stats.coalesced());
+        assertEquals(1, stats.hits());
+        assertEquals(1000, stats.bytes());
+    }
+
+    @Test
+    void missIsRelayedWhileItFills() {
+        SegmentCache cache = new SegmentCache(true, 1024 * 1024, 8);
+        AtomicInteger fetches = new AtomicInteger();
+        Sinks.Many<DataBuffer> chunks = Sinks.many().unicast().onBackpressureBuffer();
+        Mono<SegmentPayload.Buffers> slowOrigin = Mono.fromSupplier(() -> {
+            fetches.incrementAndGet();
+            return new SegmentPayload.Buffers(chunks.asFlux(), 300);
+        });
+        CopyOnWriteArrayList<Integer> received = new CopyOnWriteArrayList<>();
+
+        SegmentPayload first = cache.get("foo", "720p", "segment_001.ts", () -> slowOrigin).block();
+        ((SegmentPayload.Buffers) first).body()
+                .subscribe(buffer -> received.add(buffer.readableByteCount()));
+        chunks.tryEmitNext(DefaultDataBufferFactory.sharedInstance.wrap(new byte[100]));
+        // the first chunk reaches the viewer before the origin finished sending
+        assertEquals(100, received.stream().mapToInt(Integer::intValue).sum());
+
+        SegmentPayload second = cache.get("foo", "720p", "segment_001.ts", () -> slowOrigin).block();
+        chunks.tryEmitNext(DefaultDataBufferFactory.sharedInstance.wrap(new byte[200]));
+        chunks.tryEmitComplete();
+
+        assertEquals(300, received.stream().mapToInt(Integer::intValue).sum());
+        assertEquals(300, bodyLength(second));
+        assertEquals(300, bodyLength(cache.get("foo", "720p", "segment_001.ts", () -> slowOrigin).block()));
+        assertEquals(1, fetches.get());
+        CacheStats stats = cache.stats();
+        assertEquals(1, stats.coalesced());
+        assertEquals(1, stats.hits());
+        assertEquals(300, stats.bytes());
+    }
+
+    @Test
+    void segmentsOutsideLiveWindowAreEvicted() {
+        SegmentCache cache = new SegmentCache(true, 1024 * 1024, 2);
+        AtomicInteger fetches = new AtomicInteger();
+
+        for (int i = 0; i < 5; i++) {
+            cache.get("foo", "720p", String.format("segment_%03d.ts", i), () -> origin(fetches, 100)).block();
+        }
+
+        CacheStats stats = cache.stats();
+        assertEquals(3, stats.entries());
+        assertEquals(2, stats.evictions());
+        assertEquals(300, stats.bytes());
+    }
+
+    @Test
+    void leastRecentlyUsedSegmentIsEvictedOverBudget() {
+        SegmentCache cache = new SegmentCache(true, 1000, 100);
+        AtomicInteger fetches = new AtomicInteger();
+
+        cache.get("foo", "720p", "segment_000.ts", () -> origin(fetches, 200)).block();
+        cache.get("bar", "720p", "segment_000.ts", () -> origin(fetches, 200)).block();
+        cache.get("foo", "720p", "segment_000.ts", () -> origin(fetches, 200)).block();
+        for (int i = 0; i < 4; i++) {
+            cache.get("baz", "720p", String.format("segment_%03d.ts", i), () -> origin(fetches, 200)).block();
+        }
+        cache.get("foo", "720p", "segment_000.ts", () -> origin(fetches, 200)).block();
+
+        assertEquals(6, fetches.get());
+        assertTrue(cache.stats().bytes() <= 1000);
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.hls;
+
+import com.example.hls.service.origin.SegmentIndex;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentIndexTests {
+
+    @TempDir
+    Path output;
+
+    @Test
+    void segmentsAreIndexedWhenTheTranscoderListsThem() throws Exception {
+        SegmentIndex index = new SegmentIndex(true, output.toString());
+        List<SegmentIndex.Segment> ready = new CopyOnWriteArrayList<>();
+        index.addListener(ready::add);
+        index.start();
+
+        Path rendition = Files.createDirectories(output.resolve("abc1234mb/720p"));
+        Files.write(rendition.resolve("segment_007.ts"), new byte[188]);
+        Files.write(rendition.resolve("segment_008.ts"), new byte[376]);
+        writePlaylist(rendition, 7, "segment_007.ts", "segment_008.ts");
+
+        awaitTrue(() -> ready.size() == 2);
+        SegmentIndex.Segment latest = index.latest("abc1234mb", "720p").orElseThrow();
+        assertEquals(8, latest.sequence());
+        assertEquals(376, latest.size());
+
+        // segment_007 left the live window
+        Files.write(rendition.resolve("segment_009.ts"), new byte[188]);
+        writePlaylist(rendition, 8, "segment_008.ts", "segment_009.ts");
+
+        awaitTrue(() -> ready.size() == 3);
+        assertEquals(9, index.latest("abc1234mb", "720p").orElseThrow().sequence());
+        assertTrue(index.find("abc1234mb", "720p", "segment_007.ts").isEmpty());
+        assertEquals(2, index.segments("abc1234mb", "720p").size());
+        index.stop();
+    }
+
+    /**
+     * Writes the playlist the way ffmpeg does, to a temporary file renamed over the playlist.
+     */
+    private static void writePlaylist(Path directory, long mediaSequence, String... segments) throws Exception {
+        StringBuilder playlist = new StringBuilder("#EXTM3U\n#EXT-X-TARGETDURATION:4\n#EXT-X-MEDIA-SEQUENCE:" + mediaSequence + "\n");
+        for (String segment : segments) {
+            playlist.append("#EXTINF:4.000000,\n").append(segment).append('\n');
+        }
+        Path temporary = directory.resolve("playlist.m3u8.tmp");
+        Files.writeString(temporary, playlist);
+        Files.move(temporary, directory.resolve("playlist.m3u8"), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "condition not met in time");
+            Thread.sleep(20);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.hls;
+
+import com.example.hls.service.cache.PlaylistCache;
+import com.example.hls.service.cache.SegmentCache;
+import com.example.hls.service.cache.SegmentPrefetcher;
+import com.example.hls.service.resilience.Upstreams;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentPrefetcherTests {
+
+    @Test
+    void newSegmentsArePrefetchedOncePerRendition() throws Exception {
+        AtomicReference<String> playlist = new AtomicReference<>(playlist(1, "segment_001.ts", "segment_002.ts"));
+        List<String> segmentRequests = new CopyOnWriteArrayList<>();
+        DisposableServer server = HttpServer.create()
+                .port(0)
+                .handle((req, res) -> {
+                    if (req.uri().endsWith(".m3u8")) {
+                        return res.sendString(Mono.just(playlist.get()));
+                    }
+                    segmentRequests.add(req.uri().substring(req.uri().lastIndexOf('/') + 1));
+                    return res.sendByteArray(Mono.just(new byte[188]));
+                })
+                .bindNow();
+
+        WebClient webClient = WebClient.create();
+        PlaylistCache playlists = new PlaylistCache(webClient, 1, 5);
+        SegmentCache segments = new SegmentCache(true, 1024 * 1024, 8);
+        SegmentPrefetcher prefetcher = new SegmentPrefetcher(playlists, segments, webClient, Upstreams.defaults(),
+                true, 4, 1024 * 1024, 10_000, 5);
+        prefetcher.start();
+        String url = "http://localhost:" + server.port() + "/hls/foo/720p/playlist.m3u8";
+
+        // players start at the live edge, only the newest segment is worth prefetching
+        prefetcher.viewed(url, "foo", "720p");
+        playlists.getEntry(url).block();
+        awaitTrue(() -> segments.contains("foo", "720p", "segment_002.ts"));
+        assertEquals(List.of("segment_002.ts"), segmentRequests);
+
+        playlist.set(playlist(2, "segment_002.ts", "segment_003.ts", "segment_004.ts"));
+        Thread.sleep(5);
+        playlists.getEntry(url).block();
+        awaitTrue(() -> prefetcher.prefetched() == 3);
+        assertTrue(segments.contains("foo", "720p", "segment_003.ts"));
+        assertEquals(3, segmentRequests.size());
+
+        // a player request for a prefetched segment is a cache hit
+        segments.get("foo", "720p", "segment_004.ts", () -> Mono.error(new AssertionError("fetched twice"))).block();
+        assertEquals(1, segments.stats().hits());
+        server.disposeNow();
+    }
+
+    @Test
+    void renditionsWithoutRecentViewersAreSkipped() throws Exception {
+        DisposableServer server = HttpServer.create()
+                .port(0)
+                .handle((req, res) -> res.sendString(Mono.just(playlist(1, "segment_001.ts"))))
+                .bindNow();
+
+        WebClient webClient = WebClient.create();
+        PlaylistCache playlists = new PlaylistCache(webClient, 10_000, 5);
+        SegmentCache segments = new SegmentCache(true, 1024 * 1024, 8);
+        SegmentPrefetcher prefetcher = new SegmentPrefetcher(playlists, segments, webClient, Upstreams.defaults(),
+                true, 4, 1024 * 1024, 1, 5);
+        prefetcher.start();
+        String url = "http://localhost:" + server.port() + "/hls/foo/720p/playlist.m3u8";
+
+        prefetcher.viewed(url, "foo", "720p");
+        Thread.sleep(10);
+        playlists.getEntry(url).block();
+
+        assertEquals(1, prefetcher.skipped());
+        assertFalse(segments.contains("foo", "720p", "segment_001.ts"));
+        server.disposeNow();
+    }
+
+    private static String playlist(long mediaSequence, String... segments) {
+        StringBuilder playlist = new StringBuilder("#EXTM3U\n#EXT-X-TARGETDURATION:4\n#EXT-X-MEDIA-SEQUENCE:" + mediaSequence + "\n");
+        for (String segment : segments) {
+            playlist.append("#EXTINF:4.000000,\n").append(segment).append('\n');
+        }
+        return playlist.toString();
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "condition not met in time");
+            Thread.sleep(20);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.hls;
+
+import com.example.hls.service.metrics.PipelineMetrics;
+import com.example.hls.service.resilience.CircuitBreaker;
+import com.example.hls.service.resilience.Upstream;
+import com.example.hls.service.resilience.Upstreams;
+import com.example.hls.service.session.SessionContextBatcher;
+import com.example.hls.service.session.SessionContextService;
+import com.example.hls.util.JsonConverter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zenomedia.common.model.events.session.SessionContext;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SessionContextServiceTests {
+
+    @Test
+    void playlistRequestsDoNotWaitForEnrichment() throws Exception {
+        AtomicInteger posts = new AtomicInteger();
+        DisposableServer server = HttpServer.create()
+                .port(0)
+                .handle((req, res) -> {
+                    posts.incrementAndGet();
+                    return res.status(200)
+                            .header("Content-Type", MediaType.APPLICATION_JSON_VALUE)
+                            .sendString(Mono.just("{\"id\":\"s1\"}").delayElement(Duration.ofMillis(200)));
+                })
+                .bindNow();
+
+        JsonConverter converter = new JsonConverter(new ObjectMapper());
+        SessionContextBatcher batcher = new SessionContextBatcher(WebClient.create(), converter, false, "", 5, 50, 4);
+        SessionContextService service = new SessionContextService(WebClient.create(),
+                converter, batcher, Upstreams.defaults(), PipelineMetrics.simple(), "http://localhost:" + server.port() + "/context", "",
+                60_000, 1_000, 600_000, 100);
+        MockServerHttpRequest request = MockServerHttpRequest.get("http://localhost/hls/foo/playlist.m3u8")
+                .remoteAddress(new InetSocketAddress("127.0.0.1", 5000))
+                .build();
+
+        long started = System.nanoTime();
+        SessionContext local = service.getSessionContext(request, "foo", "s1");
+        for (int i = 0; i < 9; i++) {
+            assertSame(local, service.getSessionContext(request, "foo", "s1"));
+        }
+        assertTrue(Duration.ofNanos(System.nanoTime() - started).toMillis() < 200);
+
+        Thread.sleep(500);
+        SessionContext enhanced = service.getSessionContext(request, "foo", "s1");
+        assertNotSame(local, enhanced);
+        assertEquals(1, posts.get());
+        assertEquals(1, service.refreshStats().refreshes());
+        assertEquals(1, service.stats().misses());
+        server.disposeNow();
+    }
+
+    @Test
+    void contextsAreSentInBatches() {
+        AtomicInteger posts = new AtomicInteger();
+        // bulk stub answering with the posted contexts
+        DisposableServer server = HttpServer.create()
+                .port(0)
+                .handle((req, res) -> {
+                    posts.incrementAndGet();
+                    return res.status(200)
+                            .header("Content-Type", MediaType.APPLICATION_JSON_VALUE)
+                            .sendString(req.receive().aggregate().asString());
+                })
+                .bindNow();
+
+        SessionContextBatcher batcher = new SessionContextBatcher(WebClient.create(), new JsonConverter(new ObjectMapper()),
+                true, "http://localhost:" + server.port() + "/contexts/bulk", 200, 10, 4);
+
+        List<SessionContext> results = Flux.range(0, 20)
+                .flatMap(i -> batcher.submit(SessionContext.builder().id("s" + i).build()))
+                .collectList()
+                .block(Duration.ofSeconds(5));
+
+        assertEquals(20, results.size());
+        assertEquals(20, results.stream().map(SessionContext::getId).distinct().count());
+        assertEquals(2, posts.get());
+        assertEquals(1.0, batcher.stats().fillRatio());
+        server.disposeNow();
+    }
+
+    @Test
+    void contextsSubmittedConcurrentlyAreAllBatched() {
+        DisposableServer server = HttpServer.create()
+                .port(0)
+                .handle((req, res) -> res.status(200)
+                        .header("Content-Type", MediaType.APPLICATION_JSON_VALUE)
+                        .sendString(req.receive().aggregate().asString()))
+                .bindNow();
+
+        SessionContextBatcher batcher = new SessionContextBatcher(WebClient.create(), new JsonConverter(new ObjectMapper()),
+                true, "http://localhost:" + server.port() + "/contexts/bulk", 5, 50, 4);
+
+        // submissions race from several threads, none of them may be lost or block the others
+        List<SessionContext> results = Flux.range(0, 1_000)
+                .parallel(8)
+                .runOn(Schedulers.parallel())
+                .flatMap(i -> batcher.submit(SessionContext.builder().id("s" + i).build()))
+                .sequential()
+                .collectList()
+                .block(Duration.ofSeconds(10));
+
+        assertEquals(1_000, results.size());
+        assertEquals(1_000, results.stream().map(SessionContext::getId).distinct().count());
+        assertEquals(1_000, batcher.stats().items());
+        server.disposeNow();
+    }
+
+    @Test
+    void hungBatchTimesOutAndCountsOnceAgainstTheBreaker() {
+        // bulk stub that never answers
+        DisposableServer server = HttpServer.create()
+                .port(0)
+                .handle((req, res) -> Mono.never())
+                .bindNow();
+        Upstreams upstreams = new Upstreams(2_000, 5_000, 5_000, 200, 5, 5_000, false, 50);
+
+        SessionContextBatcher batcher = new SessionContextBatcher(WebClient.create(), new JsonConverter(new ObjectMapper()),
+                upstreams, true, "http://localhost:" + server.port() + "/contexts/bulk", 50, 10, 1);
+
+        List<String> failed = Flux.range(0, 10)
+                .flatMap(i -> batcher.submit(SessionContext.builder().id("s" + i).build())
+                        .map(SessionContext::getId)
+                        .onErrorReturn("failed"))
+                .collectList()
+                .block(Duration.ofSeconds(5));
+
+        assertEquals(10, failed.stream().filter("failed"::equals).count());
+        Upstream.Stats stats = upstreams.sessionContext().stats();
+        assertEquals(1, stats.failures());
+        assertEquals(1, stats.timeouts());
+        assertEquals(CircuitBreaker.State.CLOSED, stats.state());
+        // the in-flight slot of the hung batch was released
+        assertEquals(1, batcher.stats().batches());
+        assertEquals("failed", batcher.submit(SessionContext.builder().id("s10").build())
+                .map(SessionContext::getId).onErrorReturn("failed").block(Duration.ofSeconds(5)));
+        assertEquals(2, batcher.stats().batches());
+        server.disposeNow();
+    }
+}
@@ -5,6 +5,9 @@ import com.example.hls.model.Session;
 import com.example.hls.model.QualityMetrics;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class SessionServiceTests {
@@ -12,10 +15,135 @@ class SessionServiceTests {
     @Test
     void metricsAreUpdated() {
         SessionService service = new SessionService();
+        service.getSession("s1");
         service.updateMetrics("s1", "720p", "chunk0.ts", 100);
+        service.flushMetrics();
         Session session = service.getSession("s1");
         QualityMetrics metrics = session.getMetrics("720p");
         assertEquals("chunk0.ts", metrics.getLastDownloadedChunk());
         assertEquals(100, metrics.getDownloadedBytes());
+        assertEquals(0, metrics.getLastSequence());
+        service.shutdown();
+    }
+
+    @Test
+    void metricsDoNotReviveUnknownSessions() {
+        SessionService service = new SessionService();
+        service.updateMetrics("gone", "720p", "chunk0.ts", 100);
+        service.flushMetrics();
+
+        assertEquals(0, service.size());
+        assertEquals(100L, service.bytesByQuality().get("720p"));
+        service.shutdown();
+    }
+
+    @Test
+    void concurrentUpdatesAreAggregated() throws Exception {
+        SessionService service = new SessionService();
+        service.getSession("s1");
+        Thread[] producers = new Thread[4];
+        for (int t = 0; t < producers.length; t++) {
+            producers[t] = new Thread(() -> {
+                for (int i = 0; i < 1_000; i++) {
+                    service.updateMetrics("s1", "720p", "segment_" + i + ".ts", 10);
+                }
+            });
+            producers[t].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        service.flushMetrics();
+
+        assertEquals(0, service.droppedMetrics());
+        assertEquals(40_000, service.getSession("s1").getMetrics("720p").getDownloadedBytes());
+        assertEquals(40_000L, service.bytesByQuality().get("720p"));
+        service.shutdown();
+    }
+
+    @Test
+    void idleSessionsExpire() {
+        List<String> expired = new ArrayList<>();
+        SessionService service = new SessionService(10, 1_000, 100,
+                List.of((id, session) -> expired.add(id)));
+        service.getSession("s1");
+        service.getSession("s2");
+
+        service.expireIdleSessions(System.currentTimeMillis() + 500);
+        assertEquals(2, service.size());
+
+        service.expireIdleSessions(System.currentTimeMillis() + 5_000);
+        assertEquals(0, service.size());
+        assertTrue(expired.containsAll(List.of("s1", "s2")));
+        service.shutdown();
+    }
+
+    @Test
+    void sessionCountIsBounded() {
+        List<String> expired = new ArrayList<>();
+        SessionService service = new SessionService(3, 60_000, 1_000,
+                List.of((id, session) -> expired.add(id)));
+        for (int i = 0; i < 10; i++) {
+            service.getSession("s" + i);
+        }
+
+        assertEquals(3, service.size());
+        assertEquals(7, expired.size());
+        service.shutdown();
+    }
+
+    @Test
+    void overflowEvictsTheLeastRecentlyAccessedSession() throws Exception {
+        List<String> expired = new ArrayList<>();
+        SessionService service = new SessionService(2, 10_000, 100,
+                List.of((id, session) -> expired.add(id)));
+        service.getSession("s1");
+        service.getSession("s2");
+        Thread.sleep(250);
+        // still filed in the slot of its first access
+        service.getSession("s1");
+
+        service.getSession("s3");
+
+        assertEquals(List.of("s2"), expired);
+        assertEquals(2, service.size());
+        service.shutdown();
+    }
+
+    @Test
+    void adBreakIsClaimedOnce() {
+        Session session = new Session(2);
+        session.incrementSegments();
+        assertFalse(session.tryBeginAdInsertion());
+        assertEquals(2, session.incrementSegments());
+        assertEquals(Session.AdState.AD_DUE, session.getAdState());
+
+        assertTrue(session.tryBeginAdInsertion());
+        assertFalse(session.tryBeginAdInsertion());
+        session.completeAdInsertion();
+
+        assertEquals(Session.AdState.INSERTED, session.getAdState());
+        assertEquals(1, session.incrementSegments());
+    }
+
+    @Test
+    void insertionCompletesWhileSegmentsAreServed() throws Exception {
+        for (int round = 0; round < 200; round++) {
+            Session session = new Session(2);
+            session.incrementSegments();
+            session.incrementSegments();
+            assertTrue(session.tryBeginAdInsertion());
+            Thread player = new Thread(() -> {
+                for (int i = 0; i < 100; i++) {
+                    session.incrementSegments();
+                }
+            });
+            player.start();
+            session.completeAdInsertion();
+            player.join();
+
+            assertNotEquals(Session.AdState.INSERTING, session.getAdState());
+            assertEquals(1, session.getAdBreakNumber());
+        }
     }
 }
@@ -0,0 +1,94 @@
+package com.example.hls;
+
+import com.example.hls.service.session.SessionTokenService;
+import com.zenomedia.session.common.SessionTokenManager;
+import com.zenomedia.session.common.model.SessionTokenParams;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class SessionTokenServiceTests {
+
+    @Test
+    void verifiedTokenIsDecodedOnce() {
+        SessionTokenManager manager = mock(SessionTokenManager.class);
+        SessionTokenParams params = mock(SessionTokenParams.class);
+        when(params.getExpiration()).thenReturn(System.currentTimeMillis() + 60_000);
+        when(manager.getParams("t1")).thenReturn(params);
+        SessionTokenService service = new SessionTokenService(manager, Set.of("localhost"));
+
+        assertSame(params, service.resolve("t1").block());
+        assertSame(params, service.getParams("t1"));
+        assertSame(params, service.resolve("t1").block());
+
+        verify(manager, times(1)).getParams("t1");
+        assertEquals(2, service.stats().hits());
+        assertEquals(1, service.stats().entries());
+    }
+
+    @Test
+    void missingOrUndecodableTokenResolvesEmpty() {
+        SessionTokenManager manager = mock(SessionTokenManager.class);
+        when(manager.getParams("bad")).thenThrow(new IllegalArgumentException("bad signature"));
+        SessionTokenService service = new SessionTokenService(manager, Set.of("localhost"));
+
+        assertNull(service.resolve(null).block());
+        assertNull(service.resolve("").block());
+        assertNull(service.resolve("unknown").block());
+        assertNull(service.resolve("bad").block());
+        assertNull(service.getParams(null));
+        assertEquals(0, service.stats().entries());
+    }
+
+    @Test
+    void expiredTokenIsNotCached() {
+        SessionTokenManager manager = mock(SessionTokenManager.class);
+        SessionTokenParams params = mock(SessionTokenParams.class);
+        when(params.getExpiration()).thenReturn(System.currentTimeMillis() - 1);
+        when(manager.getParams("t1")).thenReturn(params);
+        SessionTokenService service = new SessionTokenService(manager, Set.of("localhost"));
+
+        service.getParams("t1");
+        service.getParams("t1");
+
+        verify(manager, times(2)).getParams("t1");
+        assertEquals(0, service.stats().entries());
+    }
+
+    @Test
+    void tokenIsValidForItsStreamAndHostOnly() {
+        SessionTokenManager manager = mock(SessionTokenManager.class);
+        SessionTokenParams params = mock(SessionTokenParams.class);
+        when(params.getExpiration()).thenReturn(System.currentTimeMillis() + 60_000);
+        when(params.getStream()).thenReturn("foo");
+        when(params.getHost()).thenReturn("localhost");
+        SessionTokenParams foreign = mock(SessionTokenParams.class);
+        when(foreign.getExpiration()).thenReturn(System.currentTimeMillis() + 60_000);
+        when(foreign.getStream()).thenReturn("foo");
+        when(foreign.getHost()).thenReturn("elsewhere");
+        SessionTokenService service = new SessionTokenService(manager, Set.of("localhost"));
+
+        assertTrue(service.isValid(params, "foo"));
+        assertFalse(service.isValid(params, "bar"));
+        assertFalse(service.isValid(foreign, "foo"));
+    }
+
+    @Test
+    void cacheIsBounded() {
+        SessionTokenManager manager = mock(SessionTokenManager.class);
+        SessionTokenParams params = mock(SessionTokenParams.class);
+        when(params.getExpiration()).thenReturn(System.currentTimeMillis() + 60_000);
+        when(manager.getParams(anyString())).thenReturn(params);
+        SessionTokenService service = new SessionTokenService(manager, Set.of("localhost"), 100);
+
+        for (int i = 0; i < 1_000; i++) {
+            service.getParams("t" + i);
+        }
+
+        assertTrue(service.stats().entries() <= 100);
+        assertTrue(service.stats().evictions() > 0);
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.hls;
+
+import com.example.hls.service.resilience.CircuitBreaker;
+import com.example.hls.service.resilience.CircuitOpenException;
+import com.example.hls.service.resilience.Deadline;
+import com.example.hls.service.resilience.Upstream;
+import com.example.hls.util.SingleFlight;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UpstreamTests {
+
+    @Test
+    void openCircuitRejectsCalls() {
+        Upstream upstream = new Upstream("test", Duration.ofSeconds(1), new CircuitBreaker(2, 60_000),
+                false, Duration.ofMillis(50));
+        AtomicInteger requests = new AtomicInteger();
+
+        for (int i = 0; i < 2; i++) {
+            assertThrows(IllegalStateException.class, () -> upstream.call(() -> {
+                requests.incrementAndGet();
+                return Mono.error(new IllegalStateException("down"));
+            }).block());
+        }
+        Exception rejected = assertThrows(Exception.class, () -> upstream.call(() -> {
+            requests.incrementAndGet();
+            return Mono.just("ok");
+        }).block());
+
+        assertInstanceOf(CircuitOpenException.class, rejected);
+        assertEquals(2, requests.get());
+        assertEquals(CircuitBreaker.State.OPEN, upstream.stats().state());
+        assertEquals(1, upstream.stats().rejected());
+    }
+
+    @Test
+    void slowRequestIsHedged() {
+        Upstream upstream = new Upstream("test", Duration.ofSeconds(5), new CircuitBreaker(5, 60_000),
+                true, Duration.ofMillis(50));
+        AtomicInteger requests = new AtomicInteger();
+
+        String value = upstream.hedgedGet(() -> requests.incrementAndGet() == 1
+                ? Mono.just("slow").delayElement(Duration.ofSeconds(2))
+                : Mono.just("fast")).block(Duration.ofSeconds(1));
+
+        assertEquals("fast", value);
+        assertEquals(2, requests.get());
+        assertEquals(1, upstream.stats().hedgeWins());
+    }
+
+    @Test
+    void expiredDeadlineFailsFast() {
+        Upstream upstream = new Upstream("test", Duration.ofSeconds(5), new CircuitBreaker(5, 60_000),
+                false, Duration.ofMillis(50));
+
+        Exception error = assertThrows(Exception.class, () -> upstream.call(() -> Mono.just("late").delayElement(Duration.ofSeconds(1)))
+                .contextWrite(context -> context.put(Deadline.KEY, Deadline.after(Duration.ofMillis(100))))
+                .block(Duration.ofSeconds(2)));
+
+        assertInstanceOf(TimeoutException.class, error.getCause() != null ? error.getCause() : error);
+        assertEquals(1, upstream.stats().timeouts());
+        // the client ran out of time, the upstream is not blamed
+        assertEquals(0, upstream.stats().failures());
+        assertEquals(CircuitBreaker.State.CLOSED, upstream.stats().state());
+    }
+
+    @Test
+    void hedgeSucceedsWhenTheFirstRequestFailsFast() {
+        Upstream upstream = new Upstream("test", Duration.ofSeconds(5), new CircuitBreaker(5, 60_000),
+                true, Duration.ofMillis(50));
+        AtomicInteger requests = new AtomicInteger();
+
+        String value = upstream.hedgedGet(() -> requests.incrementAndGet() == 1
+                ? Mono.<String>error(new IllegalStateException("reset"))
+                : Mono.just("hedged")).block(Duration.ofSeconds(1));
+
+        assertEquals("hedged", value);
+        assertEquals(0, upstream.stats().failures());
+    }
+
+    @Test
+    void sharedLoadSeesTheDeadlineOfTheRequest() {
+        SingleFlight<String, Boolean> loads = new SingleFlight<>();
+
+        Boolean bounded = loads.execute("key", () -> Mono.deferContextual(context -> Mono.just(context.hasKey(Deadline.KEY))))
+                .contextWrite(context -> context.put(Deadline.KEY, Deadline.after(Duration.ofSeconds(1))))
+                .block(Duration.ofSeconds(1));
+
+        assertEquals(Boolean.TRUE, bounded);
+    }
+}